@@ -0,0 +1,46 @@
+package myblog.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+// A socket stand-in for ResponseWriter benchmarks: accepts every write in full and keeps
+// nothing but a byte count, so the measurement is the response assembly and not a copy.
+// It is gathering like a SocketChannel, so the writer takes the same path as in production.
+final class DiscardChannel implements GatheringByteChannel {
+    private long written;
+
+    @Override
+    public int write(ByteBuffer src) {
+        int length = src.remaining();
+        src.position(src.limit());
+        written += length;
+        return length;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        long total = 0;
+        for (int i = offset; i < offset + length; i++) {
+            total += write(srcs[i]);
+        }
+        return total;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+        return write(srcs, 0, srcs.length);
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,79 @@
+package myblog.bench;
+
+import myblog.handlers.FileHandler;
+import myblog.handlers.ResponseWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// FileHandler.sendFileResponse for the files a login page load fetches. After the first
+// invocation everything is served from the in-memory asset cache, which is the steady
+// state in production. Must be run from the repository root, where the static files are.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileHandlerBenchmark {
+    @Param({"/login.html", "/css/styles.css", "/img/login_image.jpg"})
+    public String path;
+
+    private final DiscardChannel channel = new DiscardChannel();
+    private Map<String, String> plainRequest;
+    private Map<String, String> gzipRequest;
+    private Map<String, String> rangeRequest;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (!Files.isDirectory(Paths.get("src/main/java/myblog/static"))) {
+            throw new IllegalStateException("Run the benchmarks from the repository root");
+        }
+        FileHandler.configureCache(FileHandler.defaultStaticRoot(), 32L * 1024 * 1024, 8L * 1024 * 1024, false);
+        plainRequest = Map.of();
+        gzipRequest = Map.of("accept-encoding", "gzip, deflate, br");
+        rangeRequest = Map.of("range", "bytes=0-1023");
+    }
+
+    private ResponseWriter newWriter(Map<String, String> requestHeaders) {
+        ResponseWriter writer = new ResponseWriter(OutputStream.nullOutputStream(), channel);
+        writer.keepAlive(5, 99);
+        writer.acceptEncoding(requestHeaders.get("accept-encoding"));
+        return writer;
+    }
+
+    @Benchmark
+    public long identity() throws IOException {
+        ResponseWriter writer = newWriter(plainRequest);
+        FileHandler.sendFileResponse(writer, path, plainRequest);
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public long gzip() throws IOException {
+        ResponseWriter writer = newWriter(gzipRequest);
+        FileHandler.sendFileResponse(writer, path, gzipRequest);
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public long range() throws IOException {
+        ResponseWriter writer = newWriter(rangeRequest);
+        FileHandler.sendFileResponse(writer, path, rangeRequest);
+        return writer.getBytesWritten();
+    }
+}
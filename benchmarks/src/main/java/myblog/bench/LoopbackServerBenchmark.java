@@ -0,0 +1,166 @@
+package myblog.bench;
+
+import myblog.auth.StubAuthBackend;
+import myblog.handlers.AuthenticationHandler;
+import myblog.handlers.FileHandler;
+import myblog.handlers.WebServerHandler;
+import myblog.server.ConnectionExecutor;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+// End-to-end throughput over loopback: the blocking server's accept loop and
+// WebServerHandler run in-process on an ephemeral port, and each benchmark thread is one
+// keep-alive client sending a request and reading the whole response. Authentication goes
+// to a stub backend so the numbers are the server's own, not the database's or auth.py's.
+// Must be run from the repository root, where the static files are.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class LoopbackServerBenchmark {
+    @State(Scope.Benchmark)
+    public static class Server {
+        ServerSocket serverSocket;
+        ConnectionExecutor executor;
+        int port;
+
+        @Setup(Level.Trial)
+        public void start() throws IOException {
+            AuthenticationHandler.setBackend(new StubAuthBackend(1000, "secret", 0));
+            // Every client is 127.0.0.1, so the login limits would turn most logins into 429s
+            WebServerHandler.configureRateLimits(null, null);
+            FileHandler.configureCache(FileHandler.defaultStaticRoot(), 32L * 1024 * 1024, 8L * 1024 * 1024, false);
+            executor = new ConnectionExecutor("pool", 64, 1024);
+            serverSocket = ServerSocketChannel.open().socket();
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            port = serverSocket.getLocalPort();
+
+            Thread acceptor = new Thread(() -> {
+                while (!serverSocket.isClosed()) {
+                    try {
+                        Socket socket = serverSocket.accept();
+                        socket.setTcpNoDelay(true);
+                        if (!executor.submit(new WebServerHandler(socket, 30, Integer.MAX_VALUE))) {
+                            socket.close();
+                        }
+                    } catch (IOException e) {
+                        // closed at teardown
+                    }
+                }
+            }, "bench-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws IOException {
+            serverSocket.close();
+            executor.shutdown();
+        }
+    }
+
+    // One persistent connection per benchmark thread
+    @State(Scope.Thread)
+    public static class Client {
+        private static final String FORM = "username=alice&password=wrong";
+
+        Socket socket;
+        OutputStream out;
+        InputStream in;
+        byte[] staticFile;
+        byte[] login;
+        byte[] notFound;
+        byte[] body = new byte[64 * 1024];
+
+        @Setup(Level.Trial)
+        public void connect(Server server) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.port);
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            staticFile = request("GET /css/styles.css HTTP/1.1\r\nHost: localhost\r\n"
+                + "Accept-Encoding: gzip\r\n\r\n");
+            // Rejected credentials: form parsing, the auth call and a JSON reply, without
+            // creating a session per iteration
+            login = request("POST /login HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Type: application/x-www-form-urlencoded\r\n"
+                + "Content-Length: " + FORM.length() + "\r\n\r\n" + FORM);
+            notFound = request("GET /no/such/page.html HTTP/1.1\r\nHost: localhost\r\n\r\n");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws IOException {
+            socket.close();
+        }
+
+        private static byte[] request(String text) {
+            return text.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        // Sends the request and reads exactly one response; returns its status code
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+
+            StringBuilder head = new StringBuilder(256);
+            while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Server closed the connection");
+                }
+                head.append((char) b);
+            }
+            int status = Integer.parseInt(head.substring(9, 12));
+            int lengthAt = head.indexOf("Content-Length: ");
+            long remaining = lengthAt < 0 ? 0
+                : Long.parseLong(head.substring(lengthAt + 16, head.indexOf("\r\n", lengthAt)));
+            while (remaining > 0) {
+                int n = in.read(body, 0, (int) Math.min(body.length, remaining));
+                if (n < 0) {
+                    throw new IOException("Response body was cut short");
+                }
+                remaining -= n;
+            }
+            return status;
+        }
+    }
+
+    @Benchmark
+    public int staticFile(Client client) throws IOException {
+        return client.exchange(client.staticFile);
+    }
+
+    @Benchmark
+    public int login(Client client) throws IOException {
+        return client.exchange(client.login);
+    }
+
+    @Benchmark
+    public int notFound(Client client) throws IOException {
+        return client.exchange(client.notFound);
+    }
+}
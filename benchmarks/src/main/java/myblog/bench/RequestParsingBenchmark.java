@@ -0,0 +1,108 @@
+package myblog.bench;
+
+import myblog.handlers.HttpRequestParser;
+import myblog.handlers.RequestParser;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+// The request side of WebServerHandler: framing a head out of the read buffer, decoding a
+// Content-Length or chunked body, and turning a form body into parameters.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+    private static final String FORM = "username=alice&password=correct%20horse%20battery%20staple"
+        + "&email=alice%40example.com&confirm-password=correct%20horse%20battery%20staple";
+
+    // What a desktop browser sends for a page load
+    private static final String BROWSER_HEAD = "GET /mypage HTTP/1.1\r\n"
+        + "Host: localhost\r\n"
+        + "Connection: keep-alive\r\n"
+        + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/124.0 Safari/537.36\r\n"
+        + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8\r\n"
+        + "Accept-Encoding: gzip, deflate, br\r\n"
+        + "Accept-Language: en-US,en;q=0.9,ja;q=0.8\r\n"
+        + "Cookie: SID=aGVsbG8gd29ybGQgdGhpcyBpcyBhIHNlc3Npb24gdG9rZW4.c2lnbmF0dXJl\r\n"
+        + "Sec-Fetch-Dest: document\r\n"
+        + "Sec-Fetch-Mode: navigate\r\n"
+        + "\r\n";
+
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private final byte[] chunk = new byte[8 * 1024];
+    private ByteBuffer browserHead;
+    private ByteBuffer formPost;
+    private ByteBuffer chunkedPost;
+
+    @Setup
+    public void setUp() {
+        browserHead = ByteBuffer.wrap(BROWSER_HEAD.getBytes(StandardCharsets.ISO_8859_1));
+        formPost = ByteBuffer.wrap(("POST /login HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Content-Type: application/x-www-form-urlencoded\r\n"
+            + "Content-Length: " + FORM.length() + "\r\n"
+            + "\r\n" + FORM).getBytes(StandardCharsets.ISO_8859_1));
+        chunkedPost = ByteBuffer.wrap(("POST /login HTTP/1.1\r\n"
+            + "Host: localhost\r\n"
+            + "Transfer-Encoding: chunked\r\n"
+            + "\r\n"
+            + Integer.toHexString(40) + "\r\n" + FORM.substring(0, 40) + "\r\n"
+            + Integer.toHexString(FORM.length() - 40) + "\r\n" + FORM.substring(40) + "\r\n"
+            + "0\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Benchmark
+    public Map<String, String> parseHead() throws IOException {
+        browserHead.rewind();
+        parser.reset();
+        parser.parseHead(browserHead);
+        return parser.getHeaders();
+    }
+
+    @Benchmark
+    public void parseFormPost(Blackhole blackhole) throws IOException {
+        formPost.rewind();
+        readRequest(formPost, blackhole);
+    }
+
+    @Benchmark
+    public void parseChunkedPost(Blackhole blackhole) throws IOException {
+        chunkedPost.rewind();
+        readRequest(chunkedPost, blackhole);
+    }
+
+    @Benchmark
+    public Map<String, String> parseFormData() throws IOException {
+        return RequestParser.parseFormData(new ByteArrayInputStream(FORM.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private void readRequest(ByteBuffer request, Blackhole blackhole) throws IOException {
+        parser.reset();
+        parser.parseHead(request);
+        blackhole.consume(parser.getHeaders());
+        while (!parser.isBodyComplete()) {
+            int n = parser.readBody(request, chunk, 0, chunk.length);
+            if (n == 0 && !parser.isBodyComplete()) {
+                throw new IllegalStateException("Truncated benchmark request");
+            }
+            blackhole.consume(n);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package myblog.bench;
+
+import myblog.handlers.JsonWriter;
+import myblog.handlers.ResponseWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Response assembly in ResponseWriter, written to a discarding channel. The formatJson*
+// methods reproduce the String.format serialization sendJson used before JsonWriter, as
+// the baseline for the jsonWriter* ones.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseWriterBenchmark {
+    @Param({"identity", "gzip"})
+    public String acceptEncoding;
+
+    private final DiscardChannel channel = new DiscardChannel();
+    private String smallPage;
+    private String largePage;
+
+    @Setup
+    public void setUp() {
+        smallPage = "<html><body><h1>Hello</h1></body></html>";
+        StringBuilder page = new StringBuilder("<html><body>");
+        for (int i = 0; i < 400; i++) {
+            page.append("<p class=\"post\">Post number ").append(i).append(" - lorem ipsum dolor sit amet</p>\n");
+        }
+        largePage = page.append("</body></html>").toString();
+    }
+
+    private ResponseWriter newWriter() {
+        ResponseWriter writer = new ResponseWriter(OutputStream.nullOutputStream(), channel);
+        writer.keepAlive(5, 99);
+        writer.acceptEncoding(acceptEncoding.equals("gzip") ? "gzip, deflate, br" : null);
+        return writer;
+    }
+
+    @Benchmark
+    public long sendContentSmall() throws IOException {
+        ResponseWriter writer = newWriter();
+        writer.sendContent(200, "OK", "text/html", smallPage);
+        return writer.getBytesWritten();
+    }
+
+    // ~20KB of HTML, so the gzip variant measures on-the-fly compression
+    @Benchmark
+    public long sendContentLarge() throws IOException {
+        ResponseWriter writer = newWriter();
+        writer.sendContent(200, "OK", "text/html", largePage);
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public long sendJson() throws IOException {
+        ResponseWriter writer = newWriter();
+        writer.sendJson(200, "OK", false, "Invalid username or password");
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public long sendJsonWithRedirect() throws IOException {
+        ResponseWriter writer = newWriter();
+        writer.sendJsonWithRedirect(true, "/mypage", "Login successful");
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public long sendRedirect() throws IOException {
+        ResponseWriter writer = newWriter();
+        writer.sendRedirect("/login?message=Email%20verified");
+        return writer.getBytesWritten();
+    }
+
+    @Benchmark
+    public int jsonWriterMessage() {
+        JsonWriter json = JsonWriter.acquire();
+        try {
+            json.beginObject()
+                .name("success").value(true)
+                .name("redirect").value("/mypage")
+                .name("message").value("Login successful")
+                .endObject();
+            return json.size();
+        } finally {
+            JsonWriter.release(json);
+        }
+    }
+
+    @Benchmark
+    public int formatJsonMessage() {
+        String content = String.format("{\"success\": %b, \"redirect\": \"%s\", \"message\": \"%s\"}",
+            true, "/mypage", "Login successful".replace("\"", "\\\""));
+        return content.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    // Non-ASCII and characters that need escaping, as in the registration response
+    @Benchmark
+    public int jsonWriterEscaped() {
+        JsonWriter json = JsonWriter.acquire();
+        try {
+            json.beginObject()
+                .name("success").value(true)
+                .name("message").value("こんにちは. \"Welcome\"\n\tback")
+                .endObject();
+            return json.size();
+        } finally {
+            JsonWriter.release(json);
+        }
+    }
+
+    // Only escapes quotes, so its output is not valid JSON for this input; kept for timing
+    @Benchmark
+    public int formatJsonEscaped() {
+        String content = String.format("{\"success\": %b, \"message\": \"%s\"}",
+            true, "こんにちは. \"Welcome\"\n\tback".replace("\"", "\\\""));
+        return content.getBytes(StandardCharsets.UTF_8).length;
+    }
+}
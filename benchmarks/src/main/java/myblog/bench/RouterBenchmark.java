@@ -0,0 +1,66 @@
+package myblog.bench;
+
+import myblog.router.RouteMatch;
+import myblog.router.Router;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Router.match over a table shaped like WebServerHandler's (literal routes, a GET
+// catch-all for static files) plus a few parameter and wildcard routes, for the kinds of
+// target a real client sends.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RouterBenchmark {
+    @Param({
+        "GET /verify?token=0f3c9a&username=alice",  // literal with query
+        "POST /login",                               // literal
+        "GET /css/styles.css",                       // static catch-all
+        "GET /users/42/posts",                       // parameter
+        "GET /assets/js/app.min.js",                 // trailing wildcard
+        "DELETE /nothing/here"                       // no match
+    })
+    public String request;
+
+    private Router<String> router;
+    private String method;
+    private String target;
+
+    @Setup
+    public void setUp() {
+        router = Router.<String>builder()
+            .addRoute("GET", "/verify", "verify")
+            .addRoute("GET", "/metrics", "metrics")
+            .addRoute("GET", "*", "static")
+            .addAuthenticatedRoute("GET", "/mypage", "mypage")
+            .addAuthenticatedRoute("GET", "/mypage.html", "mypage")
+            .addRoute("POST", "/login", "login")
+            .addRoute("POST", "/register", "register")
+            .addRoute("POST", "/logout", "logout")
+            .addRoute("GET", "/users/{id}", "user")
+            .addRoute("GET", "/users/{id}/posts", "posts")
+            .addRoute("GET", "/assets/*", "assets")
+            .build();
+        int space = request.indexOf(' ');
+        method = request.substring(0, space);
+        target = request.substring(space + 1);
+    }
+
+    @Benchmark
+    public RouteMatch<String> match() {
+        return router.match(method, target);
+    }
+}
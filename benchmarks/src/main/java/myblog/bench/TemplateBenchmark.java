@@ -0,0 +1,93 @@
+package myblog.bench;
+
+import myblog.handlers.FileHandler;
+import myblog.templates.Template;
+import myblog.templates.TemplateCache;
+import myblog.templates.TemplateWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+// The verification email body as EmailService built it before templates (String.format,
+// then encoded for sending) against the compiled template rendered into a pooled writer.
+// Both end as UTF-8 bytes; the template also escapes the username and encodes the link,
+// which String.format never did. The *ToString variants add the String a mail body needs.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+    private static final String FORMAT = """
+        <html>
+        <body>
+            <h2>Welcome to My Blog!</h2>
+            <p>Hi %s,</p>
+            <p>Please click the link below to verify your email address:</p>
+            <a href="%s">Verify Email</a>
+            <p>If you didn't create an account, you can ignore this email.</p>
+        </body>
+        </html>
+        """;
+
+    @Param({"alice", "山田 & <b>"})
+    public String username;
+
+    private Template template;
+    private Map<String, String> values;
+    private final String token = "0f3c9a4e-8b1d-4c2a-9e7f-5d6b3a2c1e0f";
+
+    @Setup
+    public void setUp() throws IOException {
+        template = new TemplateCache(FileHandler.defaultStaticRoot().resolve("templates"), false)
+            .get("verification-email.html");
+        values = Map.of("baseUrl", "http://localhost:8080", "username", username, "token", token);
+    }
+
+    @Benchmark
+    public byte[] stringFormat() {
+        String link = String.format("http://localhost:8080/verify?token=%s&username=%s", token, username);
+        return String.format(FORMAT, username, link).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int compiledTemplate() {
+        TemplateWriter out = TemplateWriter.acquire();
+        try {
+            template.render(out, values);
+            return out.size();
+        } finally {
+            TemplateWriter.release(out);
+        }
+    }
+
+    @Benchmark
+    public String stringFormatToString() {
+        String link = String.format("http://localhost:8080/verify?token=%s&username=%s", token, username);
+        return String.format(FORMAT, username, link);
+    }
+
+    @Benchmark
+    public String compiledTemplateToString() {
+        TemplateWriter out = TemplateWriter.acquire();
+        try {
+            template.render(out, values);
+            return out.toString();
+        } finally {
+            TemplateWriter.release(out);
+        }
+    }
+}
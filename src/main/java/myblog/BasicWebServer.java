@@ -1,27 +1,349 @@
 package myblog;
 
+import myblog.auth.AuthBackend;
+import myblog.auth.CachingAuthBackend;
+import myblog.auth.DatabaseConfig;
+import myblog.auth.GroupCommitWriter;
+import myblog.auth.HashingAuthBackend;
+import myblog.auth.JdbcAuthBackend;
+import myblog.auth.JdbcConnectionPool;
+import myblog.auth.PasswordHasher;
+import myblog.auth.PendingRegistrationSweeper;
+import myblog.auth.PythonAuthBackend;
+import myblog.auth.PythonWorkerPool;
+import myblog.auth.SessionManager;
+import myblog.auth.StubAuthBackend;
+import myblog.handlers.AuthenticationHandler;
+import myblog.handlers.FileHandler;
+import myblog.handlers.HttpRequestParser;
+import myblog.handlers.ResponseWriter;
 import myblog.handlers.WebServerHandler;
+import myblog.http2.Http2Connection;
+import myblog.metrics.Counter;
+import myblog.metrics.MetricsRegistry;
+import myblog.router.RateLimiter;
+import myblog.server.ConnectionExecutor;
+import myblog.server.GracefulShutdown;
+import myblog.server.ListenSettings;
+import myblog.services.AccessLog;
+import myblog.services.EmailService;
+import myblog.services.FakeSmtpServer;
+import myblog.services.MailQueue;
+import myblog.server.NioWebServer;
+import myblog.server.ServerConfig;
+import myblog.templates.TemplateCache;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Base64;
+import java.util.Set;
 
 public class BasicWebServer {
-    private static final int PORT = 80;
-
     public static void main(String[] args) throws IOException {
-        ServerSocket serverSocket = new ServerSocket(PORT);
-        System.out.println("Server is running on port " + PORT);
+        long startedNanos = System.nanoTime();
+        ServerConfig config = ServerConfig.fromArgs(args);
+        Path staticRoot = Paths.get(config.getString("static-dir", FileHandler.defaultStaticRoot().toString()));
+        System.out.println("Static files: " + staticRoot);
+        FileHandler.configureCache(staticRoot,
+            config.getInt("static-cache-mb", 32) * 1024L * 1024,
+            config.getInt("static-cache-max-entry-kb", 8 * 1024) * 1024L,
+            config.getBoolean("static-cache-watch", true));
+        // Page and email templates are compiled now, so a broken one stops startup;
+        // --template-reload recompiles edited ones, for development
+        TemplateCache.configure(staticRoot.resolve("templates"), config.getBoolean("template-reload", false));
+        System.out.println("Templates: " + TemplateCache.global().size() + " compiled");
+        ResponseWriter.configureCompression(config.getBoolean("compress", true),
+            config.getInt("compress-min-bytes", 1024));
+        HttpRequestParser.configureLimits(new HttpRequestParser.Limits(
+            config.getInt("max-request-line", 8 * 1024),
+            config.getInt("max-header-bytes", 16 * 1024),
+            config.getInt("max-headers", 100),
+            config.getInt("max-body-kb", 1024) * 1024L));
+        configureHttp2(config);
+        configureRateLimits(config);
+        AuthBackend authBackend = configurePasswordHashing(config, selectAuthBackend(config));
+        startPendingSweeper(config);
+        if (config.getBoolean("auth-cache", true)) {
+            authBackend = new CachingAuthBackend(authBackend, config.getInt("auth-cache-size", 10_000),
+                config.getInt("auth-cache-ttl-s", 300) * 1000L, config.getInt("auth-negative-ttl-s", 30) * 1000L);
+        }
+        AuthenticationHandler.setBackend(authBackend);
+        long sessionTimeout = config.getInt("session-timeout-min", 30) * 60_000L;
+        String sessionSecret = config.getString("session-secret", null);
+        AuthenticationHandler.setSessionManager(sessionSecret != null
+            ? new SessionManager(Base64.getDecoder().decode(sessionSecret), sessionTimeout)
+            : SessionManager.withRandomSecret(sessionTimeout));
+        startMailDelivery(config);
+        startAccessLog(config);
+        registerThreadMetrics();
 
-        while (true) {
+        ListenSettings listen = ListenSettings.fromConfig(config);
+        // On SIGTERM: stop accepting, finish in-flight requests, then flush background work
+        GracefulShutdown shutdown = new GracefulShutdown(config.getInt("shutdown-timeout-s", 20) * 1000L);
+
+        // --mode=nio selects the selector-based server; the default stays thread-per-connection
+        if (config.getString("mode", "blocking").equals("nio")) {
+            NioWebServer server = new NioWebServer(listen, config);
+            server.start();
+            shutdown.add("drain connections", server::shutdown);
+            addBackgroundWorkSteps(shutdown);
+            shutdown.install();
+            reportStartup(startedNanos);
+            server.run();
+            return;
+        }
+
+        ConnectionExecutor executor = ConnectionExecutor.fromConfig(config, "thread");
+        int keepAliveTimeout = config.getInt("keep-alive-timeout", WebServerHandler.DEFAULT_KEEP_ALIVE_TIMEOUT);
+        int keepAliveMax = config.getInt("keep-alive-max", WebServerHandler.DEFAULT_KEEP_ALIVE_MAX);
+        // Opened through a channel so accepted sockets have a SocketChannel for zero-copy file sends
+        ServerSocket serverSocket = listen.open().socket();
+        System.out.println("Server is running on " + listen + " (" + executor.getMode() + " executor)");
+        shutdown.add("drain connections", deadline -> drainConnections(serverSocket, executor, deadline));
+        addBackgroundWorkSteps(shutdown);
+        shutdown.install();
+        reportStartup(startedNanos);
+
+        Counter accepted = MetricsRegistry.global()
+            .counter("myblog_connections_accepted_total", "Client connections accepted");
+        while (!serverSocket.isClosed()) {
             try {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected from: " + clientSocket.getInetAddress());
-
-                Thread handler = new Thread(new WebServerHandler(clientSocket));
-                handler.start();
+                accepted.increment();
+                if (!executor.submit(new WebServerHandler(clientSocket, keepAliveTimeout, keepAliveMax))) {
+                    rejectConnection(clientSocket);
+                }
             } catch (IOException e) {
-                System.out.println("Error handling client: " + e.getMessage());
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Error handling client: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Closing the listening socket ends the accept loop; with --reuse-port another instance
+    // bound to the same port keeps taking the new connections from then on
+    private static void drainConnections(ServerSocket serverSocket, ConnectionExecutor executor, long deadlineNanos)
+            throws IOException, InterruptedException {
+        serverSocket.close();
+        WebServerHandler.beginDrain();
+        if (!executor.awaitIdle(deadlineNanos)) {
+            System.out.println(executor.getAdmitted() + " connections still open at the shutdown deadline");
+        }
+        executor.shutdown();
+    }
+
+    // Run once no requests are left, so nothing new is queued behind them
+    private static void addBackgroundWorkSteps(GracefulShutdown shutdown) {
+        shutdown.add("mail delivery", EmailService::shutdown);
+        shutdown.add("session expiry", deadline -> AuthenticationHandler.getSessionManager().shutdown());
+        shutdown.add("access log", deadline -> {
+            AccessLog log = AccessLog.get();
+            if (log != null) {
+                log.shutdown();
+            }
+        });
+    }
+
+    // Measured up to the point where connections are accepted: from the start of main() and
+    // from JVM start, which adds JVM boot and class loading before main()
+    private static void reportStartup(long mainStartedNanos) {
+        long mainMillis = (System.nanoTime() - mainStartedNanos) / 1_000_000;
+        long jvmMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.println("Started in " + mainMillis + " ms (" + jvmMillis + " ms since JVM start)");
+        MetricsRegistry.global().gaugeFunction("myblog_startup_seconds",
+            "Time from JVM start until the server was ready to accept connections", () -> jvmMillis / 1000.0);
+    }
+
+    // --http2=false leaves connections on HTTP/1.1; request size limits follow the HTTP/1.1
+    // parser's. Only the blocking server speaks HTTP/2 (prior knowledge or h2c upgrade).
+    private static void configureHttp2(ServerConfig config) {
+        Http2Connection.Settings settings = new Http2Connection.Settings();
+        settings.maxConcurrentStreams = config.getInt("http2-max-streams", settings.maxConcurrentStreams);
+        settings.streamWorkers = config.getInt("http2-stream-workers", settings.streamWorkers);
+        settings.maxHeaderListSize = config.getInt("max-header-bytes", settings.maxHeaderListSize);
+        settings.maxBodyBytes = config.getInt("max-body-kb", 1024) * 1024L;
+        Http2Connection.configure(config.getBoolean("http2", true), settings);
+    }
+
+    // Expired pending registrations are deleted in the background every --pending-sweep-s
+    // seconds (0 turns it off), over a connection of its own; the first run also creates
+    // missing indexes unless --db-migrate=false. Needed by every database-backed auth
+    // backend, since none of them cleans up on the request path any more.
+    private static void startPendingSweeper(ServerConfig config) {
+        PendingRegistrationSweeper.Settings settings = new PendingRegistrationSweeper.Settings();
+        settings.intervalSeconds = config.getInt("pending-sweep-s", settings.intervalSeconds);
+        settings.chunkSize = config.getInt("pending-sweep-chunk", settings.chunkSize);
+        settings.migrate = config.getBoolean("db-migrate", settings.migrate);
+        if (config.getString("auth", "jdbc").equals("stub") || settings.intervalSeconds <= 0) {
+            return;
+        }
+        DatabaseConfig database;
+        try {
+            database = DatabaseConfig.load();
+        } catch (IOException e) {
+            System.out.println("Pending registration sweeper not started: " + e.getMessage());
+            return;
+        }
+        JdbcConnectionPool pool = new JdbcConnectionPool(database.getJdbcUrl(), database.getUser(),
+            database.getPassword(), 1, 30_000);
+        new PendingRegistrationSweeper(pool, database.getSchema(), settings).start();
+        System.out.println("Pending registration sweep every " + settings.intervalSeconds + " s");
+    }
+
+    // Passwords are stored as PBKDF2 hashes computed on a pool of their own; --hash-threads
+    // caps the cores hashing may take from request handling, and calls that would wait in a
+    // full queue or past --hash-timeout-ms get a 503. Tune --hash-iterations with
+    // mvn -Pcalibrate-hash. --password-hashing=false keeps comparing plain text in the backend.
+    private static AuthBackend configurePasswordHashing(ServerConfig config, AuthBackend backend) {
+        if (!config.getBoolean("password-hashing", true)) {
+            return backend;
+        }
+        PasswordHasher.Settings settings = new PasswordHasher.Settings();
+        settings.iterations = config.getInt("hash-iterations", settings.iterations);
+        settings.threads = config.getInt("hash-threads", settings.threads);
+        settings.maxQueued = config.getInt("hash-queue", settings.maxQueued);
+        settings.timeoutMillis = config.getInt("hash-timeout-ms", (int) settings.timeoutMillis);
+        System.out.println("Password hashing: PBKDF2-SHA256, " + settings.iterations + " iterations on "
+            + settings.threads + " threads");
+        return new HashingAuthBackend(backend, new PasswordHasher(settings));
+    }
+
+    // Limits on /login and /register, as "count/unit[:burst]" (units s, min, h) or "off",
+    // per client address and per username; --rate-limit=false turns them all off
+    private static void configureRateLimits(ServerConfig config) {
+        if (!config.getBoolean("rate-limit", true)) {
+            WebServerHandler.configureRateLimits(null, null);
+            System.out.println("Rate limiting is off");
+            return;
+        }
+        int maxKeys = config.getInt("rate-limit-max-keys", WebServerHandler.DEFAULT_RATE_LIMIT_KEYS);
+        try {
+            WebServerHandler.configureRateLimits(
+                new RateLimiter("login",
+                    RateLimiter.Limit.parse(config.getString("login-limit-ip", WebServerHandler.DEFAULT_LOGIN_LIMIT_ADDRESS)),
+                    RateLimiter.Limit.parse(config.getString("login-limit-user", WebServerHandler.DEFAULT_LOGIN_LIMIT_USERNAME)),
+                    maxKeys),
+                new RateLimiter("register",
+                    RateLimiter.Limit.parse(config.getString("register-limit-ip", WebServerHandler.DEFAULT_REGISTER_LIMIT_ADDRESS)),
+                    RateLimiter.Limit.parse(config.getString("register-limit-user", WebServerHandler.DEFAULT_REGISTER_LIMIT_USERNAME)),
+                    maxKeys));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Invalid rate limit (" + e.getMessage() + ") - using the defaults");
+        }
+    }
+
+    // --auth=jdbc (default) talks to PostgreSQL in-process; --auth=python-pool keeps auth.py
+    // as the source of truth but reuses long-lived worker processes; --auth=python forks
+    // auth.py per call; --auth=stub keeps accounts in memory for load tests. Without usable
+    // database settings the jdbc backend falls back to auth.py.
+    private static AuthBackend selectAuthBackend(ServerConfig config) {
+        String auth = config.getString("auth", "jdbc");
+        if (auth.equals("stub")) {
+            int users = config.getInt("stub-users", 1000);
+            System.out.println("Authentication backend: stub (" + users + " seeded users)");
+            return new StubAuthBackend(users, config.getString("stub-password", "secret"),
+                config.getInt("stub-latency-ms", 0));
+        }
+        if (auth.equals("python-pool")) {
+            System.out.println("Authentication backend: python-pool");
+            return new PythonWorkerPool(config.getInt("auth-workers", 4), config.getInt("auth-timeout-ms", 5000));
+        }
+        if (auth.equals("jdbc")) {
+            try {
+                GroupCommitWriter.Settings writes = new GroupCommitWriter.Settings();
+                writes.maxBatch = config.getInt("db-write-batch", writes.maxBatch);
+                writes.maxQueued = config.getInt("db-write-queue", writes.maxQueued);
+                writes.lingerMicros = config.getInt("db-write-linger-us", (int) writes.lingerMicros);
+                writes.timeoutMillis = config.getInt("db-pool-timeout-ms", 5000);
+                AuthBackend backend = JdbcAuthBackend.fromConfig(DatabaseConfig.load(),
+                    config.getInt("db-pool-size", 10), config.getInt("db-pool-timeout-ms", 5000), writes);
+                System.out.println("Authentication backend: jdbc");
+                return backend;
+            } catch (IOException | IllegalArgumentException e) {
+                System.out.println("Cannot use jdbc authentication (" + e.getMessage() + ") - falling back to auth.py");
+            }
+        } else if (!auth.equals("python")) {
+            System.out.println("Unknown authentication backend: " + auth + " - using auth.py");
+        }
+        System.out.println("Authentication backend: python");
+        return new PythonAuthBackend();
+    }
+
+    // --access-log=requests (default), debug (adds redacted request headers) or off
+    private static void startAccessLog(ServerConfig config) {
+        AccessLog.Settings settings = new AccessLog.Settings();
+        try {
+            settings.level = AccessLog.Level.valueOf(config.getString("access-log", "requests").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown access log level: " + config.getString("access-log", "") + " - using requests");
+        }
+        settings.file = Paths.get(config.getString("access-log-file", settings.file.toString()));
+        settings.maxFileBytes = config.getInt("access-log-max-mb", 64) * 1024L * 1024;
+        settings.maxFiles = config.getInt("access-log-files", settings.maxFiles);
+        settings.bufferSize = config.getInt("access-log-buffer", settings.bufferSize);
+        settings.redactedParams = Set.of(config.getString("access-log-redact", "token,password").split(","));
+        try {
+            AccessLog.start(settings);
+            if (settings.level != AccessLog.Level.OFF) {
+                System.out.println("Access log: " + settings.file.toAbsolutePath());
+            }
+        } catch (IOException e) {
+            System.out.println("Access log disabled: " + e.getMessage());
+        }
+    }
+
+    // Platform threads only; virtual threads (--executor=virtual) are not counted by the JVM here
+    private static void registerThreadMetrics() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gaugeFunction("myblog_threads", "Live platform threads", threads::getThreadCount);
+        metrics.gaugeFunction("myblog_threads_peak", "Most live platform threads since startup",
+            threads::getPeakThreadCount);
+    }
+
+    // --fake-smtp delivers to an in-process SMTP stand-in on loopback instead of the real server
+    private static void startMailDelivery(ServerConfig config) {
+        try {
+            MailQueue.Settings settings;
+            if (config.getBoolean("fake-smtp", false)) {
+                FakeSmtpServer fakeSmtp = new FakeSmtpServer(config.getInt("fake-smtp-port", 0));
+                fakeSmtp.start();
+                settings = new MailQueue.Settings();
+                settings.host = "127.0.0.1";
+                settings.port = fakeSmtp.getPort();
+                settings.auth = false;
+                settings.startTls = false;
+                settings.from = "noreply@localhost";
+                settings.spoolDirectory = Paths.get("spool", "mail");
+                System.out.println("Fake SMTP server listening on port " + fakeSmtp.getPort());
+            } else {
+                settings = EmailService.settingsFromConfig();
+            }
+            settings.spoolDirectory = Paths.get(config.getString("mail-spool", settings.spoolDirectory.toString()));
+            settings.senders = config.getInt("mail-senders", settings.senders);
+            settings.batchSize = config.getInt("mail-batch", settings.batchSize);
+            EmailService.start(settings);
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Mail delivery disabled: " + e.getMessage());
+        }
+    }
+
+    // Saturated: answer 503 from the accept thread without reading the request
+    private static void rejectConnection(Socket clientSocket) {
+        try {
+            new ResponseWriter(clientSocket.getOutputStream()).send503ServiceUnavailable();
+        } catch (IOException e) {
+            System.out.println("Error rejecting client: " + e.getMessage());
+        } finally {
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
             }
         }
     }
-} 
\ No newline at end of file
+}
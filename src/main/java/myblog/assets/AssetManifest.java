@@ -0,0 +1,69 @@
+package myblog.assets;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Maps each asset's original path (relative to the static root, with '/' separators) to
+// its fingerprinted copy, e.g. css/styles.css=css/styles.1a2b3c4d5e.css. Written by
+// AssetPipeline next to the assets it builds; the server reads it to tell which files
+// can be cached for good.
+public class AssetManifest {
+    public static final String FILE_NAME = "asset-manifest.properties";
+
+    private final Map<String, String> fingerprinted;
+    private final Set<String> fingerprintedPaths;
+
+    AssetManifest(Map<String, String> fingerprinted) {
+        this.fingerprinted = Collections.unmodifiableMap(new TreeMap<>(fingerprinted));
+        this.fingerprintedPaths = Set.copyOf(fingerprinted.values());
+    }
+
+    // Returns null when root holds no manifest (the unbuilt source directory)
+    public static AssetManifest load(Path root) throws IOException {
+        Path file = root.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Map<String, String> entries = new TreeMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            entries.put(name, properties.getProperty(name));
+        }
+        return new AssetManifest(entries);
+    }
+
+    // The fingerprinted path for an original path, or null if it has none
+    public String lookup(String path) {
+        return fingerprinted.get(path);
+    }
+
+    // True for the fingerprinted copies, whose content never changes under their name
+    public boolean isFingerprinted(String path) {
+        return fingerprintedPaths.contains(path);
+    }
+
+    public int size() {
+        return fingerprinted.size();
+    }
+
+    void write(Path root) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(root.resolve(FILE_NAME), StandardCharsets.UTF_8)) {
+            writer.write("# Generated by AssetPipeline; original path = fingerprinted path\n");
+            for (Map.Entry<String, String> entry : fingerprinted.entrySet()) {
+                writer.write(entry.getKey() + "=" + entry.getValue() + "\n");
+            }
+        }
+    }
+}
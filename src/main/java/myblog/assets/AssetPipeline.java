@@ -0,0 +1,266 @@
+package myblog.assets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+// Build step that turns the static sources into what the server ships (run by Maven in
+// the compile phase, see pom.xml):
+//   AssetPipeline <source dir> <output dir>
+// CSS and JavaScript are minified. Every asset except the HTML pages is also written under
+// a content-hashed name (styles.css -> styles.1a2b3c4d5e.css) and listed in the manifest,
+// and references to assets in the pages and in CSS url() are rewritten to those names, so
+// the files can be cached forever and a changed file is simply a new URL. The original
+// names stay available for links from outside. Text files get a .gz variant compressed at
+// the highest level, which the server sends as is instead of compressing per request;
+// templates/ is the exception, since templates are only ever sent rendered.
+public class AssetPipeline {
+    private static final int HASH_LENGTH = 10;
+    private static final Set<String> COMPRESSIBLE = Set.of("html", "css", "js", "json", "svg", "txt", "xml");
+    private static final Pattern PAGE_REFERENCE =
+        Pattern.compile("(\\s(?:href|src)\\s*=\\s*)([\"'])([^\"']*)\\2", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CSS_REFERENCE = Pattern.compile("url\\(\\s*(['\"]?)([^'\")]+?)\\1\\s*\\)");
+    private static final Pattern HAS_SCHEME = Pattern.compile("^[a-zA-Z][a-zA-Z0-9+.-]*:");
+    private static final String TEMPLATES = "templates/";
+
+    private final Path source;
+    private final Path output;
+    private final Map<String, String> fingerprinted = new TreeMap<>();
+    private long sourceBytes;
+    private long outputBytes;
+    private long gzipBytes;
+    private int files;
+    private int gzipFiles;
+
+    AssetPipeline(Path source, Path output) {
+        this.source = source.toAbsolutePath().normalize();
+        this.output = output.toAbsolutePath().normalize();
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: AssetPipeline <source dir> <output dir>");
+            System.exit(2);
+        }
+        AssetPipeline pipeline = new AssetPipeline(Paths.get(args[0]), Paths.get(args[1]));
+        pipeline.run();
+        pipeline.printSummary();
+    }
+
+    void run() throws IOException {
+        if (!Files.isDirectory(source)) {
+            throw new IOException("Static source directory not found: " + source);
+        }
+        if (output.startsWith(source) || source.startsWith(output)) {
+            throw new IOException("Output directory must be outside the sources: " + output);
+        }
+        clearOutput();
+
+        // Pages last, so every asset they reference already has its fingerprinted name;
+        // CSS after the other assets for the same reason
+        List<String> pages = new ArrayList<>();
+        List<String> stylesheets = new ArrayList<>();
+        List<String> assets = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(source)) {
+            walk.filter(Files::isRegularFile).map(this::relativePath).sorted().forEach(path -> {
+                String extension = extensionOf(path);
+                if (extension.equals("html")) {
+                    pages.add(path);
+                } else if (extension.equals("css")) {
+                    stylesheets.add(path);
+                } else {
+                    assets.add(path);
+                }
+            });
+        }
+        for (String path : assets) {
+            byte[] content = read(path);
+            if (extensionOf(path).equals("js")) {
+                content = Minifier.js(new String(content, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+            }
+            writeAsset(path, content);
+        }
+        for (String path : stylesheets) {
+            String css = new String(read(path), StandardCharsets.UTF_8);
+            writeAsset(path, Minifier.css(rewrite(CSS_REFERENCE, 2, css, directoryOf(path)))
+                .getBytes(StandardCharsets.UTF_8));
+        }
+        for (String path : pages) {
+            // Pages are served from the site root (/login -> html/login.html), so their
+            // relative links resolve against "/" rather than their own directory
+            String html = new String(read(path), StandardCharsets.UTF_8);
+            write(path, rewrite(PAGE_REFERENCE, 3, html, "").getBytes(StandardCharsets.UTF_8));
+        }
+        new AssetManifest(fingerprinted).write(output);
+    }
+
+    private void printSummary() {
+        System.out.printf("Assets: %d files (%d fingerprinted) in %s%n", files, fingerprinted.size(), output);
+        System.out.printf("  %d bytes of sources -> %d bytes minified; %d gzip variants, %d bytes%n",
+            sourceBytes, outputBytes, gzipFiles, gzipBytes);
+    }
+
+    // Writes the asset under its own name and under its content-hashed name
+    private void writeAsset(String path, byte[] content) throws IOException {
+        write(path, content);
+        String hashed = fingerprintedName(path, content);
+        writeCopy(hashed, content);
+        fingerprinted.put(path, hashed);
+    }
+
+    private byte[] read(String path) throws IOException {
+        byte[] content = Files.readAllBytes(source.resolve(path));
+        files++;
+        sourceBytes += content.length;
+        return content;
+    }
+
+    private void write(String path, byte[] content) throws IOException {
+        outputBytes += content.length;
+        writeCopy(path, content);
+    }
+
+    private void writeCopy(String path, byte[] content) throws IOException {
+        Path target = output.resolve(path);
+        Files.createDirectories(target.getParent());
+        Files.write(target, content);
+        if (COMPRESSIBLE.contains(extensionOf(path)) && !path.startsWith(TEMPLATES)) {
+            byte[] gzip = gzip(content);
+            if (gzip.length < content.length) {
+                Files.write(output.resolve(path + ".gz"), gzip);
+                gzipFiles++;
+                gzipBytes += gzip.length;
+            }
+        }
+    }
+
+    // Replaces each reference to a built asset (group `group` of pattern) with its
+    // fingerprinted URL; baseDir is the directory relative references resolve against
+    private String rewrite(Pattern pattern, int group, String text, String baseDir) {
+        Matcher matcher = pattern.matcher(text);
+        StringBuilder out = new StringBuilder(text.length());
+        while (matcher.find()) {
+            String reference = matcher.group(group);
+            String replacement = fingerprintedUrl(reference, baseDir);
+            String match = matcher.group();
+            if (replacement != null) {
+                int start = matcher.start(group) - matcher.start();
+                match = match.substring(0, start) + replacement + match.substring(start + reference.length());
+            }
+            matcher.appendReplacement(out, Matcher.quoteReplacement(match));
+        }
+        matcher.appendTail(out);
+        return out.toString();
+    }
+
+    private String fingerprintedUrl(String reference, String baseDir) {
+        if (reference.isEmpty() || reference.startsWith("#") || reference.startsWith("//")
+                || HAS_SCHEME.matcher(reference).find()) {
+            return null;
+        }
+        int suffixStart = reference.length();
+        for (char c : new char[] {'?', '#'}) {
+            int index = reference.indexOf(c);
+            if (index >= 0) {
+                suffixStart = Math.min(suffixStart, index);
+            }
+        }
+        String path;
+        try {
+            path = URI.create("/" + baseDir).resolve(reference.substring(0, suffixStart)).normalize().getPath();
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        while (path.startsWith("/../")) {
+            path = path.substring(3);
+        }
+        String hashed = fingerprinted.get(path.substring(1));
+        return hashed == null ? null : "/" + hashed + reference.substring(suffixStart);
+    }
+
+    private void clearOutput() throws IOException {
+        if (!Files.exists(output)) {
+            return;
+        }
+        // Only a previous build is cleared, never a directory we did not create
+        boolean previousBuild = Files.isRegularFile(output.resolve(AssetManifest.FILE_NAME));
+        try (Stream<Path> children = Files.list(output)) {
+            if (!previousBuild && children.findAny().isPresent()) {
+                throw new IOException("Output directory is not empty and holds no asset manifest: " + output);
+            }
+        }
+        try (Stream<Path> walk = Files.walk(output)) {
+            for (Path path : walk.sorted(Comparator.reverseOrder()).toArray(Path[]::new)) {
+                if (!path.equals(output)) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    private String relativePath(Path file) {
+        return source.relativize(file).toString().replace('\\', '/');
+    }
+
+    static String fingerprintedName(String path, byte[] content) {
+        int dot = path.lastIndexOf('.');
+        if (dot <= path.lastIndexOf('/')) {
+            dot = path.length();
+        }
+        return path.substring(0, dot) + "." + sha256Hex(content).substring(0, HASH_LENGTH) + path.substring(dot);
+    }
+
+    private static String directoryOf(String path) {
+        int slash = path.lastIndexOf('/');
+        return slash < 0 ? "" : path.substring(0, slash + 1);
+    }
+
+    private static String extensionOf(String path) {
+        int dot = path.lastIndexOf('.');
+        return dot < 0 ? "" : path.substring(dot + 1).toLowerCase();
+    }
+
+    private static byte[] gzip(byte[] content) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 2 + 64);
+        // Build time, so the slowest and smallest setting
+        try (OutputStream out = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            out.write(content);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String sha256Hex(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
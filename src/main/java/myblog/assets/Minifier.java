@@ -0,0 +1,186 @@
+package myblog.assets;
+
+// Conservative CSS and JavaScript minification for the asset pipeline: comments and
+// redundant whitespace go, everything inside strings, template literals and regular
+// expression literals is copied untouched. JavaScript keeps its line breaks so automatic
+// semicolon insertion still sees the same statements.
+final class Minifier {
+    private Minifier() {
+    }
+
+    static String css(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        int i = 0;
+        boolean pendingSpace = false;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (c == '/' && i + 1 < source.length() && source.charAt(i + 1) == '*') {
+                int end = source.indexOf("*/", i + 2);
+                i = end < 0 ? source.length() : end + 2;
+                pendingSpace = true;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+            // No space is needed on either side of these; ':' keeps a space before it
+            // because "a :hover" and "a:hover" are different selectors
+            boolean tight = "{};,>".indexOf(c) >= 0;
+            if (pendingSpace && !tight && out.length() > 0 && "{};,>(:".indexOf(out.charAt(out.length() - 1)) < 0) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+            if (c == '"' || c == '\'') {
+                i = copyQuoted(source, i, out);
+                continue;
+            }
+            if (c == '}' && out.length() > 0 && out.charAt(out.length() - 1) == ';') {
+                out.setLength(out.length() - 1);
+            }
+            out.append(c);
+            i++;
+            if (c == ':') {
+                i = skipWhitespace(source, i);
+            }
+        }
+        return out.toString();
+    }
+
+    static String js(String source) {
+        StringBuilder out = new StringBuilder(source.length());
+        int i = 0;
+        boolean pendingSpace = false;
+        boolean pendingNewline = false;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            char next = i + 1 < source.length() ? source.charAt(i + 1) : 0;
+            if (c == '/' && next == '/') {
+                int end = source.indexOf('\n', i);
+                i = end < 0 ? source.length() : end;
+                continue;
+            }
+            if (c == '/' && next == '*') {
+                int end = source.indexOf("*/", i + 2);
+                // A multi-line comment may stand in for a line break
+                if (end > 0 && source.substring(i, end).indexOf('\n') >= 0) {
+                    pendingNewline = true;
+                }
+                i = end < 0 ? source.length() : end + 2;
+                pendingSpace = true;
+                continue;
+            }
+            if (c == '\n' || c == '\r') {
+                pendingNewline = true;
+                i++;
+                continue;
+            }
+            if (Character.isWhitespace(c)) {
+                pendingSpace = true;
+                i++;
+                continue;
+            }
+            if (pendingNewline && out.length() > 0) {
+                out.append('\n');
+            } else if (pendingSpace && needsSpace(out) && (isWordChar(c) || "\"'`/".indexOf(c) >= 0)) {
+                out.append(' ');
+            } else if (pendingSpace && out.length() > 0 && isAmbiguousPair(out.charAt(out.length() - 1), c)) {
+                out.append(' ');
+            }
+            pendingSpace = false;
+            pendingNewline = false;
+            if (c == '"' || c == '\'' || c == '`') {
+                i = copyQuoted(source, i, out);
+            } else if (c == '/' && regexAllowed(out)) {
+                i = copyRegex(source, i, out);
+            } else {
+                out.append(c);
+                i++;
+            }
+        }
+        return out.toString();
+    }
+
+    // Copies a quoted string (or template literal) including its quotes; returns the next index
+    private static int copyQuoted(String source, int start, StringBuilder out) {
+        char quote = source.charAt(start);
+        out.append(quote);
+        int i = start + 1;
+        while (i < source.length()) {
+            char c = source.charAt(i++);
+            out.append(c);
+            if (c == '\\' && i < source.length()) {
+                out.append(source.charAt(i++));
+            } else if (c == quote) {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int copyRegex(String source, int start, StringBuilder out) {
+        out.append('/');
+        int i = start + 1;
+        boolean inClass = false;
+        while (i < source.length()) {
+            char c = source.charAt(i++);
+            out.append(c);
+            if (c == '\\' && i < source.length()) {
+                out.append(source.charAt(i++));
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == ']') {
+                inClass = false;
+            } else if (c == '/' && !inClass) {
+                break;
+            } else if (c == '\n') {
+                break;  // not a regular expression after all; leave the rest as it was
+            }
+        }
+        return i;
+    }
+
+    // A '/' starts a regular expression where an expression may start, and is division
+    // after a value (identifier, number, closing bracket)
+    private static boolean regexAllowed(StringBuilder out) {
+        int end = out.length() - 1;
+        while (end >= 0 && out.charAt(end) == '\n') {
+            end--;
+        }
+        if (end < 0) {
+            return true;
+        }
+        char previous = out.charAt(end);
+        if ("(,=:[!&|?{};+-*%<>~^".indexOf(previous) >= 0) {
+            return true;
+        }
+        int start = end;
+        while (start >= 0 && isWordChar(out.charAt(start))) {
+            start--;
+        }
+        String word = out.substring(start + 1, end + 1);
+        return word.equals("return") || word.equals("typeof") || word.equals("case") || word.equals("do")
+            || word.equals("else") || word.equals("in") || word.equals("of") || word.equals("void");
+    }
+
+    private static boolean needsSpace(StringBuilder out) {
+        return out.length() > 0 && isWordChar(out.charAt(out.length() - 1));
+    }
+
+    // "a + +b", "a - -b" and "a / /re/" must not run together
+    private static boolean isAmbiguousPair(char previous, char c) {
+        return (previous == '+' || previous == '-' || previous == '/') && previous == c;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.' || c > 127;
+    }
+
+    private static int skipWhitespace(String source, int i) {
+        while (i < source.length() && Character.isWhitespace(source.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,26 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+
+// The operations auth.py exposes on its command line. Implementations must be
+// thread-safe: they are shared by every request thread.
+public interface AuthBackend {
+    // Message check() returns for a wrong username/password, as opposed to a backend failure
+    String INVALID_CREDENTIALS = "Invalid username or password";
+    // Message for a request refused because password hashing is saturated; sent as a 503
+    String BUSY = "Server is busy, please try again shortly";
+
+    AuthResult check(String username, String password);
+
+    AuthResult pendingRegister(String username, String password, String email, String verificationToken);
+
+    AuthResult verifyRegister(String username, String verificationToken);
+
+    // The stored password of a verified user as the message (a PasswordHasher hash, or the
+    // plain text of an older account); INVALID_CREDENTIALS if there is no such user
+    AuthResult storedPassword(String username);
+
+    // Replaces the stored password only while it still equals expected, so a concurrent
+    // change is never overwritten
+    AuthResult replacePassword(String username, String expected, String replacement);
+}
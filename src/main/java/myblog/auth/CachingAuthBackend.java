@@ -0,0 +1,179 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import myblog.metrics.MetricsRegistry;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Wraps another backend and remembers recent check() outcomes per username: successful
+// logins for a few minutes, and rejected credentials for a few seconds so repeated bad
+// attempts do not each reach the database. Only a salted SHA-256 of the password is kept
+// (the salt is random per process). Registration and verification for a username drop
+// both of its entries.
+public class CachingAuthBackend implements AuthBackend {
+    private static class Entry {
+        final byte[] passwordHash;
+        final AuthResult result;
+        final long expiresAt;
+
+        Entry(byte[] passwordHash, AuthResult result, long expiresAt) {
+            this.passwordHash = passwordHash;
+            this.result = result;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private final AuthBackend backend;
+    private final long positiveTtlMillis;
+    private final long negativeTtlMillis;
+    private final Map<String, Entry> verified;
+    private final Map<String, Entry> rejected;
+    private final byte[] salt = new byte[16];
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder negativeHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public CachingAuthBackend(AuthBackend backend, int maxEntries, long positiveTtlMillis, long negativeTtlMillis) {
+        this.backend = backend;
+        this.positiveTtlMillis = positiveTtlMillis;
+        this.negativeTtlMillis = negativeTtlMillis;
+        this.verified = boundedLru(maxEntries);
+        this.rejected = boundedLru(maxEntries);
+        new SecureRandom().nextBytes(salt);
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        String help = "Login checks by auth cache outcome";
+        metrics.counterFunction("myblog_auth_cache_lookups_total", help, this::getHits, "result", "hit");
+        metrics.counterFunction("myblog_auth_cache_lookups_total", help, this::getNegativeHits, "result", "negative_hit");
+        metrics.counterFunction("myblog_auth_cache_lookups_total", help, this::getMisses, "result", "miss");
+    }
+
+    @Override
+    public AuthResult check(String username, String password) {
+        byte[] hash = hash(username, password);
+        long now = System.currentTimeMillis();
+
+        AuthResult cached = lookup(verified, username, hash, now);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        cached = lookup(rejected, username, hash, now);
+        if (cached != null) {
+            negativeHits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        long generation = invalidations.get();
+        AuthResult result = backend.check(username, password);
+        if (generation != invalidations.get()) {
+            // A registration event raced with this check; don't cache a possibly stale answer
+            return result;
+        }
+        if (result.success) {
+            store(verified, username, new Entry(hash, result, now + positiveTtlMillis));
+            remove(rejected, username);
+        } else if (AuthBackend.INVALID_CREDENTIALS.equals(result.message)) {
+            // Backend errors are never cached, only a definite "wrong credentials"
+            store(rejected, username, new Entry(hash, result, now + negativeTtlMillis));
+        }
+        return result;
+    }
+
+    @Override
+    public AuthResult pendingRegister(String username, String password, String email, String verificationToken) {
+        invalidate(username);
+        return backend.pendingRegister(username, password, email, verificationToken);
+    }
+
+    @Override
+    public AuthResult verifyRegister(String username, String verificationToken) {
+        AuthResult result = backend.verifyRegister(username, verificationToken);
+        invalidate(username);
+        return result;
+    }
+
+    @Override
+    public AuthResult storedPassword(String username) {
+        return backend.storedPassword(username);
+    }
+
+    @Override
+    public AuthResult replacePassword(String username, String expected, String replacement) {
+        AuthResult result = backend.replacePassword(username, expected, replacement);
+        invalidate(username);
+        return result;
+    }
+
+    public void invalidate(String username) {
+        invalidations.incrementAndGet();
+        remove(verified, username);
+        remove(rejected, username);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getNegativeHits() {
+        return negativeHits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    private static AuthResult lookup(Map<String, Entry> cache, String username, byte[] hash, long now) {
+        Entry entry;
+        synchronized (cache) {
+            entry = cache.get(username);
+            if (entry != null && entry.expiresAt <= now) {
+                cache.remove(username);
+                return null;
+            }
+        }
+        return entry != null && MessageDigest.isEqual(entry.passwordHash, hash) ? entry.result : null;
+    }
+
+    private static void store(Map<String, Entry> cache, String username, Entry entry) {
+        synchronized (cache) {
+            cache.put(username, entry);
+        }
+    }
+
+    private static void remove(Map<String, Entry> cache, String username) {
+        synchronized (cache) {
+            cache.remove(username);
+        }
+    }
+
+    private byte[] hash(String username, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(salt);
+            digest.update(username.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static Map<String, Entry> boundedLru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
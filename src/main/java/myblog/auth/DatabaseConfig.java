@@ -0,0 +1,64 @@
+package myblog.auth;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+// Reads the same DB_* settings as auth.py: the .env file (classpath first, then
+// src/main/resources/.env), with real environment variables taking precedence.
+public class DatabaseConfig {
+    private static final String ENV_FILE = "src/main/resources/.env";
+    private static final String[] REQUIRED = {"DB_USER", "DB_PASSWORD", "DB_HOST", "DB_PORT", "DB_NAME", "DB_SCHEMA"};
+
+    private final Properties values;
+
+    private DatabaseConfig(Properties values) {
+        this.values = values;
+    }
+
+    public static DatabaseConfig load() throws IOException {
+        Properties props = new Properties();
+        try (InputStream input = DatabaseConfig.class.getClassLoader().getResourceAsStream(".env")) {
+            if (input != null) {
+                props.load(input);
+            } else {
+                try (InputStream file = new FileInputStream(ENV_FILE)) {
+                    props.load(file);
+                } catch (IOException e) {
+                    // Environment variables alone may be enough
+                }
+            }
+        }
+        for (String name : REQUIRED) {
+            String fromEnvironment = System.getenv(name);
+            if (fromEnvironment != null) {
+                props.setProperty(name, fromEnvironment);
+            }
+            if (props.getProperty(name, "").trim().isEmpty()) {
+                throw new IOException("Missing required database setting " + name);
+            }
+        }
+        return new DatabaseConfig(props);
+    }
+
+    public String getJdbcUrl() {
+        return "jdbc:postgresql://" + get("DB_HOST") + ":" + get("DB_PORT") + "/" + get("DB_NAME");
+    }
+
+    public String getUser() {
+        return get("DB_USER");
+    }
+
+    public String getPassword() {
+        return get("DB_PASSWORD");
+    }
+
+    public String getSchema() {
+        return get("DB_SCHEMA");
+    }
+
+    private String get(String name) {
+        return values.getProperty(name).trim();
+    }
+}
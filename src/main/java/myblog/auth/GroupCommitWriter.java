@@ -0,0 +1,209 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import myblog.metrics.Counter;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+// Funnels write transactions from the request threads through one writer thread, which
+// runs whatever has queued up as a single transaction: while one group is committing the
+// next one collects, so a burst of registrations costs one commit (one WAL flush) per
+// group rather than per row. Each write runs inside a savepoint, and one that fails or
+// reports failure is rolled back alone while the rest of its group still commits. Callers
+// block until their group has committed, so success is never reported before it is durable.
+public class GroupCommitWriter {
+    public interface Write {
+        AuthResult run(Connection connection) throws SQLException;
+    }
+
+    public static class Settings {
+        public int maxBatch = 64;
+        public int maxQueued = 1024;
+        // How long the writer holds a group open for more writes; with 0 groups form only
+        // from what arrives while the previous commit is in flight
+        public long lingerMicros = 0;
+        // Queue wait plus commit, per write
+        public long timeoutMillis = 5000;
+    }
+
+    private static class Pending {
+        final Write write;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<AuthResult> result = new CompletableFuture<>();
+
+        Pending(Write write) {
+            this.write = write;
+        }
+    }
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter COMMITS = METRICS.counter("myblog_db_group_commits_total",
+        "Transactions committed by the group-commit writer");
+    private static final Counter WRITES = METRICS.counter("myblog_db_group_commit_writes_total",
+        "Writes committed by the group-commit writer; divided by commits, the mean group size");
+    private static final Counter REJECTED = METRICS.counter("myblog_db_group_commit_rejected_total",
+        "Writes refused because the group-commit queue was full");
+    private static final Histogram COMMIT_TIME = METRICS.histogram("myblog_db_group_commit_duration_seconds",
+        "Time to run and commit one group of writes");
+    private static final Histogram WRITE_TIME = METRICS.histogram("myblog_db_group_commit_wait_seconds",
+        "Time from queueing a write until its group committed");
+
+    private final JdbcConnectionPool pool;
+    private final Settings settings;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public GroupCommitWriter(JdbcConnectionPool pool, Settings settings) {
+        this.pool = pool;
+        this.settings = settings;
+        this.queue = new ArrayBlockingQueue<>(settings.maxQueued);
+        this.writer = new Thread(this::runWriter, "db-group-commit");
+        writer.setDaemon(true);
+        writer.start();
+        METRICS.gaugeFunction("myblog_db_group_commit_queued", "Writes waiting for the group-commit writer",
+            () -> queue.size());
+    }
+
+    // Blocks until the write's group has committed or failed; a full queue answers BUSY
+    public AuthResult submit(Write write) {
+        Pending pending = new Pending(write);
+        if (!running || !queue.offer(pending)) {
+            REJECTED.increment();
+            return new AuthResult(false, AuthBackend.BUSY);
+        }
+        try {
+            return pending.result.get(settings.timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // It may still commit later; the caller can only retry, which the writes tolerate
+            return new AuthResult(false, "Database error - timed out waiting for commit");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new AuthResult(false, "Database error - interrupted waiting for commit");
+        } catch (ExecutionException e) {
+            return new AuthResult(false, "Database error - " + e.getCause().getMessage());
+        }
+    }
+
+    // Stops taking writes and lets the writer commit what is already queued
+    public void shutdown() {
+        running = false;
+        try {
+            writer.join(settings.timeoutMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runWriter() {
+        List<Pending> group = new ArrayList<>(settings.maxBatch);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                group.add(first);
+                long lingerUntil = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(settings.lingerMicros);
+                while (group.size() < settings.maxBatch) {
+                    queue.drainTo(group, settings.maxBatch - group.size());
+                    long remaining = lingerUntil - System.nanoTime();
+                    if (group.size() >= settings.maxBatch || remaining <= 0) {
+                        break;
+                    }
+                    Pending next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        group.add(next);
+                    }
+                }
+                commit(group);
+            } catch (InterruptedException e) {
+                fail(group, "Database error - writer interrupted");
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Group commit writer error: " + e.getMessage());
+                fail(group, "Database error - " + e.getMessage());
+            } finally {
+                group.clear();
+            }
+        }
+    }
+
+    private void commit(List<Pending> group) {
+        long started = System.nanoTime();
+        Connection connection;
+        try {
+            connection = pool.acquire();
+        } catch (SQLException e) {
+            fail(group, "Database error - " + e.getMessage());
+            return;
+        }
+        AuthResult[] results = new AuthResult[group.size()];
+        boolean committed = false;
+        try {
+            connection.setAutoCommit(false);
+            for (int i = 0; i < group.size(); i++) {
+                results[i] = runInSavepoint(connection, group.get(i).write);
+            }
+            connection.commit();
+            committed = true;
+        } catch (SQLException e) {
+            System.err.println("Group commit of " + group.size() + " writes failed: " + e.getMessage());
+        } finally {
+            if (committed) {
+                pool.release(connection);
+            } else {
+                pool.discard(connection);
+            }
+        }
+        if (!committed) {
+            fail(group, "Database error - commit failed");
+            return;
+        }
+        COMMIT_TIME.recordSince(started);
+        COMMITS.increment();
+        WRITES.add(group.size());
+        for (int i = 0; i < group.size(); i++) {
+            Pending pending = group.get(i);
+            WRITE_TIME.recordSince(pending.enqueuedAt);
+            pending.result.complete(results[i]);
+        }
+    }
+
+    // Exceptions from the savepoint statements themselves mean the connection is unusable
+    // and fail the whole group
+    private static AuthResult runInSavepoint(Connection connection, Write write) throws SQLException {
+        Savepoint savepoint = connection.setSavepoint();
+        AuthResult result;
+        try {
+            result = write.run(connection);
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Database error: " + e.getMessage());
+            connection.rollback(savepoint);
+            return new AuthResult(false, "Database error - " + e.getMessage());
+        }
+        if (result.success) {
+            connection.releaseSavepoint(savepoint);
+        } else {
+            connection.rollback(savepoint);
+        }
+        return result;
+    }
+
+    private static void fail(List<Pending> group, String message) {
+        for (Pending pending : group) {
+            pending.result.complete(new AuthResult(false, message));
+        }
+    }
+}
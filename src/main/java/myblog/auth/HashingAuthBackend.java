@@ -0,0 +1,95 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import myblog.metrics.Counter;
+import myblog.metrics.MetricsRegistry;
+
+// Wraps another backend so passwords are stored as PasswordHasher hashes and checked here
+// rather than compared in SQL. Accounts still holding a plain-text password, or a hash
+// below the current work factor, are rehashed on their next successful login. Unknown
+// usernames are checked against a hash that matches nothing, so they cost as much time as
+// a wrong password and do not reveal which accounts exist.
+public class HashingAuthBackend implements AuthBackend {
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final String UPGRADES = "myblog_password_upgrades_total";
+    private static final String UPGRADES_HELP = "Stored passwords rehashed at login, by what they were before";
+    private static final Counter UPGRADED_PLAIN_TEXT = METRICS.counter(UPGRADES, UPGRADES_HELP, "from", "plain_text");
+    private static final Counter UPGRADED_WORK_FACTOR = METRICS.counter(UPGRADES, UPGRADES_HELP, "from", "work_factor");
+
+    private final AuthBackend backend;
+    private final PasswordHasher hasher;
+    private final String unmatchable;
+
+    public HashingAuthBackend(AuthBackend backend, PasswordHasher hasher) {
+        this.backend = backend;
+        this.hasher = hasher;
+        this.unmatchable = hasher.unmatchableHash();
+    }
+
+    @Override
+    public AuthResult check(String username, String password) {
+        AuthResult stored = backend.storedPassword(username);
+        boolean known = stored.success;
+        if (!known && !INVALID_CREDENTIALS.equals(stored.message)) {
+            return stored;
+        }
+        PasswordHasher.Verification verification;
+        try {
+            verification = hasher.verify(password, known ? stored.message : unmatchable);
+        } catch (PasswordHasher.BusyException e) {
+            System.out.println("Login refused: " + e.getMessage());
+            return new AuthResult(false, BUSY);
+        }
+        if (!known || verification == PasswordHasher.Verification.MISMATCH) {
+            return new AuthResult(false, INVALID_CREDENTIALS);
+        }
+        if (verification == PasswordHasher.Verification.MATCH_NEEDS_UPGRADE) {
+            upgrade(username, password, stored.message);
+        }
+        return new AuthResult(true, "Login successful");
+    }
+
+    @Override
+    public AuthResult pendingRegister(String username, String password, String email, String verificationToken) {
+        String hash;
+        try {
+            hash = hasher.hash(password);
+        } catch (PasswordHasher.BusyException e) {
+            System.out.println("Registration refused: " + e.getMessage());
+            return new AuthResult(false, BUSY);
+        }
+        return backend.pendingRegister(username, hash, email, verificationToken);
+    }
+
+    // The pending row already holds the hash, and is copied as it is
+    @Override
+    public AuthResult verifyRegister(String username, String verificationToken) {
+        return backend.verifyRegister(username, verificationToken);
+    }
+
+    @Override
+    public AuthResult storedPassword(String username) {
+        return backend.storedPassword(username);
+    }
+
+    @Override
+    public AuthResult replacePassword(String username, String expected, String replacement) {
+        return backend.replacePassword(username, expected, replacement);
+    }
+
+    // The login has succeeded either way; a failed upgrade is retried at the next login
+    private void upgrade(String username, String password, String previous) {
+        try {
+            AuthResult result = backend.replacePassword(username, previous, hasher.hash(password));
+            if (!result.success) {
+                System.out.println("Password upgrade for " + username + " skipped: " + result.message);
+            } else if (previous.startsWith(PasswordHasher.PREFIX)) {
+                UPGRADED_WORK_FACTOR.increment();
+            } else {
+                UPGRADED_PLAIN_TEXT.increment();
+            }
+        } catch (PasswordHasher.BusyException e) {
+            System.out.println("Password upgrade for " + username + " postponed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+// In-process port of auth.py: same queries, same SUCCESS/ERROR messages, but over pooled
+// connections instead of a new interpreter and SQLAlchemy engine per call. The PostgreSQL
+// driver switches repeated statements to server-side prepared statements per connection.
+// Registration writes go through a GroupCommitWriter, so concurrent registrations share
+// commits; expired pending registrations are left to PendingRegistrationSweeper.
+public class JdbcAuthBackend implements AuthBackend {
+    private final JdbcConnectionPool pool;
+    private final GroupCommitWriter writer;
+    private final String checkCredentialsSql;
+    private final String findUserSql;
+    private final String findPendingSql;
+    private final String updatePendingSql;
+    private final String insertPendingSql;
+    private final String findValidPendingSql;
+    private final String insertUserSql;
+    private final String deletePendingSql;
+    private final String findPasswordSql;
+    private final String replacePasswordSql;
+
+    public JdbcAuthBackend(JdbcConnectionPool pool, String schema, GroupCommitWriter.Settings writes) {
+        if (!schema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid schema name: " + schema);
+        }
+        this.pool = pool;
+        this.writer = new GroupCommitWriter(pool, writes);
+        String users = schema + ".users";
+        String pending = schema + ".pending_registrations";
+
+        this.checkCredentialsSql = "SELECT username FROM " + users
+            + " WHERE username = ? AND password = ? AND is_verified = true";
+        this.findUserSql = "SELECT username, email_address FROM " + users
+            + " WHERE username = ? OR email_address = ?";
+        this.findPendingSql = "SELECT token FROM " + pending
+            + " WHERE username = ? OR email_address = ?";
+        this.updatePendingSql = "UPDATE " + pending
+            + " SET token = ?, password = ?, expiry_time = NOW() + INTERVAL '24 hours'"
+            + " WHERE username = ? OR email_address = ?";
+        this.insertPendingSql = "INSERT INTO " + pending
+            + " (token, username, password, email_address, expiry_time)"
+            + " VALUES (?, ?, ?, ?, NOW() + INTERVAL '24 hours')";
+        this.findValidPendingSql = "SELECT username, password, email_address FROM " + pending
+            + " WHERE token = ? AND username = ? AND expiry_time > NOW()";
+        this.insertUserSql = "INSERT INTO " + users
+            + " (username, password, email_address, created_time, updated_time, is_verified)"
+            + " VALUES (?, ?, ?, NOW(), NOW(), true)";
+        this.deletePendingSql = "DELETE FROM " + pending
+            + " WHERE username = ? OR email_address = ?";
+        this.findPasswordSql = "SELECT password FROM " + users
+            + " WHERE username = ? AND is_verified = true";
+        this.replacePasswordSql = "UPDATE " + users
+            + " SET password = ?, updated_time = NOW() WHERE username = ? AND password = ?";
+    }
+
+    public static JdbcAuthBackend fromConfig(DatabaseConfig database, int poolSize, long acquireTimeoutMillis,
+            GroupCommitWriter.Settings writes) {
+        JdbcConnectionPool pool = new JdbcConnectionPool(database.getJdbcUrl(), database.getUser(),
+            database.getPassword(), poolSize, acquireTimeoutMillis);
+        return new JdbcAuthBackend(pool, database.getSchema(), writes);
+    }
+
+    @Override
+    public AuthResult check(String username, String password) {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(checkCredentialsSql)) {
+                statement.setString(1, username);
+                statement.setString(2, password);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next()
+                        ? new AuthResult(true, "Login successful")
+                        : new AuthResult(false, INVALID_CREDENTIALS);
+                }
+            }
+        });
+    }
+
+    @Override
+    public AuthResult pendingRegister(String username, String password, String email, String verificationToken) {
+        return writer.submit(connection -> {
+            // Check if username or email already exists in users table
+            try (PreparedStatement statement = connection.prepareStatement(findUserSql)) {
+                statement.setString(1, username);
+                statement.setString(2, email);
+                try (ResultSet existing = statement.executeQuery()) {
+                    if (existing.next()) {
+                        return username.equals(existing.getString("username"))
+                            ? new AuthResult(false, "Username is already registered")
+                            : new AuthResult(false, "Email address is already registered");
+                    }
+                }
+            }
+
+            boolean hasPending;
+            try (PreparedStatement statement = connection.prepareStatement(findPendingSql)) {
+                statement.setString(1, username);
+                statement.setString(2, email);
+                try (ResultSet existing = statement.executeQuery()) {
+                    hasPending = existing.next();
+                }
+            }
+
+            if (hasPending) {
+                try (PreparedStatement statement = connection.prepareStatement(updatePendingSql)) {
+                    statement.setString(1, verificationToken);
+                    statement.setString(2, password);
+                    statement.setString(3, username);
+                    statement.setString(4, email);
+                    statement.executeUpdate();
+                }
+                return new AuthResult(true, "Verification email resent");
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(insertPendingSql)) {
+                statement.setString(1, verificationToken);
+                statement.setString(2, username);
+                statement.setString(3, password);
+                statement.setString(4, email);
+                statement.executeUpdate();
+            }
+            return new AuthResult(true, "Verification email sent");
+        });
+    }
+
+    @Override
+    public AuthResult verifyRegister(String username, String verificationToken) {
+        return writer.submit(connection -> {
+            String pendingUsername;
+            String pendingPassword;
+            String pendingEmail;
+            try (PreparedStatement statement = connection.prepareStatement(findValidPendingSql)) {
+                statement.setString(1, verificationToken);
+                statement.setString(2, username);
+                try (ResultSet pending = statement.executeQuery()) {
+                    if (!pending.next()) {
+                        return new AuthResult(false, "Invalid or expired verification token");
+                    }
+                    pendingUsername = pending.getString("username");
+                    pendingPassword = pending.getString("password");
+                    pendingEmail = pending.getString("email_address");
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(findUserSql)) {
+                statement.setString(1, pendingUsername);
+                statement.setString(2, pendingEmail);
+                try (ResultSet existing = statement.executeQuery()) {
+                    if (existing.next()) {
+                        return new AuthResult(false, "User already exists");
+                    }
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(insertUserSql)) {
+                statement.setString(1, pendingUsername);
+                statement.setString(2, pendingPassword);
+                statement.setString(3, pendingEmail);
+                statement.executeUpdate();
+            }
+
+            // Clean up pending registration
+            try (PreparedStatement statement = connection.prepareStatement(deletePendingSql)) {
+                statement.setString(1, pendingUsername);
+                statement.setString(2, pendingEmail);
+                statement.executeUpdate();
+            }
+            return new AuthResult(true, "Email verified successfully");
+        });
+    }
+
+    @Override
+    public AuthResult storedPassword(String username) {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(findPasswordSql)) {
+                statement.setString(1, username);
+                try (ResultSet result = statement.executeQuery()) {
+                    return result.next()
+                        ? new AuthResult(true, result.getString("password"))
+                        : new AuthResult(false, INVALID_CREDENTIALS);
+                }
+            }
+        });
+    }
+
+    @Override
+    public AuthResult replacePassword(String username, String expected, String replacement) {
+        return withConnection(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(replacePasswordSql)) {
+                statement.setString(1, replacement);
+                statement.setString(2, username);
+                statement.setString(3, expected);
+                return statement.executeUpdate() > 0
+                    ? new AuthResult(true, "Password replaced")
+                    : new AuthResult(false, "Password changed concurrently");
+            }
+        });
+    }
+
+    public void close() {
+        writer.shutdown();
+        pool.close();
+    }
+
+    // Single statements in autocommit mode; multi-statement writes go through the writer
+    private AuthResult withConnection(GroupCommitWriter.Write work) {
+        Connection connection;
+        try {
+            connection = pool.acquire();
+        } catch (SQLException e) {
+            return new AuthResult(false, "Database error - " + e.getMessage());
+        }
+        boolean healthy = false;
+        try {
+            AuthResult result = work.run(connection);
+            healthy = true;
+            return result;
+        } catch (SQLException e) {
+            System.err.println("Database error: " + e.getMessage());
+            return new AuthResult(false, "Database error - " + e.getMessage());
+        } finally {
+            if (healthy) {
+                pool.release(connection);
+            } else {
+                pool.discard(connection);
+            }
+        }
+    }
+}
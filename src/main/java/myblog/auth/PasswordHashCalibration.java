@@ -0,0 +1,77 @@
+package myblog.auth;
+
+import myblog.server.ServerConfig;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Picks --hash-iterations for this machine (mvn -Pcalibrate-hash, options via -Dexec.args):
+//   --target-ms=250   time one login may spend hashing
+//   --threads=N       the --hash-threads the server will run with (default as the server's)
+// Every thread hashes at once, as on a server under a login burst, so the measurement
+// includes the slowdown from shared caches and turbo limits that one idle core would hide.
+// Prints the iteration count that meets the target and the logins per second it allows.
+public class PasswordHashCalibration {
+    private static final int PROBE_ITERATIONS = 100_000;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws InterruptedException, ExecutionException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        int targetMillis = Math.max(1, config.getInt("target-ms", 250));
+        int threads = Math.max(1, config.getInt("threads", new PasswordHasher.Settings().threads));
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            // The first round only warms up the JIT
+            measure(pool, threads, PROBE_ITERATIONS);
+            double probeMillis = measure(pool, threads, PROBE_ITERATIONS);
+            int iterations = roundIterations(PROBE_ITERATIONS * targetMillis / probeMillis);
+            double millis = measure(pool, threads, iterations);
+
+            System.out.printf("PBKDF2-SHA256 on %d threads: %.1f ms per %d iterations%n",
+                threads, probeMillis, PROBE_ITERATIONS);
+            System.out.printf("Recommended: --hash-iterations=%d --hash-threads=%d%n", iterations, threads);
+            System.out.printf("  %.0f ms per login hash, at most %.0f logins/s%n",
+                millis, threads * 1000 / millis);
+            if (iterations < PasswordHasher.DEFAULT_ITERATIONS) {
+                System.out.printf("  Below the default of %d iterations; consider a higher --target-ms%n",
+                    PasswordHasher.DEFAULT_ITERATIONS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // Median over ROUNDS of the mean time per hash with every thread hashing
+    private static double measure(ExecutorService pool, int threads, int iterations)
+            throws InterruptedException, ExecutionException {
+        double[] rounds = new double[ROUNDS];
+        for (int round = 0; round < ROUNDS; round++) {
+            List<Future<Long>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(pool.submit(() -> {
+                    long started = System.nanoTime();
+                    PasswordHasher.hash("calibration-password", iterations);
+                    return System.nanoTime() - started;
+                }));
+            }
+            long totalNanos = 0;
+            for (Future<Long> result : results) {
+                totalNanos += result.get();
+            }
+            rounds[round] = totalNanos / 1e6 / threads;
+        }
+        Arrays.sort(rounds);
+        return rounds[ROUNDS / 2];
+    }
+
+    // To two significant digits, so the option reads like a chosen number
+    private static int roundIterations(double iterations) {
+        int step = (int) Math.pow(10, Math.max(0, (int) Math.floor(Math.log10(iterations)) - 1));
+        return Math.max(1_000, (int) Math.round(iterations / step) * step);
+    }
+}
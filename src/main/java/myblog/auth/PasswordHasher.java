@@ -0,0 +1,220 @@
+package myblog.auth;
+
+import myblog.metrics.Counter;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.spec.InvalidKeySpecException;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+// PBKDF2-HMAC-SHA256 password hashes, stored as
+//   pbkdf2-sha256$<iterations>$<base64 salt>$<base64 key>
+// Hashing is deliberately slow, so it runs on a small pool of its own with a bounded
+// queue: however many logins arrive at once, at most `threads` cores are spent on it and
+// request threads keep serving everything else. When the queue is full, or a caller has
+// waited timeoutMillis, the call fails with BusyException instead of waiting longer.
+public class PasswordHasher {
+    public static final String PREFIX = "pbkdf2-sha256$";
+    // OWASP's 2023 recommendation for PBKDF2-HMAC-SHA256; see PasswordHashCalibration
+    public static final int DEFAULT_ITERATIONS = 600_000;
+    private static final int SALT_BYTES = 16;
+    private static final int KEY_BITS = 256;
+
+    public enum Verification { MATCH, MATCH_NEEDS_UPGRADE, MISMATCH }
+
+    public static class Settings {
+        public int iterations = DEFAULT_ITERATIONS;
+        public int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        public int maxQueued = 64;
+        // Queue wait plus hashing, per call
+        public long timeoutMillis = 5000;
+    }
+
+    public static class BusyException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        BusyException(String message) {
+            super(message);
+        }
+    }
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final String HASH_TIME = "myblog_password_hash_duration_seconds";
+    private static final String HASH_TIME_HELP = "CPU-bound time to hash or verify one password";
+    private static final Histogram HASH_DURATION = METRICS.histogram(HASH_TIME, HASH_TIME_HELP, "operation", "hash");
+    private static final Histogram VERIFY_DURATION =
+        METRICS.histogram(HASH_TIME, HASH_TIME_HELP, "operation", "verify");
+    private static final Histogram QUEUE_WAIT = METRICS.histogram("myblog_password_hash_queue_wait_seconds",
+        "Time password hashing work waited for a hashing thread");
+    private static final Counter REJECTED = METRICS.counter("myblog_password_hash_rejected_total",
+        "Password hashing calls refused because the queue was full or the wait too long");
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final int iterations;
+    private final long timeoutMillis;
+    private final ThreadPoolExecutor pool;
+    private final String legacyDecoy;
+
+    public PasswordHasher(Settings settings) {
+        this.iterations = settings.iterations;
+        this.timeoutMillis = settings.timeoutMillis;
+        AtomicInteger counter = new AtomicInteger();
+        this.pool = new ThreadPoolExecutor(settings.threads, settings.threads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(settings.maxQueued), runnable -> {
+                Thread thread = new Thread(runnable, "password-hash-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        METRICS.gaugeFunction("myblog_password_hash_queued", "Password hashing calls waiting for a thread",
+            () -> pool.getQueue().size());
+        METRICS.gaugeFunction("myblog_password_hash_active", "Hashing threads currently busy",
+            () -> pool.getActiveCount());
+        this.legacyDecoy = unmatchableHash();
+    }
+
+    public int getIterations() {
+        return iterations;
+    }
+
+    // New hash with a random salt at the configured work factor
+    public String hash(String password) throws BusyException {
+        return run(() -> {
+            long started = System.nanoTime();
+            try {
+                return hash(password, iterations);
+            } finally {
+                HASH_DURATION.recordSince(started);
+            }
+        });
+    }
+
+    // stored is a hash from hash(), or the plain text of an account created before passwords
+    // were hashed; both legacy rows and hashes below the current work factor need upgrading
+    public Verification verify(String password, String stored) throws BusyException {
+        if (!stored.startsWith(PREFIX)) {
+            boolean match = MessageDigest.isEqual(stored.getBytes(StandardCharsets.UTF_8),
+                password.getBytes(StandardCharsets.UTF_8));
+            // Still costs one hash, so an unmigrated account answers no faster than an unknown one
+            runVerify(password, legacyDecoy);
+            return match ? Verification.MATCH_NEEDS_UPGRADE : Verification.MISMATCH;
+        }
+        return runVerify(password, stored);
+    }
+
+    // A well-formed hash that matches no password, for spending the same time on unknown
+    // usernames as on known ones
+    public String unmatchableHash() {
+        byte[] salt = new byte[SALT_BYTES];
+        byte[] key = new byte[KEY_BITS / 8];
+        RANDOM.nextBytes(salt);
+        RANDOM.nextBytes(key);
+        return encode(iterations, salt, key);
+    }
+
+    private Verification runVerify(String password, String stored) throws BusyException {
+        return run(() -> {
+            long started = System.nanoTime();
+            try {
+                return verifyHash(password, stored, iterations);
+            } finally {
+                VERIFY_DURATION.recordSince(started);
+            }
+        });
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // Runs on the calling thread; used by the hashing pool and by PasswordHashCalibration
+    static String hash(String password, int iterations) {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        return encode(iterations, salt, derive(password, salt, iterations));
+    }
+
+    static Verification verifyHash(String password, String stored, int currentIterations) {
+        String[] parts = stored.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            System.err.println("Malformed password hash - treating as a mismatch");
+            return Verification.MISMATCH;
+        }
+        int storedIterations;
+        byte[] salt;
+        byte[] key;
+        try {
+            storedIterations = Integer.parseInt(parts[0]);
+            salt = Base64.getDecoder().decode(parts[1]);
+            key = Base64.getDecoder().decode(parts[2]);
+        } catch (IllegalArgumentException e) {
+            System.err.println("Malformed password hash - treating as a mismatch");
+            return Verification.MISMATCH;
+        }
+        if (storedIterations < 1 || salt.length == 0) {
+            System.err.println("Malformed password hash - treating as a mismatch");
+            return Verification.MISMATCH;
+        }
+        if (!MessageDigest.isEqual(key, derive(password, salt, storedIterations))) {
+            return Verification.MISMATCH;
+        }
+        return storedIterations < currentIterations ? Verification.MATCH_NEEDS_UPGRADE : Verification.MATCH;
+    }
+
+    private <T> T run(Callable<T> work) throws BusyException {
+        long submitted = System.nanoTime();
+        Future<T> future;
+        try {
+            future = pool.submit(() -> {
+                QUEUE_WAIT.recordSince(submitted);
+                return work.call();
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            throw new BusyException("Password hashing queue is full");
+        }
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            REJECTED.increment();
+            throw new BusyException("Password hashing took longer than " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new BusyException("Interrupted waiting for password hashing");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Password hashing failed", e.getCause());
+        }
+    }
+
+    private static byte[] derive(String password, byte[] salt, int iterations) {
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, KEY_BITS);
+        try {
+            return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            throw new IllegalStateException("PBKDF2WithHmacSHA256 not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static String encode(int iterations, byte[] salt, byte[] key) {
+        Base64.Encoder base64 = Base64.getEncoder().withoutPadding();
+        return PREFIX + iterations + "$" + base64.encodeToString(salt) + "$" + base64.encodeToString(key);
+    }
+}
@@ -0,0 +1,131 @@
+package myblog.auth;
+
+import myblog.metrics.Counter;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Deletes expired pending registrations in the background, which verification used to do
+// with an unbounded DELETE on the user's request. Each run removes at most chunkSize rows
+// per statement, oldest first, committing and pausing between chunks so the sweep never
+// holds many row locks or a long transaction; rows a registration is updating right now
+// are skipped (SKIP LOCKED) and picked up next time. Runs on a connection pool of its own,
+// and applies the SchemaMigration first, whose expiry_time index the sweep relies on.
+public class PendingRegistrationSweeper {
+    public static class Settings {
+        public int intervalSeconds = 60;
+        public int chunkSize = 500;
+        public long chunkPauseMillis = 20;
+        // Bounds one run; anything left is swept by the next
+        public int maxChunksPerRun = 200;
+        public boolean migrate = true;
+    }
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter EXPIRED = METRICS.counter("myblog_pending_registrations_expired_total",
+        "Expired pending registrations deleted by the sweeper");
+    private static final Histogram SWEEP_TIME = METRICS.histogram("myblog_pending_sweep_duration_seconds",
+        "Time for one sweep of expired pending registrations");
+
+    private final JdbcConnectionPool pool;
+    private final String schema;
+    private final Settings settings;
+    private final String deleteExpiredSql;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pending-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public PendingRegistrationSweeper(JdbcConnectionPool pool, String schema, Settings settings) {
+        if (!schema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid schema name: " + schema);
+        }
+        this.pool = pool;
+        this.schema = schema;
+        this.settings = settings;
+        String pending = schema + ".pending_registrations";
+        // ctid = ANY(ARRAY(...)) plans as a TID scan; ctid IN (subquery) may not
+        this.deleteExpiredSql = "DELETE FROM " + pending + " WHERE ctid = ANY(ARRAY("
+            + "SELECT ctid FROM " + pending + " WHERE expiry_time < NOW()"
+            + " ORDER BY expiry_time LIMIT ? FOR UPDATE SKIP LOCKED))";
+    }
+
+    public void start() {
+        if (settings.migrate) {
+            scheduler.execute(this::migrate);
+        }
+        scheduler.scheduleWithFixedDelay(this::sweep, settings.intervalSeconds, settings.intervalSeconds,
+            TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        scheduler.shutdownNow();
+        pool.close();
+    }
+
+    private void migrate() {
+        Connection connection;
+        try {
+            connection = pool.acquire();
+        } catch (SQLException e) {
+            System.err.println("Schema migration skipped: " + e.getMessage());
+            return;
+        }
+        try {
+            new SchemaMigration(schema).apply(connection);
+            pool.release(connection);
+        } catch (SQLException e) {
+            System.err.println("Schema migration failed: " + e.getMessage());
+            pool.discard(connection);
+        }
+    }
+
+    // Exceptions must not escape, or the scheduler would silently stop running the sweep
+    private void sweep() {
+        long started = System.nanoTime();
+        int total = 0;
+        Connection connection;
+        try {
+            connection = pool.acquire();
+        } catch (SQLException e) {
+            System.err.println("Pending registration sweep skipped: " + e.getMessage());
+            return;
+        }
+        boolean healthy = false;
+        try (PreparedStatement statement = connection.prepareStatement(deleteExpiredSql)) {
+            connection.setAutoCommit(true);
+            statement.setInt(1, settings.chunkSize);
+            for (int chunk = 0; chunk < settings.maxChunksPerRun; chunk++) {
+                int deleted = statement.executeUpdate();
+                total += deleted;
+                EXPIRED.add(deleted);
+                if (deleted < settings.chunkSize) {
+                    break;
+                }
+                Thread.sleep(settings.chunkPauseMillis);
+            }
+            healthy = true;
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("Pending registration sweep failed: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            healthy = true;
+        } finally {
+            if (healthy) {
+                pool.release(connection);
+            } else {
+                pool.discard(connection);
+            }
+        }
+        SWEEP_TIME.recordSince(started);
+        if (total > 0) {
+            System.out.println("Swept " + total + " expired pending registrations");
+        }
+    }
+}
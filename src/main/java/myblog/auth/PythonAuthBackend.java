@@ -0,0 +1,78 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.Map;
+
+// Runs target/python/auth.py once per call and reads its SUCCESS:/ERROR: line
+public class PythonAuthBackend implements AuthBackend {
+    static final String PYTHON_SCRIPT_PATH = "target/python/auth.py";
+
+    @Override
+    public AuthResult check(String username, String password) {
+        return execute("check", username, password);
+    }
+
+    @Override
+    public AuthResult pendingRegister(String username, String password, String email, String verificationToken) {
+        return execute("pending_register", username, password, email, verificationToken);
+    }
+
+    @Override
+    public AuthResult verifyRegister(String username, String verificationToken) {
+        // For verify command, we use token instead of password
+        return execute("verify_register", username, verificationToken);
+    }
+
+    @Override
+    public AuthResult storedPassword(String username) {
+        return execute("get_password", username);
+    }
+
+    @Override
+    public AuthResult replacePassword(String username, String expected, String replacement) {
+        return execute("replace_password", username, expected, replacement);
+    }
+
+    private AuthResult execute(String command, String... arguments) {
+        try {
+            System.out.println("Starting Python authentication process...");
+
+            String[] commandLine = new String[arguments.length + 3];
+            commandLine[0] = "python";
+            commandLine[1] = PYTHON_SCRIPT_PATH;
+            commandLine[2] = command;
+            System.arraycopy(arguments, 0, commandLine, 3, arguments.length);
+            ProcessBuilder processBuilder = new ProcessBuilder(commandLine);
+
+            // Set environment variables for the Python process
+            Map<String, String> env = processBuilder.environment();
+            env.put("PYTHONIOENCODING", "utf-8");
+
+            processBuilder.redirectErrorStream(true);
+            System.out.println("Executing " + command + " command: " + PYTHON_SCRIPT_PATH);
+
+            Process process = processBuilder.start();
+
+            // Read all output from the Python script
+            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("SUCCESS: ")) {
+                    return new AuthResult(true, line.substring(9));
+                } else if (line.startsWith("ERROR: ")) {
+                    return new AuthResult(false, line.substring(7));
+                }
+            }
+
+            return new AuthResult(false, "No valid response from authentication service");
+
+        } catch (Exception e) {
+            System.err.println(command + " failed: " + e.getMessage());
+            e.printStackTrace();
+            return new AuthResult(false, "Authentication service error: " + e.getMessage());
+        }
+    }
+}
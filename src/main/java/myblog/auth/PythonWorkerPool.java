@@ -0,0 +1,198 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Keeps a fixed set of "auth.py serve" processes alive and sends each call to an idle one
+// as a JSON line, reading back a single SUCCESS:/ERROR: line. Each worker runs one request
+// at a time and keeps its own SQLAlchemy engine, so neither interpreter start-up nor engine
+// creation is paid per login. Workers that crash, time out or fail a health check are
+// killed and replaced on their next use.
+public class PythonWorkerPool implements AuthBackend {
+    private static final long HEALTH_CHECK_AFTER_IDLE_MILLIS = 30_000;
+
+    private class Worker {
+        private Process process;
+        private BufferedWriter requests;
+        private BufferedReader responses;
+        private long lastUsed;
+
+        // Returns the raw response line, restarting the process first if it is not running
+        String call(String requestLine) throws IOException {
+            if (process == null || !process.isAlive()) {
+                start();
+            } else if (System.currentTimeMillis() - lastUsed > HEALTH_CHECK_AFTER_IDLE_MILLIS && !isHealthy()) {
+                System.out.println("Python auth worker failed its health check - restarting");
+                start();
+            }
+            return exchange(requestLine);
+        }
+
+        private boolean isHealthy() {
+            try {
+                return "SUCCESS: pong".equals(exchange("{\"command\": \"ping\"}"));
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private String exchange(String requestLine) throws IOException {
+            Process current = process;
+            ScheduledFuture<?> watchdog = timer.schedule(current::destroyForcibly, timeoutMillis, TimeUnit.MILLISECONDS);
+            try {
+                requests.write(requestLine);
+                requests.write('\n');
+                requests.flush();
+                String response = responses.readLine();
+                if (response == null) {
+                    throw new IOException(watchdog.isDone()
+                        ? "Authentication worker timed out after " + timeoutMillis + " ms"
+                        : "Authentication worker exited");
+                }
+                lastUsed = System.currentTimeMillis();
+                return response;
+            } catch (IOException e) {
+                stop();
+                throw e;
+            } finally {
+                watchdog.cancel(false);
+            }
+        }
+
+        private void start() throws IOException {
+            stop();
+            ProcessBuilder processBuilder = new ProcessBuilder("python", PythonAuthBackend.PYTHON_SCRIPT_PATH, "serve");
+            processBuilder.environment().put("PYTHONIOENCODING", "utf-8");
+            processBuilder.redirectError(ProcessBuilder.Redirect.INHERIT);
+            process = processBuilder.start();
+            requests = new BufferedWriter(new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8));
+            responses = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+            lastUsed = System.currentTimeMillis();
+        }
+
+        void stop() {
+            if (process != null) {
+                process.destroyForcibly();
+                process = null;
+            }
+        }
+    }
+
+    private final BlockingQueue<Worker> idle;
+    private final long timeoutMillis;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "auth-worker-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Workers are started lazily; timeoutMillis bounds both the wait for a free worker
+    // and the time a worker may spend on one request
+    public PythonWorkerPool(int workers, long timeoutMillis) {
+        this.idle = new ArrayBlockingQueue<>(workers);
+        this.timeoutMillis = timeoutMillis;
+        for (int i = 0; i < workers; i++) {
+            idle.add(new Worker());
+        }
+    }
+
+    @Override
+    public AuthResult check(String username, String password) {
+        return call("check", username, password);
+    }
+
+    @Override
+    public AuthResult pendingRegister(String username, String password, String email, String verificationToken) {
+        return call("pending_register", username, password, email, verificationToken);
+    }
+
+    @Override
+    public AuthResult verifyRegister(String username, String verificationToken) {
+        return call("verify_register", username, verificationToken);
+    }
+
+    @Override
+    public AuthResult storedPassword(String username) {
+        return call("get_password", username);
+    }
+
+    @Override
+    public AuthResult replacePassword(String username, String expected, String replacement) {
+        return call("replace_password", username, expected, replacement);
+    }
+
+    public void shutdown() {
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.stop();
+        }
+        timer.shutdownNow();
+    }
+
+    private AuthResult call(String command, String... arguments) {
+        Worker worker;
+        try {
+            worker = idle.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new AuthResult(false, "Authentication service error: interrupted");
+        }
+        if (worker == null) {
+            return new AuthResult(false, "Authentication service is busy");
+        }
+
+        try {
+            String line = worker.call(toRequestLine(command, arguments));
+            if (line.startsWith("SUCCESS: ")) {
+                return new AuthResult(true, line.substring(9));
+            } else if (line.startsWith("ERROR: ")) {
+                return new AuthResult(false, line.substring(7));
+            }
+            return new AuthResult(false, "No valid response from authentication service");
+        } catch (IOException e) {
+            System.err.println(command + " failed: " + e.getMessage());
+            return new AuthResult(false, "Authentication service error: " + e.getMessage());
+        } finally {
+            idle.add(worker);
+        }
+    }
+
+    private static String toRequestLine(String command, String... arguments) {
+        StringBuilder line = new StringBuilder("{\"command\": ");
+        appendJsonString(line, command);
+        line.append(", \"args\": [");
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                line.append(", ");
+            }
+            appendJsonString(line, arguments[i] == null ? "" : arguments[i]);
+        }
+        return line.append("]}").toString();
+    }
+
+    private static void appendJsonString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format("\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
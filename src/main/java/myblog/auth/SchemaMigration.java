@@ -0,0 +1,88 @@
+package myblog.auth;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+// Indexes behind the login and registration lookups (by username, email address and
+// token) and the expiry sweep. Applied at startup and idempotent: an index is created only
+// when no valid index on the table already starts with its column, so primary keys and
+// unique constraints added by hand are reused rather than duplicated. Builds use CREATE
+// INDEX CONCURRENTLY, which does not block writes to a live table; a build that failed
+// half-way leaves an invalid index, which the next run drops and rebuilds.
+public class SchemaMigration {
+    private static final String[][] INDEXES = {
+        {"users", "username"},
+        {"users", "email_address"},
+        {"pending_registrations", "token"},
+        {"pending_registrations", "username"},
+        {"pending_registrations", "email_address"},
+        {"pending_registrations", "expiry_time"},
+    };
+    private static final String LEADING_INDEX_SQL = "SELECT 1 FROM pg_index i"
+        + " JOIN pg_attribute a ON a.attrelid = i.indrelid AND a.attnum = i.indkey[0]"
+        + " WHERE i.indrelid = ?::regclass AND a.attname = ? AND i.indisvalid";
+
+    private final String schema;
+
+    public SchemaMigration(String schema) {
+        if (!schema.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+            throw new IllegalArgumentException("Invalid schema name: " + schema);
+        }
+        this.schema = schema;
+    }
+
+    // Needs autocommit, since CONCURRENTLY cannot run inside a transaction. An advisory
+    // lock keeps two servers starting together from building the same index twice.
+    public void apply(Connection connection) throws SQLException {
+        connection.setAutoCommit(true);
+        try (PreparedStatement lock = connection.prepareStatement("SELECT pg_try_advisory_lock(hashtext(?))")) {
+            lock.setString(1, "myblog-migration-" + schema);
+            try (ResultSet result = lock.executeQuery()) {
+                if (!result.next() || !result.getBoolean(1)) {
+                    System.out.println("Schema migration already running elsewhere - skipped");
+                    return;
+                }
+            }
+        }
+        try {
+            int created = 0;
+            for (String[] index : INDEXES) {
+                if (ensureIndex(connection, index[0], index[1])) {
+                    created++;
+                }
+            }
+            System.out.println("Schema migration: " + created + " indexes created, "
+                + (INDEXES.length - created) + " already present");
+        } finally {
+            try (PreparedStatement unlock = connection.prepareStatement("SELECT pg_advisory_unlock(hashtext(?))")) {
+                unlock.setString(1, "myblog-migration-" + schema);
+                unlock.execute();
+            }
+        }
+    }
+
+    private boolean ensureIndex(Connection connection, String table, String column) throws SQLException {
+        String qualifiedTable = schema + "." + table;
+        try (PreparedStatement statement = connection.prepareStatement(LEADING_INDEX_SQL)) {
+            statement.setString(1, qualifiedTable);
+            statement.setString(2, column);
+            try (ResultSet result = statement.executeQuery()) {
+                if (result.next()) {
+                    return false;
+                }
+            }
+        }
+        String name = table + "_" + column + "_idx";
+        long started = System.nanoTime();
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + schema + "." + name);
+            statement.execute("CREATE INDEX CONCURRENTLY " + name + " ON " + qualifiedTable + " (" + column + ")");
+        }
+        System.out.println("Created index " + schema + "." + name + " in "
+            + (System.nanoTime() - started) / 1_000_000 + " ms");
+        return true;
+    }
+}
@@ -0,0 +1,240 @@
+package myblog.auth;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// In-memory login sessions. A session token is "<id>.<HMAC-SHA256(id)>", so forged or
+// garbled cookies are rejected before touching the map, and lookups are a single
+// ConcurrentHashMap get. Sessions expire after idleTimeout without use; expiry is driven
+// by a hashed timer wheel ticking once a second rather than a timer per session.
+public class SessionManager {
+    public static final String COOKIE_NAME = "SID";
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 512;
+    private static final Base64.Encoder TOKEN_ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final int MAX_POOLED_MACS = 64;
+
+    public static class Session {
+        public final String username;
+        public final long createdAt;
+        final String id;
+        volatile long lastAccess;
+
+        Session(String id, String username, long now) {
+            this.id = id;
+            this.username = username;
+            this.createdAt = now;
+            this.lastAccess = now;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final List<ConcurrentLinkedQueue<Session>> wheel = new ArrayList<>(WHEEL_SLOTS);
+    private final SecureRandom random = new SecureRandom();
+    private final SecretKeySpec key;
+    // Keyed Macs ready for reuse: looking one up and keying it costs more than the signature
+    private final Queue<Mac> macs = new ConcurrentLinkedQueue<>();
+    private final long idleTimeoutMillis;
+    private final Thread ticker;
+    private volatile long currentTick;
+
+    // secret signs session ids; a random one means sessions do not survive a restart,
+    // which they could not anyway since the store is in memory
+    public SessionManager(byte[] secret, long idleTimeoutMillis) {
+        this.key = new SecretKeySpec(secret, "HmacSHA256");
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        for (int i = 0; i < WHEEL_SLOTS; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        this.currentTick = System.currentTimeMillis() / TICK_MILLIS;
+
+        this.ticker = new Thread(this::runWheel, "session-expiry");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    public static SessionManager withRandomSecret(long idleTimeoutMillis) {
+        byte[] secret = new byte[32];
+        new SecureRandom().nextBytes(secret);
+        return new SessionManager(secret, idleTimeoutMillis);
+    }
+
+    // Returns the token to send as the session cookie
+    public String create(String username) {
+        byte[] idBytes = new byte[24];
+        random.nextBytes(idBytes);
+        String id = TOKEN_ENCODER.encodeToString(idBytes);
+        Session session = new Session(id, username, System.currentTimeMillis());
+        sessions.put(id, session);
+        schedule(session);
+        return id + "." + TOKEN_ENCODER.encodeToString(sign(id, id.length()));
+    }
+
+    // Returns the live session for a token, refreshing its idle timer, or null
+    public Session lookup(String token) {
+        String id = verifiedId(token);
+        if (id == null) {
+            return null;
+        }
+        Session session = sessions.get(id);
+        if (session == null) {
+            return null;
+        }
+        long now = System.currentTimeMillis();
+        if (now - session.lastAccess > idleTimeoutMillis) {
+            sessions.remove(id, session);
+            return null;
+        }
+        session.lastAccess = now;
+        return session;
+    }
+
+    // Stops the expiry thread; sessions are no longer removed unless looked up after expiring
+    public void shutdown() {
+        ticker.interrupt();
+    }
+
+    public void invalidate(String token) {
+        String id = verifiedId(token);
+        if (id != null) {
+            sessions.remove(id);
+        }
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    public long getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    // Set-Cookie value for a new session; HttpOnly so scripts cannot read it
+    public String cookieFor(String token) {
+        return COOKIE_NAME + "=" + token + "; Path=/; HttpOnly; SameSite=Lax; Max-Age=" + idleTimeoutMillis / 1000;
+    }
+
+    public static String clearingCookie() {
+        return COOKIE_NAME + "=; Path=/; HttpOnly; SameSite=Lax; Max-Age=0";
+    }
+
+    // Finds the session token in a Cookie request header, or null
+    public static String tokenFromCookieHeader(String cookieHeader) {
+        if (cookieHeader == null) {
+            return null;
+        }
+        int start = 0;
+        while (start < cookieHeader.length()) {
+            int end = cookieHeader.indexOf(';', start);
+            if (end < 0) {
+                end = cookieHeader.length();
+            }
+            while (start < end && cookieHeader.charAt(start) == ' ') {
+                start++;
+            }
+            if (cookieHeader.startsWith(COOKIE_NAME + "=", start)) {
+                return cookieHeader.substring(start + COOKIE_NAME.length() + 1, end).trim();
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+
+    private String verifiedId(String token) {
+        if (token == null) {
+            return null;
+        }
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        // Compared against the token's characters in place, in time independent of where they differ
+        byte[] expected = TOKEN_ENCODER.encode(sign(token, dot));
+        if (token.length() - dot - 1 != expected.length) {
+            return null;
+        }
+        int difference = 0;
+        for (int i = 0; i < expected.length; i++) {
+            difference |= expected[i] ^ token.charAt(dot + 1 + i);
+        }
+        return difference == 0 ? token.substring(0, dot) : null;
+    }
+
+    // HMAC of the first idLength characters of text, which are ASCII in any token we issued
+    private byte[] sign(String text, int idLength) {
+        Mac mac = macs.poll();
+        if (mac == null) {
+            mac = newMac();
+        }
+        for (int i = 0; i < idLength; i++) {
+            mac.update((byte) text.charAt(i));
+        }
+        byte[] signature = mac.doFinal();  // also resets the Mac for its next use
+        if (macs.size() < MAX_POOLED_MACS) {
+            macs.offer(mac);
+        }
+        return signature;
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    // Puts the session in the slot for its idle deadline. Deadlines beyond one turn of the
+    // wheel simply come round again and are rescheduled from there.
+    private void schedule(Session session) {
+        long deadlineTick = (session.lastAccess + idleTimeoutMillis) / TICK_MILLIS + 1;
+        long tick = Math.max(deadlineTick, currentTick + 1);
+        wheel.get((int) (tick % WHEEL_SLOTS)).add(session);
+    }
+
+    private void runWheel() {
+        while (true) {
+            try {
+                Thread.sleep(TICK_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long nowTick = System.currentTimeMillis() / TICK_MILLIS;
+            // Catch up on any ticks missed while the thread was not scheduled
+            while (currentTick < nowTick) {
+                currentTick++;
+                expireSlot(wheel.get((int) (currentTick % WHEEL_SLOTS)));
+            }
+        }
+    }
+
+    private void expireSlot(ConcurrentLinkedQueue<Session> slot) {
+        long now = System.currentTimeMillis();
+        int due = slot.size();
+        for (int i = 0; i < due; i++) {
+            Session session = slot.poll();
+            if (session == null) {
+                break;
+            }
+            if (sessions.get(session.id) != session) {
+                continue;  // already logged out or replaced
+            }
+            if (now - session.lastAccess > idleTimeoutMillis) {
+                sessions.remove(session.id, session);
+            } else {
+                schedule(session);  // used since it was scheduled; push the deadline out
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package myblog.auth;
+
+import myblog.handlers.AuthenticationHandler.AuthResult;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// In-memory stand-in for the real backends, for load tests and local runs without
+// PostgreSQL or auth.py (--auth=stub). Accounts live only as long as the process. A number
+// of verified users ("user0", "user1", ...) sharing one password can be created up front
+// so a load generator has accounts to log in with, and every call can be given an
+// artificial delay to approximate a database round trip.
+public class StubAuthBackend implements AuthBackend {
+    private static class Pending {
+        final String password;
+        final String token;
+
+        Pending(String password, String token) {
+            this.password = password;
+            this.token = token;
+        }
+    }
+
+    private final Map<String, String> passwords = new ConcurrentHashMap<>();
+    private final Map<String, Pending> pending = new ConcurrentHashMap<>();
+    private final long latencyNanos;
+
+    public StubAuthBackend(int seededUsers, String seededPassword, long latencyMillis) {
+        for (int i = 0; i < seededUsers; i++) {
+            passwords.put("user" + i, seededPassword);
+        }
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(latencyMillis);
+    }
+
+    @Override
+    public AuthResult check(String username, String password) {
+        simulateLatency();
+        return password.equals(passwords.get(username))
+            ? new AuthResult(true, "Login successful")
+            : new AuthResult(false, INVALID_CREDENTIALS);
+    }
+
+    @Override
+    public AuthResult pendingRegister(String username, String password, String email, String verificationToken) {
+        simulateLatency();
+        if (passwords.containsKey(username)) {
+            return new AuthResult(false, "Username is already registered");
+        }
+        pending.put(username, new Pending(password, verificationToken));
+        return new AuthResult(true, "Verification email sent");
+    }
+
+    @Override
+    public AuthResult verifyRegister(String username, String verificationToken) {
+        simulateLatency();
+        Pending registration = pending.get(username);
+        if (registration == null || !registration.token.equals(verificationToken)) {
+            return new AuthResult(false, "Invalid or expired verification token");
+        }
+        if (passwords.putIfAbsent(username, registration.password) != null) {
+            return new AuthResult(false, "User already exists");
+        }
+        pending.remove(username);
+        return new AuthResult(true, "Email verified successfully");
+    }
+
+    @Override
+    public AuthResult storedPassword(String username) {
+        simulateLatency();
+        String password = passwords.get(username);
+        return password != null ? new AuthResult(true, password) : new AuthResult(false, INVALID_CREDENTIALS);
+    }
+
+    @Override
+    public AuthResult replacePassword(String username, String expected, String replacement) {
+        simulateLatency();
+        return passwords.replace(username, expected, replacement)
+            ? new AuthResult(true, "Password replaced")
+            : new AuthResult(false, "Password changed concurrently");
+    }
+
+    // Sleeps rather than spins, like a thread blocked on a socket
+    private void simulateLatency() {
+        if (latencyNanos > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(latencyNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
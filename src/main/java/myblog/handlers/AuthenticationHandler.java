@@ -1,13 +1,31 @@
 package myblog.handlers;
 
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.util.Map;
+import myblog.auth.AuthBackend;
+import myblog.auth.PythonAuthBackend;
+import myblog.auth.SessionManager;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
 import myblog.services.EmailService;
 
 public class AuthenticationHandler {
-    private static final String PYTHON_SCRIPT_PATH = "target/python/auth.py";
-    
+    private static volatile AuthBackend backend = new PythonAuthBackend();
+    private static final long DEFAULT_SESSION_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    private static volatile SessionManager sessions;
+
+    private static final String AUTH_CALL_TIME = "myblog_auth_call_duration_seconds";
+    private static final String AUTH_CALL_HELP = "Time spent in auth backend calls, by operation";
+    private static final Histogram CHECK_TIME =
+        MetricsRegistry.global().histogram(AUTH_CALL_TIME, AUTH_CALL_HELP, "operation", "check");
+    private static final Histogram REGISTER_TIME =
+        MetricsRegistry.global().histogram(AUTH_CALL_TIME, AUTH_CALL_HELP, "operation", "pending_register");
+    private static final Histogram VERIFY_TIME =
+        MetricsRegistry.global().histogram(AUTH_CALL_TIME, AUTH_CALL_HELP, "operation", "verify_register");
+
+    static {
+        MetricsRegistry.global().gaugeFunction("myblog_sessions", "Login sessions currently held",
+            () -> getSessionManager().size());
+    }
+
     public static class AuthResult {
         public final boolean success;
         public final String message;
@@ -18,101 +36,71 @@ public class AuthenticationHandler {
         }
     }
 
-    private static AuthResult executePythonAuth(String command, String username, String password) {
-        return executePythonAuth(command, username, password, null, null);
+    // Selected once at startup (see BasicWebServer); auth.py is used until then
+    public static void setBackend(AuthBackend authBackend) {
+        backend = authBackend;
     }
 
+    public static AuthBackend getBackend() {
+        return backend;
+    }
 
-    private static AuthResult executePythonAuth(String command, String username, String password, String email, String verificationToken) {
-        try {
-            System.out.println("Starting Python authentication process...");
-            
-            ProcessBuilder processBuilder;
-            if (command.equals("pending_register")) {
-                processBuilder = new ProcessBuilder(
-                    "python",
-                    PYTHON_SCRIPT_PATH,
-                    command,
-                    username,
-                    password,
-                    email,
-                    verificationToken
-                );
-            } else if (command.equals("verify_register")) {
-                processBuilder = new ProcessBuilder(
-                    "python",
-                    PYTHON_SCRIPT_PATH,
-                    command,
-                    username,
-                    verificationToken  // For verify command, we use token instead of password
-                );
-            } else {
-                processBuilder = new ProcessBuilder(
-                    "python",
-                    PYTHON_SCRIPT_PATH,
-                    command,
-                    username,
-                    password
-                );
-            }
-            
-            // Set environment variables for the Python process
-            Map<String, String> env = processBuilder.environment();
-            env.put("PYTHONIOENCODING", "utf-8");
-            
-            processBuilder.redirectErrorStream(true);
-            System.out.println("Executing " + command + " command: " + PYTHON_SCRIPT_PATH);
-            
-            Process process = processBuilder.start();
-            
-            // Read all output from the Python script
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-            StringBuilder output = new StringBuilder();
-            
-            while ((line = reader.readLine()) != null) {
-                output.append(line).append("\n");
-                System.err.println("pyline: " + line);
-                if (line.startsWith("SUCCESS: ")) {
-                    return new AuthResult(true, line.substring(9));
-                } else if (line.startsWith("ERROR: ")) {
-                    return new AuthResult(false, line.substring(7));
+    public static void setSessionManager(SessionManager sessionManager) {
+        sessions = sessionManager;
+    }
+
+    // Falls back to a 30 minute idle timeout and a random signing key if none was configured
+    public static SessionManager getSessionManager() {
+        SessionManager current = sessions;
+        if (current == null) {
+            synchronized (AuthenticationHandler.class) {
+                if (sessions == null) {
+                    sessions = SessionManager.withRandomSecret(DEFAULT_SESSION_TIMEOUT_MILLIS);
                 }
+                current = sessions;
             }
-            
-            return new AuthResult(false, "No valid response from authentication service");
-            
-        } catch (Exception e) {
-            System.err.println(command + " failed: " + e.getMessage());
-            e.printStackTrace();
-            return new AuthResult(false, "Authentication service error: " + e.getMessage());
         }
+        return current;
     }
 
     public static AuthResult authenticate(String username, String password) {
-
-        return executePythonAuth("check", username, password);
- 
+        long started = System.nanoTime();
+        try {
+            return backend.check(username, password);
+        } finally {
+            CHECK_TIME.recordSince(started);
+        }
     }
 
     public static AuthResult register(String username, String password, String email) {
 
-        // Send verification email and get token
-        String verificationToken = EmailService.sendVerificationEmail(email, username);
-        if (verificationToken == null) {
+        // Create pending registration, then queue the verification email; delivery
+        // happens in the background so the request does not wait on SMTP
+        String verificationToken = EmailService.newVerificationToken();
+        long started = System.nanoTime();
+        AuthResult result;
+        try {
+            result = backend.pendingRegister(username, password, email, verificationToken);
+        } finally {
+            REGISTER_TIME.recordSince(started);
+        }
+        if (result.success && !EmailService.queueVerificationEmail(email, username, verificationToken)) {
             return new AuthResult(false, "Failed to send verification email");
         }
-
-        // Create pending registration
-        return executePythonAuth("pending_register", username, password, email, verificationToken);
+        return result;
     }
 
     public static AuthResult verifyEmail(String username, String token) {
         if (username == null || token == null) {
             return new AuthResult(false, "Invalid verification data");
         }
-        
-        return executePythonAuth("verify_register", username, null, null, token);
+
+        long started = System.nanoTime();
+        try {
+            return backend.verifyRegister(username, token);
+        } finally {
+            VERIFY_TIME.recordSince(started);
+        }
     }
 
 
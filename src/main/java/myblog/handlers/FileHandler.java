@@ -1,33 +1,201 @@
 package myblog.handlers;
 
+import myblog.assets.AssetManifest;
+import myblog.metrics.MetricsRegistry;
 import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
 
 public class FileHandler {
     private static final String HOME_PATH = "src/main/java/myblog/";
     private static final String STATIC_PATH = HOME_PATH + "static";
+    // Written by AssetPipeline during "mvn compile"
+    private static final String BUILT_STATIC_PATH = "target/static";
+    private static final long DEFAULT_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final long[] UNSATISFIABLE = new long[0];
 
-    public static void sendFileResponse(ResponseWriter writer, String filePath, String contentType) {
+    private static final Map<String, String> CONTENT_TYPES = Map.ofEntries(
+        Map.entry("html", "text/html; charset=UTF-8"),
+        Map.entry("css", "text/css; charset=UTF-8"),
+        Map.entry("js", "application/javascript; charset=UTF-8"),
+        Map.entry("json", "application/json; charset=UTF-8"),
+        Map.entry("txt", "text/plain; charset=UTF-8"),
+        Map.entry("svg", "image/svg+xml"),
+        Map.entry("jpg", "image/jpeg"),
+        Map.entry("jpeg", "image/jpeg"),
+        Map.entry("png", "image/png"),
+        Map.entry("gif", "image/gif"),
+        Map.entry("webp", "image/webp"),
+        Map.entry("ico", "image/x-icon"),
+        Map.entry("woff", "font/woff"),
+        Map.entry("woff2", "font/woff2"),
+        Map.entry("ttf", "font/ttf"),
+        Map.entry("otf", "font/otf"));
+
+    private static volatile StaticAssetCache cache =
+        openCache(defaultStaticRoot(), DEFAULT_CACHE_BYTES, DEFAULT_CACHE_BYTES / 4);
+
+    static {
+        MetricsRegistry.global().gaugeFunction("myblog_static_cache_bytes", "Static file bytes held in memory",
+            () -> cache.getUsedBytes());
+    }
+
+    // The asset pipeline's output once the project has been built, else the sources as they are
+    public static Path defaultStaticRoot() {
+        Path built = Paths.get(BUILT_STATIC_PATH);
+        return Files.isRegularFile(built.resolve(AssetManifest.FILE_NAME)) ? built : Paths.get(STATIC_PATH);
+    }
+
+    // Replaces the static asset cache; called once at startup before serving requests
+    public static void configureCache(Path root, long budgetBytes, long maxEntryBytes, boolean watchForChanges) {
+        StaticAssetCache configured = openCache(root, budgetBytes, maxEntryBytes);
+        if (watchForChanges) {
+            try {
+                configured.watch();
+            } catch (IOException e) {
+                System.out.println("Could not watch static files for changes: " + e.getMessage());
+            }
+        }
+        cache = configured;
+    }
+
+    private static StaticAssetCache openCache(Path root, long budgetBytes, long maxEntryBytes) {
+        AssetManifest manifest = null;
+        try {
+            manifest = AssetManifest.load(root);
+        } catch (IOException e) {
+            System.out.println("Could not read the asset manifest, nothing is cached as immutable: " + e.getMessage());
+        }
+        return new StaticAssetCache(root, manifest, budgetBytes, maxEntryBytes);
+    }
+
+    // Full Content-Type header value (with charset for text) chosen by file extension
+    public static String contentTypeOf(String path) {
+        int dot = path.lastIndexOf('.');
+        String extension = dot < 0 ? "" : path.substring(dot + 1).toLowerCase();
+        return CONTENT_TYPES.getOrDefault(extension, "application/octet-stream");
+    }
+
+    public static void sendFileResponse(ResponseWriter writer, String filePath) throws IOException {
+        sendFileResponse(writer, filePath, Collections.emptyMap());
+    }
+
+    // requestHeaders (lower-case names) are consulted for conditional and Range requests
+    public static void sendFileResponse(ResponseWriter writer, String filePath,
+            Map<String, String> requestHeaders) throws IOException {
+        // Checked before the /html prefix is added, which would let "/../x.html" back out of it
+        if (hasDotDotSegment(filePath)) {
+            writer.send404NotFound();
+            return;
+        }
+        String contentType = contentTypeOf(filePath);
         if (filePath.endsWith(".html")) {
             filePath = "/html" + filePath;
         }
 
-        try (BufferedReader fileReader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(STATIC_PATH + filePath), StandardCharsets.UTF_8))) {
-            
-            StringBuilder content = new StringBuilder();
-            String line;
-            while ((line = fileReader.readLine()) != null) {
-                content.append(line).append("\n");
-            }
-            
-            String contentStr = content.toString();
-            writer.sendContent(200, "OK", contentType, contentStr);
-            
-        } catch (FileNotFoundException e) {
+        Path file = cache.resolve(filePath);
+        if (file == null) {
             writer.send404NotFound();
+            return;
+        }
+
+        StaticAssetCache.Entry entry;
+        try {
+            entry = cache.get(file, contentType);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            writer.send404NotFound();
+            return;
         } catch (IOException e) {
             writer.send500InternalError("An unexpected error occurred");
+            return;
+        }
+
+        // Range requests are always served from the identity encoding
+        String rangeHeader = requestHeaders.get("range");
+        boolean gzip = entry.gzipBody != null && rangeHeader == null && writer.acceptsGzip();
+        if (entry.isNotModified(requestHeaders, gzip ? entry.gzipEtag : entry.etag)) {
+            writer.sendEncoded(gzip ? entry.gzipNotModifiedHeaders : entry.notModifiedHeaders, null);
+            return;
+        }
+        if (gzip) {
+            writer.sendEncoded(entry.gzipOkHeaders, entry.gzipBody);
+            return;
+        }
+
+        // If-Range: only honour the range if the client's copy is still current
+        String ifRange = requestHeaders.get("if-range");
+        long[] range = ifRange == null || ifRange.contains(entry.etag)
+            ? parseRange(rangeHeader, entry.length)
+            : null;
+        if (range == UNSATISFIABLE) {
+            writer.sendEncoded(entry.unsatisfiableHeaders(), null);
+        } else if (range == null) {
+            sendBody(writer, entry, entry.okHeaders, 0, entry.length);
+        } else {
+            sendBody(writer, entry, entry.partialHeaders(range[0], range[1]), range[0], range[1] - range[0] + 1);
+        }
+    }
+
+    static boolean hasDotDotSegment(String path) {
+        int start = 0;
+        while (start <= path.length()) {
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (end - start == 2 && path.startsWith("..", start)) {
+                return true;
+            }
+            start = end + 1;
+        }
+        return false;
+    }
+
+    private static void sendBody(ResponseWriter writer, StaticAssetCache.Entry entry, byte[] head,
+            long start, long count) throws IOException {
+        if (entry.body != null) {
+            writer.sendEncoded(head, entry.body, (int) start, (int) count);
+            return;
+        }
+        writer.sendFile(head, entry.file, start, count);
+    }
+
+    // Parses a single "bytes=" range into an inclusive {start, end}. Returns null to serve the
+    // whole file (no header, other units, or multiple ranges) and UNSATISFIABLE for a 416.
+    static long[] parseRange(String header, long length) {
+        if (header == null || !header.startsWith("bytes=") || header.indexOf(',') >= 0) {
+            return null;
+        }
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) {
+            return null;
+        }
+        try {
+            long start;
+            long end;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(spec.substring(0, dash));
+                end = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (end < start) {
+                    return null;
+                }
+                end = Math.min(end, length - 1);
+            }
+            return start < length ? new long[] {start, end} : UNSATISFIABLE;
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
-} 
\ No newline at end of file
+}
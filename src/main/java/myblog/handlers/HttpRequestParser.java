@@ -0,0 +1,427 @@
+package myblog.handlers;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Incremental HTTP/1.x request parser working on raw bytes. Feed it whatever has arrived
+// so far: parseHead() consumes bytes until the request line and headers are complete, then
+// readBody() decodes Content-Length or chunked bodies piece by piece. Nothing is assumed
+// about how the bytes were read, so the blocking and non-blocking servers share it.
+// One parser handles one connection; call reset() between pipelined requests.
+public class HttpRequestParser {
+    // Size limits; requests that exceed them are rejected with the matching 4xx status
+    public static class Limits {
+        public final int maxRequestLineBytes;
+        public final int maxHeaderBytes;
+        public final int maxHeaderCount;
+        public final long maxBodyBytes;
+
+        public Limits(int maxRequestLineBytes, int maxHeaderBytes, int maxHeaderCount, long maxBodyBytes) {
+            this.maxRequestLineBytes = maxRequestLineBytes;
+            this.maxHeaderBytes = maxHeaderBytes;
+            this.maxHeaderCount = maxHeaderCount;
+            this.maxBodyBytes = maxBodyBytes;
+        }
+    }
+
+    // A request that cannot be served; statusCode is the response to send before closing
+    public static class ParseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public final int statusCode;
+        public final String statusText;
+
+        ParseException(int statusCode, String statusText, String message) {
+            super(message);
+            this.statusCode = statusCode;
+            this.statusText = statusText;
+        }
+    }
+
+    private enum State { REQUEST_LINE, HEADERS, BODY, CHUNK_SIZE, CHUNK_DATA, CHUNK_END, TRAILERS, DONE }
+
+    private static final int MAX_CHUNK_LINE_BYTES = 1024;
+
+    private static volatile Limits defaultLimits = new Limits(8 * 1024, 16 * 1024, 100, 1024 * 1024);
+
+    public static void configureLimits(Limits limits) {
+        defaultLimits = limits;
+    }
+
+    private final Limits limits;
+    private byte[] line = new byte[256];
+    private int lineLength;
+    private boolean lineComplete;
+
+    private State state;
+    private boolean started;
+    private int headerBytes;
+    private String method;
+    private String target;
+    private String version;
+    private Map<String, String> headers;
+    private boolean chunked;
+    private long contentLength;
+    private long remaining;
+    private long bodyBytes;
+
+    public HttpRequestParser() {
+        this(defaultLimits);
+    }
+
+    public HttpRequestParser(Limits limits) {
+        this.limits = limits;
+        reset();
+    }
+
+    public void reset() {
+        state = State.REQUEST_LINE;
+        started = false;
+        lineLength = 0;
+        lineComplete = false;
+        headerBytes = 0;
+        method = null;
+        target = null;
+        version = null;
+        headers = new HashMap<>();
+        chunked = false;
+        contentLength = 0;
+        remaining = 0;
+        bodyBytes = 0;
+    }
+
+    // True until the first byte of a request has been seen, so a client closing an idle
+    // kept-alive connection can be told apart from one hanging up mid-request. Empty lines
+    // ahead of a request do not count.
+    public boolean isIdle() {
+        return !started;
+    }
+
+    // Consumes bytes from buffer and returns true once the head is complete; the buffer is
+    // then positioned at the first body byte. Returns false when more input is needed.
+    public boolean parseHead(ByteBuffer buffer) throws ParseException {
+        while (state == State.REQUEST_LINE || state == State.HEADERS) {
+            if (!started) {
+                skipEmptyLines(buffer);
+            }
+            int limit = state == State.REQUEST_LINE
+                ? limits.maxRequestLineBytes
+                : Math.max(1, limits.maxHeaderBytes - headerBytes);
+            if (!readLine(buffer, limit)) {
+                return false;
+            }
+            if (state == State.REQUEST_LINE) {
+                parseRequestLine();
+                state = State.HEADERS;
+            } else if (lineLength == 0) {
+                startBody();
+            } else {
+                headerBytes += lineLength + 2;
+                parseHeaderLine();
+            }
+        }
+        return true;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    // The request-target as sent, including any query string
+    public String getTarget() {
+        return target;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    // Header names are lower-cased; repeated headers are joined with ", "
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    // Declared Content-Length, or -1 for a chunked body
+    public long getContentLength() {
+        return chunked ? -1 : contentLength;
+    }
+
+    public boolean isBodyComplete() {
+        return state == State.DONE;
+    }
+
+    // Decodes body bytes from src into dst and returns how many were produced. Returns 0
+    // only when src is exhausted or the body is complete (see isBodyComplete).
+    public int readBody(ByteBuffer src, byte[] dst, int offset, int length) throws ParseException {
+        int produced = 0;
+        while (produced < length && state != State.DONE && src.hasRemaining()) {
+            switch (state) {
+                case BODY:
+                case CHUNK_DATA: {
+                    int n = (int) Math.min(Math.min(remaining, src.remaining()), length - produced);
+                    src.get(dst, offset + produced, n);
+                    produced += n;
+                    remaining -= n;
+                    if (remaining == 0) {
+                        state = state == State.BODY ? State.DONE : State.CHUNK_END;
+                    }
+                    break;
+                }
+                case CHUNK_SIZE:
+                    if (readLine(src, MAX_CHUNK_LINE_BYTES)) {
+                        startChunk();
+                    }
+                    break;
+                case CHUNK_END:
+                    if (readLine(src, 2)) {
+                        if (lineLength != 0) {
+                            throw badRequest("Missing CRLF after chunk data");
+                        }
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILERS:
+                    // Trailer fields are read and dropped; a blank line ends the body
+                    if (readLine(src, limits.maxHeaderBytes)) {
+                        if (lineLength == 0) {
+                            state = State.DONE;
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("readBody called before the head was parsed");
+            }
+        }
+        return produced;
+    }
+
+    // Blocking view of the body: decodes from buffer, refilling it from source as needed.
+    // buffer is in read mode and is left holding any bytes that follow the body.
+    public InputStream bodyStream(ByteBuffer buffer, InputStream source) {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (true) {
+                    if (isBodyComplete()) {
+                        return -1;
+                    }
+                    int n = readBody(buffer, b, off, len);
+                    if (n > 0) {
+                        return n;
+                    }
+                    if (!isBodyComplete() && !fill(buffer, source)) {
+                        throw new EOFException("Connection closed in the middle of the request body");
+                    }
+                }
+            }
+        };
+    }
+
+    // Reads more bytes from source into buffer (kept in read mode); false at end of stream
+    public static boolean fill(ByteBuffer buffer, InputStream source) throws IOException {
+        buffer.compact();
+        try {
+            int read = source.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            if (read < 0) {
+                return false;
+            }
+            buffer.position(buffer.position() + read);
+            return true;
+        } finally {
+            buffer.flip();
+        }
+    }
+
+    // RFC 9112 section 2.2: empty lines received before a request-line are ignored, such as
+    // the CRLF some clients send after a POST body
+    private static void skipEmptyLines(ByteBuffer buffer) {
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get(buffer.position());
+            if (b != '\r' && b != '\n') {
+                return;
+            }
+            buffer.get();
+        }
+    }
+
+    // Appends bytes up to and including the next LF to line; true once a full line is held.
+    // The CRLF (or bare LF) is not kept.
+    private boolean readLine(ByteBuffer buffer, int limit) throws ParseException {
+        if (lineComplete) {
+            lineLength = 0;
+            lineComplete = false;
+        }
+        while (buffer.hasRemaining()) {
+            byte b = buffer.get();
+            started = true;
+            if (b == '\n') {
+                if (lineLength > 0 && line[lineLength - 1] == '\r') {
+                    lineLength--;
+                }
+                lineComplete = true;
+                return true;
+            }
+            if (lineLength >= limit) {
+                throw tooLong();
+            }
+            if (lineLength == line.length) {
+                line = Arrays.copyOf(line, line.length * 2);
+            }
+            line[lineLength++] = b;
+        }
+        return false;
+    }
+
+    private ParseException tooLong() {
+        switch (state) {
+            case REQUEST_LINE:
+                return new ParseException(414, "URI Too Long", "Request line too long");
+            case HEADERS:
+                return new ParseException(431, "Request Header Fields Too Large", "Headers too large");
+            default:
+                return badRequest("Chunk framing line too long");
+        }
+    }
+
+    private void parseRequestLine() throws ParseException {
+        String requestLine = new String(line, 0, lineLength, StandardCharsets.ISO_8859_1);
+        int firstSpace = requestLine.indexOf(' ');
+        if (firstSpace <= 0) {
+            throw badRequest("Malformed request line: " + requestLine);
+        }
+        int secondSpace = requestLine.indexOf(' ', firstSpace + 1);
+        method = requestLine.substring(0, firstSpace);
+        if (secondSpace < 0) {
+            // HTTP/0.9-style "GET /path" is treated as HTTP/1.0, as before
+            target = requestLine.substring(firstSpace + 1);
+            version = "HTTP/1.0";
+        } else {
+            target = requestLine.substring(firstSpace + 1, secondSpace);
+            version = requestLine.substring(secondSpace + 1);
+        }
+        if (target.isEmpty() || target.indexOf(' ') >= 0) {
+            throw badRequest("Malformed request line: " + requestLine);
+        }
+    }
+
+    private void parseHeaderLine() throws ParseException {
+        if (headers.size() >= limits.maxHeaderCount) {
+            throw new ParseException(431, "Request Header Fields Too Large", "Too many headers");
+        }
+        if (line[0] == ' ' || line[0] == '\t') {
+            throw badRequest("Obsolete header line folding");
+        }
+        int colon = -1;
+        for (int i = 0; i < lineLength; i++) {
+            if (line[i] == ':') {
+                colon = i;
+                break;
+            }
+        }
+        if (colon <= 0 || line[colon - 1] == ' ' || line[colon - 1] == '\t') {
+            throw badRequest("Malformed header line");
+        }
+
+        char[] name = new char[colon];
+        for (int i = 0; i < colon; i++) {
+            int c = line[i] & 0xff;
+            name[i] = (char) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c);
+        }
+        String value = new String(line, colon + 1, lineLength - colon - 1, StandardCharsets.ISO_8859_1).trim();
+        headers.merge(new String(name), value, (first, second) -> first + ", " + second);
+    }
+
+    // Decides how the body is framed; requests carrying both framings are refused because
+    // disagreeing parsers in front of the server could read them differently
+    private void startBody() throws ParseException {
+        String transferEncoding = headers.get("transfer-encoding");
+        String length = headers.get("content-length");
+        if (transferEncoding != null) {
+            if (length != null) {
+                throw badRequest("Both Transfer-Encoding and Content-Length");
+            }
+            if (!transferEncoding.equalsIgnoreCase("chunked")) {
+                throw new ParseException(501, "Not Implemented", "Unsupported transfer coding: " + transferEncoding);
+            }
+            chunked = true;
+            state = State.CHUNK_SIZE;
+            return;
+        }
+
+        contentLength = length == null ? 0 : parseDecimal(length);
+        if (contentLength > limits.maxBodyBytes) {
+            throw payloadTooLarge();
+        }
+        remaining = contentLength;
+        state = contentLength == 0 ? State.DONE : State.BODY;
+    }
+
+    private void startChunk() throws ParseException {
+        long size = 0;
+        int digits = 0;
+        for (int i = 0; i < lineLength && line[i] != ';'; i++) {
+            int digit = Character.digit(line[i], 16);
+            if (digit < 0) {
+                if (line[i] == ' ' || line[i] == '\t') {
+                    continue;
+                }
+                throw badRequest("Invalid chunk size");
+            }
+            size = size * 16 + digit;
+            if (++digits > 15) {
+                throw payloadTooLarge();
+            }
+        }
+        if (digits == 0) {
+            throw badRequest("Missing chunk size");
+        }
+        if (size == 0) {
+            state = State.TRAILERS;
+            return;
+        }
+        bodyBytes += size;
+        if (bodyBytes > limits.maxBodyBytes) {
+            throw payloadTooLarge();
+        }
+        remaining = size;
+        state = State.CHUNK_DATA;
+    }
+
+    private static long parseDecimal(String value) throws ParseException {
+        if (value.isEmpty() || value.length() > 18) {
+            throw badRequest("Invalid Content-Length");
+        }
+        long result = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                throw badRequest("Invalid Content-Length");
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private ParseException payloadTooLarge() {
+        return new ParseException(413, "Payload Too Large", "Body exceeds " + limits.maxBodyBytes + " bytes");
+    }
+
+    private static ParseException badRequest(String message) {
+        return new ParseException(400, "Bad Request", message);
+    }
+}
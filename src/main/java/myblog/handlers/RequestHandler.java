@@ -1,8 +1,11 @@
 package myblog.handlers;
 
-import java.io.PrintWriter;
 import java.io.IOException;
+import java.io.InputStream;
 
+// A route handler. It writes its response through the ResponseWriter it is given (already
+// set up for keep-alive and content negotiation) and reads request state such as headers,
+// session and route match from the connection it runs on.
 public interface RequestHandler {
-    void handle(PrintWriter out, String body) throws IOException;
-} 
\ No newline at end of file
+    void handle(WebServerHandler connection, ResponseWriter response, InputStream body) throws IOException;
+}
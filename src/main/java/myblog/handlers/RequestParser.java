@@ -1,11 +1,18 @@
 package myblog.handlers;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 
 public class RequestParser {
+    // Form bodies are small; the request parser's body limit bounds how much is read here
+    public static Map<String, String> parseFormData(InputStream body) throws IOException {
+        return parseFormData(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
     public static Map<String, String> parseFormData(String body) throws UnsupportedEncodingException {
         Map<String, String> params = new HashMap<>();
         String[] pairs = body.split("&");
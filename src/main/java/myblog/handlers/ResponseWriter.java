@@ -1,59 +1,484 @@
 package myblog.handlers;
 
-import java.io.PrintWriter;
+import myblog.templates.TemplateWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
-
+// Writes one HTTP response as bytes. The head is assembled in a pooled direct buffer from
+// pre-encoded status lines and header names, and goes out together with the body in a
+// single (gathering) write. Bodies of compressible types are gzip- or deflate-encoded
+// when the request's Accept-Encoding allows it.
 public class ResponseWriter {
-    private final PrintWriter out;
+    // An output that sends static file bodies itself, after the bytes written to it so far,
+    // instead of having them copied in: the non-blocking server's response buffer, which
+    // sends them once the socket is writable
+    public interface DeferredBodyOutput {
+        // Takes over file, which it must close once sent or abandoned
+        void appendFile(FileChannel file, long position, long count) throws IOException;
+
+        // body is cached and never modified, so it can be sent from where it is
+        void appendShared(byte[] body, int offset, int length) throws IOException;
+    }
+
+    private static final String CRLF = "\r\n";
+    private static final byte[] CRLF_BYTES = ascii(CRLF);
+    private static final byte[] CONNECTION_CLOSE = ascii("Connection: close" + CRLF);
+    private static final byte[] CONTENT_TYPE = ascii("Content-Type: ");
+    private static final byte[] CONTENT_LENGTH = ascii("Content-Length: ");
+    private static final byte[] VARY_ACCEPT_ENCODING = ascii("Vary: Accept-Encoding" + CRLF);
+    private static final byte[] CONTENT_ENCODING_GZIP = ascii("Content-Encoding: gzip" + CRLF);
+    private static final byte[] CONTENT_ENCODING_DEFLATE = ascii("Content-Encoding: deflate" + CRLF);
+    // Status lines for the standard reason phrases are encoded once; any other text is
+    // encoded per response, so a caller's own wording is never reused for another's
+    private static final Map<Integer, String> REASON_PHRASES = Map.ofEntries(
+        Map.entry(200, "OK"),
+        Map.entry(201, "Created"),
+        Map.entry(204, "No Content"),
+        Map.entry(206, "Partial Content"),
+        Map.entry(301, "Moved Permanently"),
+        Map.entry(302, "Found"),
+        Map.entry(303, "See Other"),
+        Map.entry(304, "Not Modified"),
+        Map.entry(400, "Bad Request"),
+        Map.entry(401, "Unauthorized"),
+        Map.entry(403, "Forbidden"),
+        Map.entry(404, "Not Found"),
+        Map.entry(405, "Method Not Allowed"),
+        Map.entry(408, "Request Timeout"),
+        Map.entry(413, "Content Too Large"),
+        Map.entry(414, "URI Too Long"),
+        Map.entry(416, "Range Not Satisfiable"),
+        Map.entry(429, "Too Many Requests"),
+        Map.entry(431, "Request Header Fields Too Large"),
+        Map.entry(500, "Internal Server Error"),
+        Map.entry(501, "Not Implemented"),
+        Map.entry(503, "Service Unavailable"));
+    private static final Map<Integer, byte[]> STATUS_LINES = new HashMap<>();
+
+    static {
+        REASON_PHRASES.forEach((code, text) -> STATUS_LINES.put(code, ascii("HTTP/1.1 " + code + " " + text + CRLF)));
+    }
+
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final Queue<ByteBuffer> BUFFER_POOL = new ConcurrentLinkedQueue<>();
+
+    private static volatile boolean compressionEnabled = true;
+    private static volatile int minCompressBytes = 1024;
 
-    public ResponseWriter(PrintWriter out) {
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private byte[] connectionHeaders = CONNECTION_CLOSE;
+    private String extraHeaders = "";
+    private String contentEncoding;
+    private int status;
+    private long bytesWritten;
+
+    public ResponseWriter(OutputStream out) {
+        this(out, null);
+    }
+
+    // channel, when the socket has one, is written to directly: heads and bodies go out in
+    // one gathering write and file bodies via FileChannel.transferTo (sendfile)
+    public ResponseWriter(OutputStream out, WritableByteChannel channel) {
         this.out = out;
+        this.channel = channel != null ? channel : Channels.newChannel(out);
     }
 
-    public void sendJson(int statusCode, String statusText, boolean success, String message) {
-        String content = String.format("{\"success\": %b, \"message\": \"%s\"}", 
-            success, message.replace("\"", "\\\""));
-        sendContent(statusCode, statusText, "application/json", content);
+    // Turns on-the-fly compression of dynamic responses on or off; called once at startup
+    public static void configureCompression(boolean enabled, int minBytes) {
+        compressionEnabled = enabled;
+        minCompressBytes = minBytes;
     }
 
-    public void sendJsonWithRedirect(boolean success, String redirect, String message) {
-        String content = String.format("{\"success\": %b, \"redirect\": \"%s\", \"message\": \"%s\"}", 
-            success, redirect, message.replace("\"", "\\\""));
-        sendContent(200, "OK", "application/json", content);
+    static boolean isCompressionEnabled() {
+        return compressionEnabled;
     }
 
-    public void sendRedirect(String location) {
-        out.println("HTTP/1.1 303 See Other");
-        out.println("Location: " + location);
-        out.println();
-        out.flush();
+    // Whether a body of this type and size is worth compressing
+    static boolean isCompressible(String contentType, long length) {
+        if (!compressionEnabled || length < minCompressBytes) {
+            return false;
+        }
+        return contentType.startsWith("text/") || contentType.contains("json")
+            || contentType.contains("javascript") || contentType.contains("xml") || contentType.contains("svg");
     }
 
-    public void sendContent(int statusCode, String statusText, String contentType, String content) {
-        out.println(String.format("HTTP/1.1 %d %s", statusCode, statusText));
-        out.println("Content-Type: " + contentType + "; charset=UTF-8");
-        out.println("Content-Length: " + content.getBytes(StandardCharsets.UTF_8).length);
-        out.println();
-        out.println(content);
-        out.flush();
+    // Advertise a persistent connection instead of the default "Connection: close"
+    public void keepAlive(int timeoutSeconds, int maxRequests) {
+        connectionHeaders = ascii("Connection: keep-alive" + CRLF
+            + "Keep-Alive: timeout=" + timeoutSeconds + ", max=" + maxRequests + CRLF);
+    }
+
+    // Adds a header (e.g. Set-Cookie) to the response this writer sends next
+    public void addHeader(String name, String value) {
+        extraHeaders += name + ": " + value + CRLF;
+    }
+
+    // Picks the response coding from the request's Accept-Encoding header
+    public void acceptEncoding(String acceptEncoding) {
+        contentEncoding = negotiate(acceptEncoding);
+    }
+
+    public boolean acceptsGzip() {
+        return "gzip".equals(contentEncoding);
+    }
+
+    // Status code of the response sent through this writer, or 0 if none was sent yet
+    public int getStatus() {
+        return status;
+    }
+
+    // Bytes put on the wire for the response, head included
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void sendJson(int statusCode, String statusText, boolean success, String message) throws IOException {
+        JsonWriter json = JsonWriter.acquire();
+        try {
+            json.beginObject()
+                .name("success").value(success)
+                .name("message").value(message)
+                .endObject();
+            sendJson(statusCode, statusText, json);
+        } finally {
+            JsonWriter.release(json);
+        }
+    }
+
+    public void sendJsonWithRedirect(boolean success, String redirect, String message) throws IOException {
+        JsonWriter json = JsonWriter.acquire();
+        try {
+            json.beginObject()
+                .name("success").value(success)
+                .name("redirect").value(redirect)
+                .name("message").value(message)
+                .endObject();
+            sendJson(200, "OK", json);
+        } finally {
+            JsonWriter.release(json);
+        }
+    }
+
+    // Sends a document built with JsonWriter; its bytes go out without being copied to a String
+    public void sendJson(int statusCode, String statusText, JsonWriter json) throws IOException {
+        sendBody(statusCode, statusText, "application/json; charset=UTF-8", json.buffer(), json.size());
+    }
+
+    // Sends a page rendered from a template, likewise without a String copy
+    public void sendHtml(int statusCode, String statusText, TemplateWriter page) throws IOException {
+        sendBody(statusCode, statusText, "text/html; charset=UTF-8", page.buffer(), page.size());
+    }
+
+    public void sendRedirect(String location) throws IOException {
+        ByteBuffer head = acquireBuffer();
+        try {
+            putStatusLine(head, 303, "See Other");
+            status = 303;
+            putAscii(head, "Location: " + location + CRLF);
+            head.put(CONTENT_LENGTH).put((byte) '0').put(CRLF_BYTES);
+            finishHead(head);
+            write(head, null, 0, 0);
+        } finally {
+            releaseBuffer(head);
+        }
+    }
+
+    // content is encoded once; Content-Length is the exact size of what is written, so a
+    // kept-alive connection never sees stray bytes after the body
+    public void sendContent(int statusCode, String statusText, String contentType, String content)
+            throws IOException {
+        byte[] body = content.getBytes(StandardCharsets.UTF_8);
+        sendBody(statusCode, statusText, contentType + "; charset=UTF-8", body, body.length);
+    }
+
+    // fullType is the complete Content-Type value; body[0, length) is sent, compressed if
+    // the client accepts it
+    private void sendBody(int statusCode, String statusText, String fullType, byte[] body, int length)
+            throws IOException {
+        boolean compress = contentEncoding != null && isCompressible(fullType, length);
+        if (compress) {
+            body = compress(body, length, contentEncoding);
+            length = body.length;
+        }
+
+        ByteBuffer head = acquireBuffer();
+        try {
+            putStatusLine(head, statusCode, statusText);
+            status = statusCode;
+            head.put(CONTENT_TYPE);
+            putAscii(head, fullType);
+            head.put(CRLF_BYTES);
+            if (compress) {
+                head.put(contentEncoding.equals("gzip") ? CONTENT_ENCODING_GZIP : CONTENT_ENCODING_DEFLATE);
+                head.put(VARY_ACCEPT_ENCODING);
+            }
+            head.put(CONTENT_LENGTH);
+            putAscii(head, Integer.toString(length));
+            head.put(CRLF_BYTES);
+            finishHead(head);
+            write(head, body, 0, length);
+        } finally {
+            releaseBuffer(head);
+        }
     }
 
-    // Common error response methods
-    public void send404NotFound() {
-        sendContent(404, "Not Found", "text/html", 
+    // head holds the status line and entity headers, each CRLF-terminated; the connection
+    // headers and the blank line are appended here. body may be null (e.g. for 304).
+    public void sendEncoded(byte[] head, byte[] body) throws IOException {
+        sendEncoded(head, body, 0, body == null ? 0 : body.length);
+    }
+
+    // body is a cached representation that is never modified once built
+    public void sendEncoded(byte[] head, byte[] body, int offset, int length) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            buffer.put(head);
+            status = statusOf(head);
+            finishHead(buffer);
+            if (body != null && length > buffer.remaining() && out instanceof DeferredBodyOutput) {
+                write(buffer, null, 0, 0);
+                ((DeferredBodyOutput) out).appendShared(body, offset, length);
+                bytesWritten += length;
+            } else {
+                write(buffer, body, offset, length);
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    // Streams count bytes of the file starting at position after the encoded head. The file
+    // is opened first, so one that has gone missing fails before anything is sent.
+    public void sendFile(byte[] head, Path path, long position, long count) throws IOException {
+        FileChannel file = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = acquireBuffer();
+            try {
+                buffer.put(head);
+                status = statusOf(head);
+                finishHead(buffer);
+                write(buffer, null, 0, 0);
+            } finally {
+                releaseBuffer(buffer);
+            }
+            if (out instanceof DeferredBodyOutput) {
+                ((DeferredBodyOutput) out).appendFile(file, position, count);
+                file = null;
+                bytesWritten += count;
+                return;
+            }
+            long end = position + count;
+            while (position < end) {
+                long sent = file.transferTo(position, end - position, channel);
+                if (sent <= 0) {
+                    throw new IOException("File shrank while it was being sent");
+                }
+                position += sent;
+                bytesWritten += sent;
+            }
+            out.flush();
+        } finally {
+            if (file != null) {
+                file.close();
+            }
+        }
+    }
+
+    // Common error response methods. Messages may quote the request, such as a malformed
+    // request line, so they are escaped before going into the page.
+    public void send404NotFound() throws IOException {
+        sendContent(404, "Not Found", "text/html",
             "<html><body><h1>404 Not Found</h1><p>The requested resource was not found on this server.</p></body></html>");
     }
 
-    public void send400BadRequest(String message) {
+    public void send400BadRequest(String message) throws IOException {
         sendContent(400, "Bad Request", "text/html",
-            String.format("<html><body><h1>Error</h1><p>%s</p></body></html>", message));
+            String.format("<html><body><h1>Error</h1><p>%s</p></body></html>", escapeHtml(message)));
     }
 
-    public void send500InternalError(String message) {
+    public void send500InternalError(String message) throws IOException {
         sendContent(500, "Internal Server Error", "text/html",
-            String.format("<html><body><h1>500 Internal Server Error</h1><p>%s</p></body></html>", message));
+            String.format("<html><body><h1>500 Internal Server Error</h1><p>%s</p></body></html>",
+                escapeHtml(message)));
     }
 
+    // For protocol errors such as 413 or 431 that have no dedicated method
+    public void sendError(int statusCode, String statusText, String message) throws IOException {
+        sendContent(statusCode, statusText, "text/html",
+            String.format("<html><body><h1>%d %s</h1><p>%s</p></body></html>", statusCode, statusText,
+                escapeHtml(message)));
+    }
 
-} 
\ No newline at end of file
+    public void send503ServiceUnavailable() throws IOException {
+        sendContent(503, "Service Unavailable", "text/html",
+            "<html><body><h1>503 Service Unavailable</h1><p>The server is busy. Please try again shortly.</p></body></html>");
+    }
+
+    // JSON like the login and register replies, so their scripts can show the message
+    public void send429TooManyRequests(long retryAfterSeconds) throws IOException {
+        addHeader("Retry-After", Long.toString(retryAfterSeconds));
+        sendJson(429, "Too Many Requests", false, "Too many attempts. Please try again later.");
+    }
+
+    // JSON 503 for a login or registration the server had no capacity for right now
+    public void sendJson503(long retryAfterSeconds, String message) throws IOException {
+        addHeader("Retry-After", Long.toString(retryAfterSeconds));
+        sendJson(503, "Service Unavailable", false, message);
+    }
+
+    private void finishHead(ByteBuffer head) {
+        if (!extraHeaders.isEmpty()) {
+            putAscii(head, extraHeaders);
+        }
+        head.put(connectionHeaders);
+        head.put(CRLF_BYTES);
+    }
+
+    // Small bodies are copied in behind the head so the whole response is one buffer;
+    // larger ones are written alongside it with a gathering write
+    private void write(ByteBuffer head, byte[] body, int offset, int length) throws IOException {
+        bytesWritten += head.position() + (body == null ? 0 : length);
+        if (body == null || length <= head.remaining()) {
+            if (body != null) {
+                head.put(body, offset, length);
+            }
+            head.flip();
+            while (head.hasRemaining()) {
+                channel.write(head);
+            }
+        } else {
+            head.flip();
+            ByteBuffer content = ByteBuffer.wrap(body, offset, length);
+            if (channel instanceof GatheringByteChannel) {
+                ByteBuffer[] parts = {head, content};
+                while (content.hasRemaining()) {
+                    ((GatheringByteChannel) channel).write(parts);
+                }
+            } else {
+                while (head.hasRemaining()) {
+                    channel.write(head);
+                }
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+            }
+        }
+        out.flush();
+    }
+
+    // Pre-encoded heads start with "HTTP/1.1 NNN "
+    private static int statusOf(byte[] head) {
+        return (head[9] - '0') * 100 + (head[10] - '0') * 10 + (head[11] - '0');
+    }
+
+    private static void putStatusLine(ByteBuffer head, int statusCode, String statusText) {
+        if (statusText.equals(REASON_PHRASES.get(statusCode))) {
+            head.put(STATUS_LINES.get(statusCode));
+            return;
+        }
+        putAscii(head, "HTTP/1.1 " + statusCode + " " + statusText);
+        head.put(CRLF_BYTES);
+    }
+
+    // Values are header text we produced ourselves; anything outside Latin-1 becomes '?'
+    private static void putAscii(ByteBuffer buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            buffer.put(c < 256 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = BUFFER_POOL.poll();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (BUFFER_POOL.size() < MAX_POOLED_BUFFERS) {
+            BUFFER_POOL.offer(buffer);
+        }
+    }
+
+    // gzip is preferred over deflate; q=0 rules a coding out
+    static String negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || !compressionEnabled) {
+            return null;
+        }
+        boolean gzip = false;
+        boolean deflate = false;
+        for (String part : acceptEncoding.split(",")) {
+            int semicolon = part.indexOf(';');
+            String coding = (semicolon < 0 ? part : part.substring(0, semicolon)).trim().toLowerCase();
+            boolean allowed = semicolon < 0 || !isZeroQuality(part.substring(semicolon + 1));
+            if (coding.equals("gzip") || coding.equals("x-gzip") || coding.equals("*")) {
+                gzip |= allowed;
+            } else if (coding.equals("deflate")) {
+                deflate |= allowed;
+            }
+        }
+        return gzip ? "gzip" : deflate ? "deflate" : null;
+    }
+
+    private static boolean isZeroQuality(String parameters) {
+        String q = parameters.trim();
+        if (!q.startsWith("q=")) {
+            return false;
+        }
+        try {
+            return Double.parseDouble(q.substring(2).trim()) == 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static byte[] compress(byte[] data, int length, String encoding) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(length / 2 + 64);
+        try (OutputStream compressor = encoding.equals("gzip")
+                ? new GZIPOutputStream(bytes)
+                : new DeflaterOutputStream(bytes)) {
+            compressor.write(data, 0, length);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static String escapeHtml(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder escaped = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&': escaped.append("&amp;"); break;
+                case '<': escaped.append("&lt;"); break;
+                case '>': escaped.append("&gt;"); break;
+                case '"': escaped.append("&quot;"); break;
+                case '\'': escaped.append("&#39;"); break;
+                default: escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static byte[] ascii(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+}
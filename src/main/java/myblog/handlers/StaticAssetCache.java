@@ -0,0 +1,359 @@
+package myblog.handlers;
+
+import myblog.assets.AssetManifest;
+import myblog.metrics.Counter;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Keeps static files in memory as bytes together with their pre-encoded response headers.
+// Entries are evicted least-recently-used once the memory budget is exceeded, files larger
+// than maxEntryBytes are never cached (they are streamed from disk instead), and a
+// WatchService drops entries whose file changes. When the root is built by AssetPipeline,
+// fingerprinted files are marked immutable and a file's .gz sibling is used as its gzip
+// variant instead of compressing it here.
+public class StaticAssetCache {
+    private static final String CRLF = "\r\n";
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+    // Fingerprinted names change with their content, so the browser never needs to ask again;
+    // anything else is revalidated with its ETag so a new build is picked up at once
+    private static final String CACHE_IMMUTABLE = "public, max-age=31536000, immutable";
+    private static final String CACHE_REVALIDATE = "no-cache";
+    // Read by TemplateCache from the same root
+    private static final String TEMPLATES = "templates";
+
+    private static final String LOOKUPS = "myblog_static_cache_lookups_total";
+    private static final String LOOKUPS_HELP = "Static file lookups by cache outcome";
+    private static final Counter HITS = MetricsRegistry.global().counter(LOOKUPS, LOOKUPS_HELP, "result", "hit");
+    private static final Counter MISSES = MetricsRegistry.global().counter(LOOKUPS, LOOKUPS_HELP, "result", "miss");
+    private static final Histogram READ_TIME = MetricsRegistry.global()
+        .histogram("myblog_static_file_read_duration_seconds", "Time to load a static file from disk on a cache miss");
+    private static final String GZIP_VARIANTS = "myblog_static_gzip_variants_total";
+    private static final String GZIP_VARIANTS_HELP = "Gzip variants of static files loaded, by where they came from";
+    private static final Counter PRECOMPRESSED =
+        MetricsRegistry.global().counter(GZIP_VARIANTS, GZIP_VARIANTS_HELP, "source", "build");
+    private static final Counter COMPRESSED_HERE =
+        MetricsRegistry.global().counter(GZIP_VARIANTS, GZIP_VARIANTS_HELP, "source", "runtime");
+
+    static class Entry {
+        final Path file;
+        final byte[] body;  // null when the file is too large to keep in memory
+        final long length;
+        final String contentType;
+        final String etag;
+        final long lastModifiedSeconds;
+        final byte[] okHeaders;
+        final byte[] notModifiedHeaders;
+        // Precomputed gzip variant, only for compressible files where it saves space
+        final byte[] gzipBody;
+        final String gzipEtag;
+        final byte[] gzipOkHeaders;
+        final byte[] gzipNotModifiedHeaders;
+        private final String validators;
+
+        Entry(Path file, byte[] body, long length, String contentType, String etag, long lastModifiedMillis,
+                String cacheControl, byte[] gzipBody) {
+            this.file = file;
+            this.body = body;
+            this.length = length;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModifiedSeconds = lastModifiedMillis / 1000;
+            this.gzipBody = gzipBody;
+
+            String lastModified = HTTP_DATE.format(
+                ZonedDateTime.ofInstant(Instant.ofEpochSecond(lastModifiedSeconds), ZoneOffset.UTC));
+            String vary = gzipBody != null ? "Vary: Accept-Encoding" + CRLF : "";
+            String caching = "Cache-Control: " + cacheControl + CRLF;
+            this.validators = "ETag: " + etag + CRLF + "Last-Modified: " + lastModified + CRLF + caching + vary;
+            this.okHeaders = ("HTTP/1.1 200 OK" + CRLF
+                + "Content-Type: " + contentType + CRLF
+                + "Content-Length: " + length + CRLF
+                + "Accept-Ranges: bytes" + CRLF
+                + validators).getBytes(StandardCharsets.ISO_8859_1);
+            this.notModifiedHeaders = ("HTTP/1.1 304 Not Modified" + CRLF
+                + validators).getBytes(StandardCharsets.ISO_8859_1);
+
+            if (gzipBody == null) {
+                this.gzipEtag = null;
+                this.gzipOkHeaders = null;
+                this.gzipNotModifiedHeaders = null;
+            } else {
+                // The encoded variant is a different representation, so it gets its own ETag
+                this.gzipEtag = etag.substring(0, etag.length() - 1) + "-gz\"";
+                String gzipValidators = "ETag: " + gzipEtag + CRLF + "Last-Modified: " + lastModified + CRLF
+                    + caching + vary;
+                this.gzipOkHeaders = ("HTTP/1.1 200 OK" + CRLF
+                    + "Content-Type: " + contentType + CRLF
+                    + "Content-Encoding: gzip" + CRLF
+                    + "Content-Length: " + gzipBody.length + CRLF
+                    + gzipValidators).getBytes(StandardCharsets.ISO_8859_1);
+                this.gzipNotModifiedHeaders = ("HTTP/1.1 304 Not Modified" + CRLF
+                    + gzipValidators).getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+
+        // Bytes held in memory for this entry
+        long size() {
+            return (body == null ? 0 : body.length) + (gzipBody == null ? 0 : gzipBody.length);
+        }
+
+        byte[] partialHeaders(long start, long end) {
+            return ("HTTP/1.1 206 Partial Content" + CRLF
+                + "Content-Type: " + contentType + CRLF
+                + "Content-Length: " + (end - start + 1) + CRLF
+                + "Content-Range: bytes " + start + "-" + end + "/" + length + CRLF
+                + validators).getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        byte[] unsatisfiableHeaders() {
+            return ("HTTP/1.1 416 Range Not Satisfiable" + CRLF
+                + "Content-Length: 0" + CRLF
+                + "Content-Range: bytes */" + length + CRLF).getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        // If-None-Match wins over If-Modified-Since when both are present (RFC 9110 13.2.2).
+        // currentEtag is the ETag of the variant that would be sent.
+        boolean isNotModified(Map<String, String> requestHeaders, String currentEtag) {
+            String ifNoneMatch = requestHeaders.get("if-none-match");
+            if (ifNoneMatch != null) {
+                return ifNoneMatch.trim().equals("*") || ifNoneMatch.contains(currentEtag);
+            }
+            String ifModifiedSince = requestHeaders.get("if-modified-since");
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toEpochSecond();
+                    return lastModifiedSeconds <= since;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
+    }
+
+    private final Path root;
+    private final Path templates;
+    private final AssetManifest manifest;  // null for an unbuilt source directory
+    private final long budgetBytes;
+    private final long maxEntryBytes;
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long usedBytes;
+    // Bumped by every invalidation, so a load that raced with one is not cached
+    private long generation;
+
+    public StaticAssetCache(Path root, AssetManifest manifest, long budgetBytes, long maxEntryBytes) {
+        this.root = root.toAbsolutePath().normalize();
+        this.templates = this.root.resolve(TEMPLATES);
+        this.manifest = manifest;
+        this.budgetBytes = budgetBytes;
+        this.maxEntryBytes = Math.min(maxEntryBytes, budgetBytes);
+    }
+
+    // Resolves a request path under the static root; null if it would escape the root or
+    // names a template, which is only ever sent rendered, or the .gz variant of another file,
+    // which is only sent as that file's gzip encoding
+    Path resolve(String filePath) {
+        Path file = root.resolve(filePath.startsWith("/") ? filePath.substring(1) : filePath).normalize();
+        if (!file.startsWith(root) || file.startsWith(templates) || file.equals(root)) {
+            return null;
+        }
+        String name = file.getFileName().toString();
+        if (name.endsWith(".gz")
+                && Files.isRegularFile(file.resolveSibling(name.substring(0, name.length() - 3)))) {
+            return null;
+        }
+        return file;
+    }
+
+    // Returns the cached entry, loading the file on a miss; throws NoSuchFileException if absent
+    Entry get(Path file, String contentType) throws IOException {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = entries.get(file);
+            if (entry != null) {
+                HITS.increment();
+                return entry;
+            }
+            loadGeneration = generation;
+        }
+        MISSES.increment();
+        long started = System.nanoTime();
+        try {
+            return load(file, contentType, loadGeneration);
+        } finally {
+            READ_TIME.recordSince(started);
+        }
+    }
+
+    private Entry load(Path file, String contentType, long loadGeneration) throws IOException {
+        // Read outside the lock so a slow disk does not hold up hits on other files
+        if (!Files.isRegularFile(file)) {
+            throw new NoSuchFileException(file.toString());
+        }
+        long size = Files.size(file);
+        String relative = root.relativize(file).toString().replace('\\', '/');
+        String cacheControl = manifest != null && manifest.isFingerprinted(relative)
+            ? CACHE_IMMUTABLE
+            : CACHE_REVALIDATE;
+        if (size > maxEntryBytes) {
+            // Streamed from disk on every request; the ETag comes from size and mtime
+            // so the file does not have to be read just to validate it
+            long lastModified = Files.getLastModifiedTime(file).toMillis();
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            return new Entry(file, null, size, contentType, etag, lastModified, cacheControl, null);
+        }
+
+        byte[] body = Files.readAllBytes(file);
+        // Taken after the read, so a write that lands during it leaves Last-Modified no older
+        // than the bytes
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        Entry entry = new Entry(file, body, body.length, contentType, etagOf(body), lastModified, cacheControl,
+            gzipOf(file, lastModified, body, contentType));
+        put(file, entry, loadGeneration);
+        return entry;
+    }
+
+    // The entry is still returned to the caller that read it, but not kept if the watcher
+    // invalidated anything since the read began: the bytes may predate the change, and the
+    // invalidation that would have dropped them has already run
+    private synchronized void put(Path file, Entry entry, long loadGeneration) {
+        if (loadGeneration != generation) {
+            return;
+        }
+        Entry previous = entries.put(file, entry);
+        if (previous != null) {
+            usedBytes -= previous.size();
+        }
+        usedBytes += entry.size();
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            usedBytes -= eldest.next().size();
+            eldest.remove();
+        }
+    }
+
+    public synchronized void invalidate(Path file) {
+        generation++;
+        Entry removed = entries.remove(file);
+        if (removed != null) {
+            usedBytes -= removed.size();
+        }
+    }
+
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+        usedBytes = 0;
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    // Starts a daemon thread that invalidates entries when their files change on disk
+    public void watch() throws IOException {
+        WatchService watcher = root.getFileSystem().newWatchService();
+        Map<WatchKey, Path> directories = new LinkedHashMap<>();
+        registerTree(watcher, root, directories);
+
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    Path directory = directories.get(key);
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                            clear();
+                            continue;
+                        }
+                        Path changed = directory.resolve((Path) event.context());
+                        invalidate(changed);
+                        String name = changed.getFileName().toString();
+                        if (name.endsWith(".gz")) {
+                            invalidate(changed.resolveSibling(name.substring(0, name.length() - 3)));
+                        }
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(changed)) {
+                            registerTree(watcher, changed, directories);
+                        }
+                    }
+                    if (!key.reset()) {
+                        directories.remove(key);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                System.out.println("Static file watcher stopped: " + e.getMessage());
+            }
+        }, "static-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void registerTree(WatchService watcher, Path directory, Map<WatchKey, Path> directories)
+            throws IOException {
+        WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (Path child : children) {
+                registerTree(watcher, child, directories);
+            }
+        }
+    }
+
+    // A build-time variant is taken as is when it is at least as new as the file; the
+    // build only writes one where it is smaller
+    private static byte[] gzipOf(Path file, long lastModified, byte[] body, String contentType) throws IOException {
+        Path precompressed = file.resolveSibling(file.getFileName() + ".gz");
+        if (ResponseWriter.isCompressionEnabled() && Files.isRegularFile(precompressed)
+                && Files.getLastModifiedTime(precompressed).toMillis() >= lastModified) {
+            PRECOMPRESSED.increment();
+            return Files.readAllBytes(precompressed);
+        }
+        if (!ResponseWriter.isCompressible(contentType, body.length)) {
+            return null;
+        }
+        byte[] gzip = ResponseWriter.compress(body, body.length, "gzip");
+        if (gzip.length >= body.length) {
+            return null;
+        }
+        COMPRESSED_HERE.increment();
+        return gzip;
+    }
+
+    private static String etagOf(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder etag = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++) {
+                etag.append(String.format("%02x", digest[i]));
+            }
+            return etag.append('"').toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
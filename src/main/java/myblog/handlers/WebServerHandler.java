@@ -1,130 +1,541 @@
 package myblog.handlers;
 
+import myblog.auth.AuthBackend;
+import myblog.auth.SessionManager;
+import myblog.http2.Http2Connection;
+import myblog.metrics.Counter;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import myblog.router.RateLimiter;
+import myblog.router.RouteMatch;
 import myblog.router.Router;
+import myblog.server.ConnectionExecutor;
+import myblog.services.AccessLog;
+import myblog.templates.TemplateCache;
+import myblog.templates.TemplateWriter;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.util.Collections;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class WebServerHandler implements Runnable {
+    public static final int DEFAULT_KEEP_ALIVE_TIMEOUT = 5;
+    public static final int DEFAULT_KEEP_ALIVE_MAX = 100;
+    // Limits for RateLimiter.Limit.parse: per client address, then per username
+    public static final String DEFAULT_LOGIN_LIMIT_ADDRESS = "30/min:10";
+    public static final String DEFAULT_LOGIN_LIMIT_USERNAME = "10/min:5";
+    public static final String DEFAULT_REGISTER_LIMIT_ADDRESS = "20/h:5";
+    public static final String DEFAULT_REGISTER_LIMIT_USERNAME = "5/h:3";
+    public static final int DEFAULT_RATE_LIMIT_KEYS = 100_000;
+
+    private static volatile RateLimiter loginLimiter = new RateLimiter("login",
+        RateLimiter.Limit.parse(DEFAULT_LOGIN_LIMIT_ADDRESS), RateLimiter.Limit.parse(DEFAULT_LOGIN_LIMIT_USERNAME),
+        DEFAULT_RATE_LIMIT_KEYS);
+    private static volatile RateLimiter registerLimiter = new RateLimiter("register",
+        RateLimiter.Limit.parse(DEFAULT_REGISTER_LIMIT_ADDRESS), RateLimiter.Limit.parse(DEFAULT_REGISTER_LIMIT_USERNAME),
+        DEFAULT_RATE_LIMIT_KEYS);
+    // Route handlers are methods of the per-connection handler, so the table can be built
+    // once and shared; each request gets the instance it runs on
+    private static volatile Router<RequestHandler> router = initializeRouter(loginLimiter, registerLimiter);
+    // Connections being served by run(), so a drain can close the idle ones
+    private static final Set<WebServerHandler> CONNECTIONS = ConcurrentHashMap.newKeySet();
+    private static volatile boolean draining;
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter OPEN_CONNECTIONS =
+        METRICS.gauge("myblog_connections_open", "Client connections currently open");
+    private static final Histogram PARSE_TIME =
+        METRICS.histogram("myblog_http_parse_duration_seconds", "CPU time spent parsing request heads");
+    private static final Histogram MATCH_TIME =
+        METRICS.histogram("myblog_router_match_duration_seconds", "Time spent matching requests to routes");
+
+    static {
+        for (String route : new String[] {"login", "register"}) {
+            METRICS.gaugeFunction("myblog_rate_limit_keys", "Addresses and usernames with a partly used bucket",
+                () -> trackedKeys(route), "route", route);
+            METRICS.counterFunction("myblog_rate_limit_table_full_total",
+                "Requests refused because the bucket table was full", () -> refusedWhenFull(route),
+                "route", route);
+        }
+    }
+
     private final Socket clientSocket;
-    private final Router router;
+    private final SocketAddress remoteAddress;
+    private final int keepAliveTimeout;
+    private final int keepAliveMax;
+
+    // Per-request connection state; a handler instance serves one connection at a time
+    private OutputStream rawOut;
+    private Map<String, String> requestHeaders = Collections.emptyMap();
+    private SessionManager.Session session;
+    private RouteMatch<RequestHandler> match;
+    private boolean keepAlive;
+    private int requestCount;
+    // True while run() is waiting for the first bytes of the next request
+    private volatile boolean idle;
+    // Set once the connection has switched to HTTP/2
+    private volatile Http2Connection http2;
 
     public WebServerHandler(Socket socket) {
+        this(socket, DEFAULT_KEEP_ALIVE_TIMEOUT, DEFAULT_KEEP_ALIVE_MAX);
+    }
+
+    // keepAliveTimeout is the idle time in seconds allowed between requests on one
+    // connection; keepAliveMax caps how many requests it may carry before being closed
+    public WebServerHandler(Socket socket, int keepAliveTimeout, int keepAliveMax) {
         this.clientSocket = socket;
-        this.router = initializeRouter();
+        this.remoteAddress = socket.getRemoteSocketAddress();
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.keepAliveMax = keepAliveMax;
+    }
+
+    // Used for HTTP/2 streams, which only need routing; responses say "Connection: close"
+    public WebServerHandler(SocketAddress remoteAddress) {
+        this(remoteAddress, 0, 0);
+    }
+
+    // Used by the non-blocking server, which owns the socket and decides itself whether the
+    // connection persists; with requestsLeft > 0 the response advertises keep-alive
+    public WebServerHandler(SocketAddress remoteAddress, int keepAliveTimeout, int requestsLeft) {
+        this.clientSocket = null;
+        this.remoteAddress = remoteAddress;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.keepAliveMax = requestsLeft;
+        this.keepAlive = requestsLeft > 0;
     }
 
     @Override
     public void run() {
-        try (
-            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-            PrintWriter out = new PrintWriter(
-                new OutputStreamWriter(clientSocket.getOutputStream(), StandardCharsets.UTF_8),
-                true)
-        ) {
-            handleRequest(in, out);
-            clientSocket.close();
+        OPEN_CONNECTIONS.increment();
+        CONNECTIONS.add(this);
+        try {
+            InputStream in = clientSocket.getInputStream();
+            rawOut = clientSocket.getOutputStream();
+            clientSocket.setSoTimeout(keepAliveTimeout * 1000);
+            // Bytes read past the end of one request stay in the buffer, so pipelined
+            // requests are answered in order, one full response at a time
+            ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_SIZE).flip();
+            if (Http2Connection.isEnabled() && startsWithPreface(buffer, in)) {
+                openHttp2(buffer, in).serve();
+                return;
+            }
+            HttpRequestParser parser = new HttpRequestParser();
+            while (handleRequest(parser, buffer, in)) {
+                // next request on the same connection
+            }
+        } catch (SocketTimeoutException e) {
+            // idle keep-alive connection; nothing to report
         } catch (IOException e) {
+            if (!(draining && clientSocket.isClosed())) {
+                System.out.println("Error handling client request: " + e.getMessage());
+            }
+        } finally {
+            CONNECTIONS.remove(this);
+            OPEN_CONNECTIONS.decrement();
+            try {
+                clientSocket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    // Returns true when the connection should stay open for another request
+    private boolean handleRequest(HttpRequestParser parser, ByteBuffer buffer, InputStream in)
+            throws IOException {
+        parser.reset();
+        requestHeaders = Collections.emptyMap();
+        keepAlive = false;
+        // Only time spent inside the parser counts, not waiting for the client's bytes
+        long parseNanos = 0;
+        try {
+            while (true) {
+                long parseStarted = System.nanoTime();
+                boolean complete = parser.parseHead(buffer);
+                parseNanos += System.nanoTime() - parseStarted;
+                if (complete) {
+                    break;
+                }
+                // idle is set before draining is read, and beginDrain() does the reverse, so
+                // either this connection stops here or the drain closes it while it waits
+                idle = parser.isIdle();
+                if (idle && draining) {
+                    return false;
+                }
+                // Waiting for the next request is not work; the executor slot goes to another
+                // connection meanwhile, and is only taken back if a request arrives
+                if (idle) {
+                    ConnectionExecutor.pauseWork();
+                }
+                if (!HttpRequestParser.fill(buffer, in)) {
+                    // Early return when the client hangs up
+                    if (!parser.isIdle()) {
+                        System.out.println("Connection closed in the middle of a request");
+                    }
+                    return false;
+                }
+                if (idle) {
+                    ConnectionExecutor.resumeWork();
+                }
+                idle = false;
+            }
+        } catch (HttpRequestParser.ParseException e) {
+            ResponseWriter writer = newWriter();
+            writer.sendError(e.statusCode, e.statusText, e.getMessage());
+            AccessLog.record(String.valueOf(remoteAddress), parser.getMethod() != null ? parser.getMethod() : "-",
+                parser.getTarget() != null ? parser.getTarget() : "-", e.statusCode, writer.getBytesWritten(),
+                0, null, null);
+            return false;
+        }
+        PARSE_TIME.record(parseNanos);
+
+        String method = parser.getMethod();
+        String path = parser.getTarget();
+        Map<String, String> headers = parser.getHeaders();
+        requestHeaders = headers;
+
+        requestCount++;
+        keepAlive = wantsKeepAlive(parser.getVersion(), headers.get("connection")) && requestCount < keepAliveMax
+            && !draining;
+
+        if (!parser.isBodyComplete() && "100-continue".equalsIgnoreCase(headers.get("expect"))) {
+            rawOut.write(CONTINUE);
+            rawOut.flush();
+        }
+        InputStream body = parser.bodyStream(buffer, in);
+
+        if (Http2Connection.isEnabled() && Http2Connection.isUpgradeRequest(parser.getVersion(), headers)) {
+            // The upgrade request becomes stream 1, so its body is read before switching
+            byte[] content = body.readAllBytes();
+            openHttp2(buffer, in).serveUpgrade(method, path, headers, content);
+            return false;
+        }
+
+        // Filter out common noise requests; only actual web requests are logged
+        if (isNoiseRequest(path)) {
+            newWriter().send404NotFound();
+        } else {
+            dispatch(method, path, headers, body, rawOut);
+        }
+
+        // Skip whatever the handler left unread so the next request starts where this
+        // body ends; a malformed body after the response has gone out ends the connection
+        try {
+            body.transferTo(OutputStream.nullOutputStream());
+        } catch (HttpRequestParser.ParseException e) {
+            return false;
+        }
+        return keepAlive;
+    }
+
+    // True when the client opened with the HTTP/2 connection preface. Reads only while the
+    // bytes so far match it, so an HTTP/1.1 request is left in the buffer for the parser.
+    private boolean startsWithPreface(ByteBuffer buffer, InputStream in) throws IOException {
+        byte[] preface = Http2Connection.PREFACE;
+        idle = true;
+        try {
+            if (draining) {
+                return false;
+            }
+            while (true) {
+                int available = Math.min(buffer.remaining(), preface.length);
+                for (int i = 0; i < available; i++) {
+                    if (buffer.get(buffer.position() + i) != preface[i]) {
+                        return false;
+                    }
+                }
+                if (available == preface.length) {
+                    return true;
+                }
+                if (!HttpRequestParser.fill(buffer, in)) {
+                    return false;
+                }
+                idle = false;
+            }
+        } finally {
+            idle = false;
+        }
+    }
+
+    // Hands the connection to HTTP/2, starting with any bytes already buffered
+    private Http2Connection openHttp2(ByteBuffer buffer, InputStream in) {
+        InputStream buffered = new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(),
+            buffer.remaining());
+        InputStream input = new BufferedInputStream(new SequenceInputStream(buffered, in), 16 * 1024);
+        http2 = new Http2Connection(clientSocket, input, rawOut, this::dispatchStream);
+        return http2;
+    }
+
+    // Runs one HTTP/2 stream on a handler of its own, as the non-blocking server does
+    private byte[] dispatchStream(String method, String path, Map<String, String> headers, InputStream body) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if (isNoiseRequest(path)) {
+                new ResponseWriter(bytes).send404NotFound();
+            } else {
+                new WebServerHandler(remoteAddress).dispatch(method, path, headers, body, bytes);
+            }
+        } catch (Exception e) {
             System.out.println("Error handling client request: " + e.getMessage());
+            bytes.reset();
+            try {
+                new ResponseWriter(bytes).send500InternalError("An unexpected error occurred");
+            } catch (IOException ignored) {
+                // writing to memory does not fail
+            }
         }
+        return bytes.toByteArray();
     }
 
-    private void handleRequest(BufferedReader in, PrintWriter out) throws IOException {
-        String requestLine = in.readLine();
-        
-        // Early return for null requests
-        if (requestLine == null || requestLine.trim().isEmpty()) {
-            System.out.println("Received empty request - closing connection");
-            return;
+    // For shutdown: connections waiting for their next request are closed now, and the rest
+    // once the response they are working on has been sent
+    public static void beginDrain() {
+        draining = true;
+        for (WebServerHandler handler : CONNECTIONS) {
+            Http2Connection connection = handler.http2;
+            if (connection != null) {
+                connection.shutdownGracefully();
+            } else if (handler.idle) {
+                try {
+                    handler.clientSocket.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
+    }
 
-        String[] requestParts = requestLine.split(" ");
-        // Check for malformed requests
-        if (requestParts.length < 2) {
-            System.out.println("Malformed request: " + requestLine);
-            return;
+    // HTTP/1.1 connections persist unless the client says "close"; HTTP/1.0 only on request
+    public static boolean wantsKeepAlive(String version, String connection) {
+        String tokens = connection == null ? "" : connection.toLowerCase();
+        if (version.equals("HTTP/1.1")) {
+            return !tokens.contains("close");
         }
+        return tokens.contains("keep-alive");
+    }
+
+    // Replaces the limits on /login and /register; either may be null to leave the route
+    // unlimited. Called once at startup before serving requests.
+    public static void configureRateLimits(RateLimiter login, RateLimiter register) {
+        loginLimiter = login;
+        registerLimiter = register;
+        router = initializeRouter(login, register);
+    }
+
+    private static RateLimiter limiterFor(String route) {
+        return route.equals("login") ? loginLimiter : registerLimiter;
+    }
+
+    private static long trackedKeys(String route) {
+        RateLimiter limiter = limiterFor(route);
+        return limiter == null ? 0 : limiter.getTrackedKeys();
+    }
 
-        String method = requestParts[0];
-        String path = requestParts[1];
+    private static long refusedWhenFull(String route) {
+        RateLimiter limiter = limiterFor(route);
+        return limiter == null ? 0 : limiter.getRefusedWhenFull();
+    }
 
-        // Filter out common noise requests
-        if (path.equals("/favicon.ico") || 
+    private ResponseWriter newWriter() {
+        ResponseWriter writer = new ResponseWriter(rawOut, clientSocket != null ? clientSocket.getChannel() : null);
+        if (keepAlive) {
+            writer.keepAlive(keepAliveTimeout, keepAliveMax - requestCount);
+        }
+        writer.acceptEncoding(requestHeaders.get("accept-encoding"));
+        return writer;
+    }
+
+    public static boolean isNoiseRequest(String path) {
+        return path.equals("/favicon.ico") || 
             path.equals("/apple-touch-icon.png") || 
-            path.equals("/apple-touch-icon-precomposed.png")) {
-            ResponseWriter writer = new ResponseWriter(out);
-            writer.send404NotFound();
-            return;
+            path.equals("/apple-touch-icon-precomposed.png");
+    }
+
+    // headers use lower-case names; body yields the decoded request body and may be left
+    // unread; the response is written to out and one access log line is recorded
+    public void dispatch(String method, String path, Map<String, String> headers, InputStream body,
+            OutputStream out) throws IOException {
+        long started = System.nanoTime();
+        this.requestHeaders = headers;
+        this.rawOut = out;
+        SessionManager sessions = AuthenticationHandler.getSessionManager();
+        this.session = sessions.lookup(SessionManager.tokenFromCookieHeader(headers.get("cookie")));
+
+        long matchStarted = System.nanoTime();
+        this.match = router.match(method, path);
+        MATCH_TIME.recordSince(matchStarted);
+        ResponseWriter writer = newWriter();
+        try {
+            if (match != null && match.isAuthenticated() && session == null) {
+                if (method.equals("GET")) {
+                    writer.sendRedirect("/login");
+                } else {
+                    writer.sendJson(401, "Unauthorized", false, "Please log in first");
+                }
+            } else if (match != null) {
+                // The per-address check comes before the handler reads the body, so a
+                // client over its limit costs no form parsing and no backend call
+                if (!addressLimited(writer)) {
+                    match.getHandler().handle(this, writer, body);
+                }
+            } else {
+                writer.send404NotFound();
+            }
+        } finally {
+            long elapsed = System.nanoTime() - started;
+            // A status of 0 means the handler failed before sending anything
+            AccessLog.record(String.valueOf(remoteAddress), method, path, writer.getStatus(),
+                writer.getBytesWritten(), elapsed / 1000, session != null ? session.username : null, headers);
+            recordRequest(method, writer.getStatus(), elapsed);
         }
+    }
 
-        // Only log actual web requests
-        System.out.println("\n====== New Request ======");
-        System.out.println("Method: " + method);
-        System.out.println("Path: " + path);
-        System.out.println("Remote Address: " + clientSocket.getRemoteSocketAddress());
+    // Labelled by route pattern rather than path, and unmatched requests share one series,
+    // so clients cannot create new series by sending arbitrary paths or methods
+    private void recordRequest(String method, int status, long elapsedNanos) {
+        METRICS.histogram("myblog_http_request_duration_seconds", "Time to handle a request, by route",
+            "method", match != null ? method : "other",
+            "route", match != null ? match.getPattern() : "unmatched").record(elapsedNanos);
+        METRICS.counter("myblog_http_responses_total", "Responses sent, by status code",
+            "code", Integer.toString(status)).increment();
+    }
 
-        int contentLength = readHeaders(in);
-        String body = readBody(in, method, contentLength);
-        
-        if (contentLength > 0) {
-            System.out.println("Request Body: " + body);
+    // Both return true after sending a 429 when the route's limit for the key is used up
+    private boolean addressLimited(ResponseWriter writer) throws IOException {
+        RateLimiter limiter = match.getRateLimiter();
+        return limiter != null
+            && rejectIfLimited(writer, limiter, "address", limiter.tryAcquireAddress(clientAddressKey()));
+    }
+
+    private boolean usernameLimited(ResponseWriter writer, String username) throws IOException {
+        RateLimiter limiter = match.getRateLimiter();
+        return limiter != null && !username.isEmpty()
+            && rejectIfLimited(writer, limiter, "username", limiter.tryAcquireUsername(username));
+    }
+
+    private static boolean rejectIfLimited(ResponseWriter writer, RateLimiter limiter, String key, long waitNanos)
+            throws IOException {
+        if (waitNanos == 0) {
+            return false;
         }
-        
-        System.out.println("========================\n");
-        
-        RequestHandler handler = router.getHandler(method, path);
-        if (handler != null) {
-            handler.handle(out, body);
+        METRICS.counter("myblog_rate_limited_total", "Requests refused with 429, by route and key",
+            "route", limiter.getName(), "key", key).increment();
+        writer.send429TooManyRequests((waitNanos + 999_999_999L) / 1_000_000_000L);
+        return true;
+    }
+
+    // A saturated password hasher is the server's problem, not the user's, so it gets a 503
+    private static void sendFailure(ResponseWriter writer, AuthenticationHandler.AuthResult result)
+            throws IOException {
+        if (AuthBackend.BUSY.equals(result.message)) {
+            writer.sendJson503(1, result.message);
         } else {
-            ResponseWriter writer = new ResponseWriter(out);
-            writer.send404NotFound();
+            writer.sendJson(200, "OK", false, result.message);
         }
     }
 
-    private Router initializeRouter() {
-        Router router = new Router();
-        
-        // Add verification endpoint
-        router.addRoute("GET", "/verify", this::handleVerify);
-        
-        // Generic handler for GET requests to serve static files
-        router.addRoute("GET", "*", this::handleStaticFiles);
-        
-        // Add authentication handlers
-        router.addRoute("POST", "/login", this::handleLogin);
-        router.addRoute("POST", "/register", this::handleRegister);
-        
-        return router;
+    // The peer's IP (its /64 for IPv6) without the port; X-Forwarded-For is not trusted, since
+    // any client can set it
+    private String clientAddressKey() {
+        if (remoteAddress instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) remoteAddress;
+            InetAddress ip = address.getAddress();
+            return ip != null ? RateLimiter.addressKey(ip) : address.getHostString();
+        }
+        return String.valueOf(remoteAddress);
     }
 
-    private void handleVerify(PrintWriter out, String body) {
-        ResponseWriter writer = new ResponseWriter(out);
-        String token = router.getQueryParam("token");
-        String username = router.getQueryParam("username");
-        
+    private static Router<RequestHandler> initializeRouter(RateLimiter login, RateLimiter register) {
+        return Router.<RequestHandler>builder()
+            // Add verification endpoint
+            .addRoute("GET", "/verify", WebServerHandler::handleVerify)
+
+            // Prometheus scrape endpoint
+            .addRoute("GET", "/metrics", WebServerHandler::handleMetrics)
+
+            // Generic handler for GET requests to serve static files
+            .addRoute("GET", "*", WebServerHandler::handleStaticFiles)
+
+            // Pages that need a login session
+            .addAuthenticatedRoute("GET", "/mypage", WebServerHandler::handleMyPage)
+            .addAuthenticatedRoute("GET", "/mypage.html", WebServerHandler::handleMyPage)
+
+            // Add authentication handlers
+            .addRoute("POST", "/login", WebServerHandler::handleLogin, login)
+            .addRoute("POST", "/register", WebServerHandler::handleRegister, register)
+            .addRoute("POST", "/logout", WebServerHandler::handleLogout)
+            .build();
+    }
+
+    private void handleVerify(ResponseWriter writer, InputStream body) throws IOException {
+        // The email template percent-encodes both values
+        String token = decodeQueryValue(match.getQueryParam("token"));
+        String username = decodeQueryValue(match.getQueryParam("username"));
+
         if (token == null || username == null) {
-            writer.send400BadRequest("Invalid verification link");
+            sendPage(writer, 400, "Bad Request", "verify.html",
+                Map.of("title", "Verification failed", "message", "Invalid verification link."));
             return;
         }
 
         AuthenticationHandler.AuthResult result = AuthenticationHandler.verifyEmail(username, token);
         if (result.success) {
-            try {
-                writer.sendRedirect("/login?message=" + 
-                    URLEncoder.encode("Email verified successfully! You can now login.", 
-                    StandardCharsets.UTF_8.toString()));
-            } catch (UnsupportedEncodingException e) {
-                writer.send500InternalError("An unexpected error occurred");
-            }
+            sendPage(writer, 200, "OK", "verify.html", Map.of("title", "Email verified",
+                "message", "Thank you, " + username + ". Your email address is verified and you can now log in."));
+        } else if (AuthBackend.BUSY.equals(result.message)) {
+            writer.addHeader("Retry-After", "1");
+            sendPage(writer, 503, "Service Unavailable", "verify.html",
+                Map.of("title", "Please try again", "message", result.message));
         } else {
-            writer.send400BadRequest("Invalid or expired verification link");
+            sendPage(writer, 400, "Bad Request", "verify.html",
+                Map.of("title", "Verification failed", "message", "This verification link is invalid or has expired."));
+        }
+    }
+
+    // null for a missing or malformed value
+    private static String decodeQueryValue(String value) {
+        try {
+            return value == null ? null : URLDecoder.decode(value, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // The route requires a session, so there is always a user to greet
+    private void handleMyPage(ResponseWriter writer, InputStream body) throws IOException {
+        sendPage(writer, 200, "OK", "mypage.html", Map.of("username", session.username));
+    }
+
+    // Rendered pages can be personal, so no cache along the way may keep them
+    private static void sendPage(ResponseWriter writer, int status, String statusText, String template,
+            Map<String, String> values) throws IOException {
+        TemplateWriter page = TemplateWriter.acquire();
+        try {
+            TemplateCache.global().get(template).render(page, values);
+            writer.addHeader("Cache-Control", "no-store");
+            writer.sendHtml(status, statusText, page);
+        } finally {
+            TemplateWriter.release(page);
         }
     }
 
-    private void handleStaticFiles(PrintWriter out, String body) {
-        String path = router.getCurrentPath();
+    private void handleMetrics(ResponseWriter writer, InputStream body) throws IOException {
+        StringBuilder text = new StringBuilder(16 * 1024);
+        METRICS.writeTo(text);
+        writer.sendContent(200, "OK", "text/plain; version=0.0.4", text.toString());
+    }
+
+    private void handleStaticFiles(ResponseWriter writer, InputStream body) throws IOException {
+        String path = match.getPath();
         
         // Default to login.html for root path
         if (path.equals("/")) {
@@ -136,45 +547,49 @@ public class WebServerHandler implements Runnable {
             }
         }
         
-        // Determine content type based on file extension
-        String contentType = "text/plain";  // default
-        if (path.endsWith(".html")) {
-            contentType = "text/html";
-        } else if (path.endsWith(".css")) {
-            contentType = "text/css";
-        } else if (path.endsWith(".js")) {
-            contentType = "application/javascript";
-        }
-        
-        FileHandler.sendFileResponse(new ResponseWriter(out),path,contentType);
+        // Content type is chosen by FileHandler from the file extension
+        FileHandler.sendFileResponse(writer, path, requestHeaders);
     }
 
-    private void handleLogin(PrintWriter out, String body) {
-        ResponseWriter writer = new ResponseWriter(out);
+    private void handleLogin(ResponseWriter writer, InputStream body) throws IOException {
         try {
             Map<String, String> params = RequestParser.parseFormData(body);
             String username = params.getOrDefault("username", "");
             String password = params.getOrDefault("password", "");
+            if (usernameLimited(writer, username)) {
+                return;
+            }
 
             AuthenticationHandler.AuthResult result = AuthenticationHandler.authenticate(username, password);
             if (result.success) {
+                SessionManager sessions = AuthenticationHandler.getSessionManager();
+                writer.addHeader("Set-Cookie", sessions.cookieFor(sessions.create(username)));
                 writer.sendJsonWithRedirect(true, "/mypage", "Login successful");
             } else {
-                writer.sendJson(200, "OK", false, result.message);
+                sendFailure(writer, result);
             }
         } catch (UnsupportedEncodingException e) {
             writer.sendJson(400, "Bad Request", false, "Invalid request encoding");
         }
     }
 
-    private void handleRegister(PrintWriter out, String body) {
-        ResponseWriter writer = new ResponseWriter(out);
+    private void handleLogout(ResponseWriter writer, InputStream body) throws IOException {
+        AuthenticationHandler.getSessionManager()
+            .invalidate(SessionManager.tokenFromCookieHeader(requestHeaders.get("cookie")));
+        writer.addHeader("Set-Cookie", SessionManager.clearingCookie());
+        writer.sendJsonWithRedirect(true, "/login", "Logged out");
+    }
+
+    private void handleRegister(ResponseWriter writer, InputStream body) throws IOException {
         try {
             Map<String, String> params = RequestParser.parseFormData(body);
             String username = params.getOrDefault("username", "");
             String password = params.getOrDefault("password", "");
             String email = params.getOrDefault("email", "");
             String confirmPassword = params.getOrDefault("confirm-password", "");
+            if (usernameLimited(writer, username)) {
+                return;
+            }
 
             if (!password.equals(confirmPassword)) {
                 writer.sendJson(200, "OK", false, "Passwords do not match");
@@ -185,36 +600,10 @@ public class WebServerHandler implements Runnable {
             if (result.success) {
                 writer.sendJsonWithRedirect(true, "/register-confirmation", "こんにちは.");
             } else {
-                writer.sendJson(200, "OK", false, result.message);
+                sendFailure(writer, result);
             }
         } catch (UnsupportedEncodingException e) {
             writer.sendJson(400, "Bad Request", false, "Invalid request encoding");
         }
     }
-
-    private int readHeaders(BufferedReader in) throws IOException {
-        String line;
-        int contentLength = 0;
-        
-        System.out.println("--- Headers ---");
-        while ((line = in.readLine()) != null && !line.isEmpty()) {
-            System.out.println(line);
-            if (line.toLowerCase().startsWith("content-length:")) {
-                contentLength = Integer.parseInt(line.substring(15).trim());
-            }
-        }
-        System.out.println("-------------");
-        return contentLength;
-    }
-
-    private String readBody(BufferedReader in, String method, int contentLength) throws IOException {
-        // Only read body for POST requests with content
-        if (!method.equals("POST") || contentLength == 0) {
-            return "";
-        }
-
-        char[] body = new char[contentLength];
-        in.read(body, 0, contentLength);
-        return new String(body);
-    }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,97 @@
+package myblog.http2;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Decodes HPACK header blocks (RFC 7541) for one connection. Every block the peer sends
+// must be decoded in order, even for streams that are refused, or the dynamic table falls
+// out of step with the peer's encoder.
+final class HpackDecoder {
+    private final HpackTable table;
+    // The SETTINGS_HEADER_TABLE_SIZE we advertise; the peer may not ask for more
+    private final int maxTableSize;
+
+    HpackDecoder(int maxTableSize) {
+        this.table = new HpackTable(maxTableSize);
+        this.maxTableSize = maxTableSize;
+    }
+
+    // Returns {name, value} pairs in the order they were sent
+    List<String[]> decode(byte[] block, int length) throws Http2Exception {
+        List<String[]> fields = new ArrayList<>();
+        int[] position = {0};
+        boolean fieldSeen = false;
+        while (position[0] < length) {
+            int b = block[position[0]] & 0xff;
+            if ((b & 0x80) != 0) {
+                // Indexed field
+                String[] entry = table.get(readInteger(block, length, position, 7));
+                fields.add(new String[] {entry[0], entry[1]});
+                fieldSeen = true;
+            } else if ((b & 0x40) != 0) {
+                // Literal with incremental indexing
+                String[] field = readLiteral(block, length, position, 6);
+                table.add(field[0], field[1]);
+                fields.add(field);
+                fieldSeen = true;
+            } else if ((b & 0x20) != 0) {
+                // Dynamic table size update, only allowed before the first field
+                int size = readInteger(block, length, position, 5);
+                if (fieldSeen || size > maxTableSize) {
+                    throw Http2Exception.compression("Invalid dynamic table size update: " + size);
+                }
+                table.setMaxSize(size);
+            } else {
+                // Literal without indexing (0000) or never indexed (0001)
+                fields.add(readLiteral(block, length, position, 4));
+                fieldSeen = true;
+            }
+        }
+        return fields;
+    }
+
+    private String[] readLiteral(byte[] block, int length, int[] position, int prefixBits) throws Http2Exception {
+        int nameIndex = readInteger(block, length, position, prefixBits);
+        String name = nameIndex == 0 ? readString(block, length, position) : table.get(nameIndex)[0];
+        return new String[] {name, readString(block, length, position)};
+    }
+
+    private static int readInteger(byte[] block, int length, int[] position, int prefixBits) throws Http2Exception {
+        int mask = (1 << prefixBits) - 1;
+        int value = block[position[0]++] & mask;
+        if (value < mask) {
+            return value;
+        }
+        int shift = 0;
+        while (true) {
+            if (position[0] >= length) {
+                throw Http2Exception.compression("Truncated integer");
+            }
+            int b = block[position[0]++] & 0xff;
+            if (shift > 21) {
+                throw Http2Exception.compression("Integer too large");
+            }
+            value += (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static String readString(byte[] block, int length, int[] position) throws Http2Exception {
+        if (position[0] >= length) {
+            throw Http2Exception.compression("Truncated string");
+        }
+        boolean huffman = (block[position[0]] & 0x80) != 0;
+        int size = readInteger(block, length, position, 7);
+        if (size > length - position[0]) {
+            throw Http2Exception.compression("String longer than the header block");
+        }
+        int start = position[0];
+        position[0] += size;
+        return huffman ? Huffman.decode(block, start, size)
+            : new String(block, start, size, StandardCharsets.ISO_8859_1);
+    }
+}
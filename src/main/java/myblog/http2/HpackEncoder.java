@@ -0,0 +1,107 @@
+package myblog.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.Set;
+
+// Encodes response header blocks for one connection. Fields that repeat from response to
+// response (content-type, cache-control, vary, ...) go into the dynamic table, so after the
+// first response they cost a byte or two; values that change every time are sent as
+// literals without indexing so they do not push the useful entries out.
+final class HpackEncoder {
+    private static final Set<String> NEVER_INDEXED = Set.of("set-cookie", "cookie", "authorization");
+    private static final Set<String> NOT_INDEXED = Set.of("content-length", "date", "etag", "last-modified",
+        "expires", "location", "retry-after", "age", "content-range");
+
+    private final HpackTable table;
+    private final int limit;
+    // Smallest and latest size since the last block; -1 when there is nothing to announce
+    private int pendingMinSize = -1;
+    private int pendingSize = -1;
+
+    HpackEncoder(int limit) {
+        this.limit = limit;
+        this.table = new HpackTable(limit);
+    }
+
+    // Applies the peer's SETTINGS_HEADER_TABLE_SIZE, capped at our own limit; announced
+    // at the start of the next block
+    void setMaxTableSize(int peerSize) {
+        int size = Math.min(peerSize, limit);
+        if (size == table.getMaxSize() && pendingSize < 0) {
+            return;
+        }
+        pendingMinSize = pendingMinSize < 0 ? size : Math.min(pendingMinSize, size);
+        pendingSize = size;
+        table.setMaxSize(size);
+    }
+
+    // fields holds lower-case {name, value} pairs, pseudo-headers first
+    void encode(List<String[]> fields, ByteArrayOutputStream out) {
+        if (pendingSize >= 0) {
+            if (pendingMinSize < pendingSize) {
+                writeInteger(out, 0x20, 5, pendingMinSize);
+            }
+            writeInteger(out, 0x20, 5, pendingSize);
+            pendingMinSize = -1;
+            pendingSize = -1;
+        }
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            int index = HpackTable.staticFieldIndex(name, value);
+            if (index == 0 && !NEVER_INDEXED.contains(name)) {
+                index = table.find(name, value, false);
+            }
+            if (index != 0) {
+                writeInteger(out, 0x80, 7, index);
+                continue;
+            }
+            int nameIndex = HpackTable.staticNameIndex(name);
+            if (nameIndex == 0) {
+                nameIndex = table.find(name, value, true);
+            }
+            if (NEVER_INDEXED.contains(name)) {
+                writeInteger(out, 0x10, 4, nameIndex);
+            } else if (NOT_INDEXED.contains(name)
+                    || HpackTable.entrySize(name, value) > table.getMaxSize() / 2) {
+                writeInteger(out, 0x00, 4, nameIndex);
+            } else {
+                writeInteger(out, 0x40, 6, nameIndex);
+                table.add(name, value);
+            }
+            if (nameIndex == 0) {
+                writeString(out, name);
+            }
+            writeString(out, value);
+        }
+    }
+
+    private static void writeInteger(ByteArrayOutputStream out, int pattern, int prefixBits, int value) {
+        int mask = (1 << prefixBits) - 1;
+        if (value < mask) {
+            out.write(pattern | value);
+            return;
+        }
+        out.write(pattern | mask);
+        value -= mask;
+        while (value >= 0x80) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String text) {
+        int huffmanLength = Huffman.encodedLength(text);
+        if (huffmanLength < text.length()) {
+            writeInteger(out, 0x80, 7, huffmanLength);
+            Huffman.encode(text, out);
+        } else {
+            writeInteger(out, 0x00, 7, text.length());
+            for (int i = 0; i < text.length(); i++) {
+                out.write(text.charAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package myblog.http2;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+// HPACK's header tables (RFC 7541, section 2.3): the fixed static table at indexes 1-61
+// followed by a connection's dynamic table, newest entry first. Each entry is charged its
+// name and value length plus 32 bytes against the table size. Not thread-safe; the
+// encoder and the decoder each own one.
+final class HpackTable {
+    static final int STATIC_SIZE = 61;
+    static final int ENTRY_OVERHEAD = 32;
+
+    static final String[][] STATIC = {
+        {":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+        {":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+        {":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+        {":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+        {"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+        {"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+        {"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+        {"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+        {"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+        {"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+        {"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+        {"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+        {"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+        {"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+        {"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+        {"www-authenticate", ""}
+    };
+
+    // First static index for each name, and the index of each exact static name/value pair
+    private static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+    private static final Map<String, Integer> STATIC_FIELDS = new HashMap<>();
+
+    static {
+        for (int i = STATIC.length - 1; i >= 0; i--) {
+            STATIC_NAMES.put(STATIC[i][0], i + 1);
+            if (!STATIC[i][1].isEmpty()) {
+                STATIC_FIELDS.put(STATIC[i][0] + '\0' + STATIC[i][1], i + 1);
+            }
+        }
+    }
+
+    private final ArrayDeque<String[]> entries = new ArrayDeque<>();
+    private int size;
+    private int maxSize;
+
+    HpackTable(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    static int staticNameIndex(String name) {
+        return STATIC_NAMES.getOrDefault(name, 0);
+    }
+
+    static int staticFieldIndex(String name, String value) {
+        return STATIC_FIELDS.getOrDefault(name + '\0' + value, 0);
+    }
+
+    static int entrySize(String name, String value) {
+        return name.length() + value.length() + ENTRY_OVERHEAD;
+    }
+
+    // Returns {name, value} for a 1-based index across both tables
+    String[] get(int index) throws Http2Exception {
+        if (index >= 1 && index <= STATIC_SIZE) {
+            return STATIC[index - 1];
+        }
+        int dynamic = index - STATIC_SIZE - 1;
+        if (index < 1 || dynamic >= entries.size()) {
+            throw Http2Exception.compression("Header table index out of range: " + index);
+        }
+        Iterator<String[]> iterator = entries.iterator();
+        for (int i = 0; i < dynamic; i++) {
+            iterator.next();
+        }
+        return iterator.next();
+    }
+
+    // 1-based index of an exact match in the dynamic table, or of an entry with the name
+    // when nameOnly is set; 0 if there is none
+    int find(String name, String value, boolean nameOnly) {
+        int index = STATIC_SIZE + 1;
+        for (String[] entry : entries) {
+            if (entry[0].equals(name) && (nameOnly || entry[1].equals(value))) {
+                return index;
+            }
+            index++;
+        }
+        return 0;
+    }
+
+    // An entry larger than the whole table empties it and is not added
+    void add(String name, String value) {
+        int entrySize = entrySize(name, value);
+        evictTo(maxSize - entrySize);
+        if (entrySize <= maxSize) {
+            entries.addFirst(new String[] {name, value});
+            size += entrySize;
+        }
+    }
+
+    int getMaxSize() {
+        return maxSize;
+    }
+
+    void setMaxSize(int maxSize) {
+        this.maxSize = maxSize;
+        evictTo(maxSize);
+    }
+
+    private void evictTo(int target) {
+        while (size > Math.max(target, 0) && !entries.isEmpty()) {
+            String[] oldest = entries.removeLast();
+            size -= entrySize(oldest[0], oldest[1]);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package myblog.http2;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+// A response as the route handlers write it for HTTP/1.1, taken apart into HTTP/2 header
+// fields and a body. Connection-level headers have no meaning in HTTP/2 and are dropped.
+final class Http1Response {
+    private static final Set<String> CONNECTION_HEADERS =
+        Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    final List<String[]> fields;
+    final byte[] bytes;
+    final int bodyOffset;
+    final int bodyLength;
+
+    private Http1Response(List<String[]> fields, byte[] bytes, int bodyOffset) {
+        this.fields = fields;
+        this.bytes = bytes;
+        this.bodyOffset = bodyOffset;
+        this.bodyLength = bytes.length - bodyOffset;
+    }
+
+    // The body is whatever follows the head, so HEAD and 304 responses carry none even
+    // though they state a Content-Length
+    static Http1Response parse(byte[] bytes) throws IOException {
+        int headEnd = indexOfBlankLine(bytes);
+        if (headEnd < 0 || headEnd < 12 || bytes[8] != ' ') {
+            throw new IOException("Handler wrote no complete response head");
+        }
+        String head = new String(bytes, 0, headEnd, StandardCharsets.ISO_8859_1);
+        String[] lines = head.split("\r\n");
+        List<String[]> fields = new ArrayList<>(lines.length);
+        fields.add(new String[] {":status", lines[0].substring(9, 12)});
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT);
+            if (!CONNECTION_HEADERS.contains(name)) {
+                fields.add(new String[] {name, lines[i].substring(colon + 1).trim()});
+            }
+        }
+        return new Http1Response(fields, bytes, headEnd + 4);
+    }
+
+    private static int indexOfBlankLine(byte[] bytes) {
+        for (int i = 0; i + 3 < bytes.length; i++) {
+            if (bytes[i] == '\r' && bytes[i + 1] == '\n' && bytes[i + 2] == '\r' && bytes[i + 3] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
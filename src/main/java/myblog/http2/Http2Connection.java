@@ -0,0 +1,954 @@
+package myblog.http2;
+
+import myblog.metrics.Counter;
+import myblog.metrics.MetricsRegistry;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// HTTP/2 over cleartext TCP (RFC 9113), entered either with the connection preface sent
+// straight away ("prior knowledge") or through an HTTP/1.1 "Upgrade: h2c" request. The
+// connection's own thread reads and handles every frame; each request stream then runs on
+// a worker thread through the same route handlers as HTTP/1.1, so one slow response no
+// longer holds up the others on the connection. Response bodies go out as DATA frames
+// within the peer's connection and stream flow-control windows, one frame per stream at a
+// time, so concurrent responses interleave.
+public class Http2Connection {
+    public static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+    // Runs one request and returns the complete response as HTTP/1.1 bytes
+    public interface Dispatcher {
+        byte[] dispatch(String method, String target, Map<String, String> headers, InputStream body);
+    }
+
+    public static class Settings {
+        public int maxConcurrentStreams = 100;
+        public int maxHeaderListSize = 16 * 1024;
+        public long maxBodyBytes = 1024 * 1024;
+        // Threads running request streams, shared by all connections; a stream arriving
+        // while every one is busy is refused with REFUSED_STREAM for the client to retry
+        public int streamWorkers = 64;
+    }
+
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int PRIORITY = 0x2;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int PUSH_PROMISE = 0x5;
+    private static final int PING = 0x6;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int CONTINUATION = 0x9;
+
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int FLAG_PADDED = 0x8;
+    private static final int FLAG_PRIORITY = 0x20;
+
+    private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+    private static final int SETTINGS_ENABLE_PUSH = 0x2;
+    private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+    private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+    private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+    private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+    private static final int DEFAULT_WINDOW = 65_535;
+    private static final int DEFAULT_MAX_FRAME_SIZE = 16_384;
+    private static final int MAX_FRAME_SIZE_LIMIT = 16_777_215;
+    private static final int HEADER_TABLE_SIZE = 4096;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+
+    private static final Set<String> CONNECTION_HEADERS =
+        Set.of("connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade");
+
+    // Shared by all connections; a connection never has more than maxConcurrentStreams here.
+    // Nothing queues: a stream either gets an idle or new thread up to the limit, or is refused.
+    private static volatile ThreadPoolExecutor streamWorkers = newStreamWorkers(new Settings().streamWorkers);
+
+    private static final MetricsRegistry METRICS = MetricsRegistry.global();
+    private static final Counter STREAMS = METRICS.counter("myblog_http2_streams_total", "HTTP/2 request streams opened");
+    private static final Counter RESETS =
+        METRICS.counter("myblog_http2_stream_resets_total", "HTTP/2 streams reset by the server");
+    private static final Counter REFUSED =
+        METRICS.counter("myblog_http2_streams_refused_total", "HTTP/2 streams refused because every worker was busy");
+
+    private static volatile boolean enabled = true;
+    private static volatile Settings settings = new Settings();
+
+    private static class Stream {
+        final int id;
+        // Guarded by windowLock
+        long sendWindow;
+        int receiveWindow = DEFAULT_WINDOW;
+        String method;
+        String target;
+        Map<String, String> headers;
+        long contentLength = -1;
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        // Set on the reading thread once the request is complete
+        boolean remoteClosed;
+        volatile boolean reset;
+
+        Stream(int id, long sendWindow) {
+            this.id = id;
+            this.sendWindow = sendWindow;
+        }
+    }
+
+    private final Socket socket;
+    private final InputStream in;
+    // Frames are written whole under this lock; it also guards the HPACK encoder
+    private final OutputStream out;
+    private final Dispatcher dispatcher;
+    private final Settings limits;
+    private final HpackDecoder decoder = new HpackDecoder(HEADER_TABLE_SIZE);
+    private final HpackEncoder encoder = new HpackEncoder(HEADER_TABLE_SIZE);
+    private final Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+
+    private final Object windowLock = new Object();
+    private long connectionSendWindow = DEFAULT_WINDOW;
+    private int peerInitialWindow = DEFAULT_WINDOW;
+    private int connectionReceiveWindow = DEFAULT_WINDOW;
+    private volatile int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+
+    // Highest stream the peer has opened, and the last one accepted after our GOAWAY
+    private volatile int lastStreamId;
+    private volatile int goAwayStreamId = Integer.MAX_VALUE;
+    private volatile boolean peerGoingAway;
+    private volatile boolean outputShutdown;
+    private volatile boolean closed;
+
+    // A header block still being received in CONTINUATION frames
+    private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+    private int headerStreamId;
+    private boolean headerEndStream;
+
+    // in must start with the client's connection preface; out is the raw socket stream
+    public Http2Connection(Socket socket, InputStream in, OutputStream out, Dispatcher dispatcher) {
+        this.socket = socket;
+        this.in = in;
+        this.out = new BufferedOutputStream(out, DEFAULT_MAX_FRAME_SIZE + 9);
+        this.dispatcher = dispatcher;
+        this.limits = settings;
+    }
+
+    // Called once at startup before serving requests
+    public static void configure(boolean http2Enabled, Settings http2Settings) {
+        enabled = http2Enabled;
+        settings = http2Settings;
+        if (http2Settings.streamWorkers != streamWorkers.getMaximumPoolSize()) {
+            ThreadPoolExecutor previous = streamWorkers;
+            streamWorkers = newStreamWorkers(http2Settings.streamWorkers);
+            previous.shutdown();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    // An HTTP/1.1 request asking to switch to h2c, with a well-formed HTTP2-Settings header
+    public static boolean isUpgradeRequest(String version, Map<String, String> headers) {
+        String upgrade = headers.get("upgrade");
+        String connection = headers.get("connection");
+        if (!version.equals("HTTP/1.1") || upgrade == null || connection == null
+                || !hasToken(upgrade, "h2c") || !hasToken(connection, "upgrade")
+                || !hasToken(connection, "http2-settings")) {
+            return false;
+        }
+        return decodeSettingsHeader(headers.get("http2-settings")) != null;
+    }
+
+    // Prior knowledge: the client opened with the preface
+    public void serve() throws IOException {
+        METRICS.counter("myblog_http2_connections_total", "HTTP/2 connections, by how they started",
+            "mode", "prior-knowledge").increment();
+        run(null, null);
+    }
+
+    // Answers the upgrade request with 101, then serves it as stream 1 while the client
+    // sends its preface; headers are the request's, with lower-case names
+    public void serveUpgrade(String method, String target, Map<String, String> headers, byte[] body)
+            throws IOException {
+        METRICS.counter("myblog_http2_connections_total", "HTTP/2 connections, by how they started",
+            "mode", "upgrade").increment();
+        out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+            .getBytes(StandardCharsets.ISO_8859_1));
+
+        byte[] clientSettings = decodeSettingsHeader(headers.get("http2-settings"));
+        Stream stream = new Stream(1, DEFAULT_WINDOW);
+        stream.method = method;
+        stream.target = target;
+        stream.headers = new HashMap<>(headers);
+        stream.headers.keySet().removeAll(CONNECTION_HEADERS);
+        stream.headers.remove("http2-settings");
+        stream.body.write(body);
+        stream.remoteClosed = true;
+        run(stream, clientSettings);
+    }
+
+    // For shutdown: tells the client that no new streams will be accepted, then closes the
+    // connection once the streams already open have been answered
+    public void shutdownGracefully() {
+        goAwayStreamId = lastStreamId;
+        try {
+            sendGoAway(Http2Exception.NO_ERROR, "");
+        } catch (IOException e) {
+            close();
+            return;
+        }
+        finishIfDrained();
+    }
+
+    private void run(Stream upgraded, byte[] clientSettings) throws IOException {
+        try {
+            writeSettings();
+            if (upgraded != null) {
+                // The HTTP2-Settings header stands in for the client's first SETTINGS frame
+                // and is acknowledged by the 101 itself
+                applySettings(clientSettings);
+                lastStreamId = 1;
+                streams.put(1, upgraded);
+                try {
+                    startStream(upgraded);
+                } catch (Http2Exception e) {
+                    resetStream(e.streamId, e.errorCode);
+                }
+            }
+            readPreface();
+            while (readFrame()) {
+                // next frame
+            }
+        } catch (Http2Exception e) {
+            System.out.println("HTTP/2 connection error: " + e.getMessage());
+            try {
+                sendGoAway(e.errorCode, e.getMessage());
+            } catch (IOException ignored) {
+            }
+        } catch (IOException e) {
+            // A connection we are closing, or one the peer dropped, ends quietly
+            if (!outputShutdown && !closed && !(e instanceof EOFException)) {
+                throw e;
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void readPreface() throws IOException {
+        byte[] preface = new byte[PREFACE.length];
+        readFully(preface);
+        for (int i = 0; i < PREFACE.length; i++) {
+            if (preface[i] != PREFACE[i]) {
+                throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Invalid connection preface");
+            }
+        }
+    }
+
+    // Returns false at the end of the connection
+    private boolean readFrame() throws IOException {
+        int first = readFirstByte();
+        if (first < 0) {
+            return false;
+        }
+        byte[] header = new byte[8];
+        readFully(header);
+        int length = (first << 16) | ((header[0] & 0xff) << 8) | (header[1] & 0xff);
+        int type = header[2] & 0xff;
+        int flags = header[3] & 0xff;
+        int streamId = readInt(header, 4) & 0x7fffffff;
+        if (length > DEFAULT_MAX_FRAME_SIZE) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes");
+        }
+        byte[] payload = new byte[length];
+        readFully(payload);
+
+        if (headerStreamId != 0 && (type != CONTINUATION || streamId != headerStreamId)) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Header block interrupted");
+        }
+        try {
+            handleFrame(type, flags, streamId, payload);
+        } catch (Http2Exception e) {
+            if (e.streamId == 0) {
+                throw e;
+            }
+            resetStream(e.streamId, e.errorCode);
+        }
+        return true;
+    }
+
+    // Waits for the next frame; an idle connection is closed when the socket times out
+    private int readFirstByte() throws IOException {
+        while (true) {
+            try {
+                return in.read();
+            } catch (SocketTimeoutException e) {
+                if (outputShutdown) {
+                    return -1;
+                }
+                if (streams.isEmpty()) {
+                    goAwayStreamId = lastStreamId;
+                    sendGoAway(Http2Exception.NO_ERROR, "idle");
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void readFully(byte[] buffer) throws IOException {
+        if (in.readNBytes(buffer, 0, buffer.length) < buffer.length) {
+            throw new EOFException("Connection closed in the middle of a frame");
+        }
+    }
+
+    private void handleFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        switch (type) {
+            case DATA:
+                onData(flags, streamId, payload);
+                break;
+            case HEADERS:
+                onHeaders(flags, streamId, payload);
+                break;
+            case CONTINUATION:
+                onContinuation(flags, streamId, payload);
+                break;
+            case PRIORITY:
+                // Accepted and ignored: responses are interleaved round-robin
+                requireStream(streamId);
+                if (payload.length != 5) {
+                    throw Http2Exception.stream(streamId, Http2Exception.FRAME_SIZE_ERROR, "PRIORITY of wrong size");
+                }
+                break;
+            case RST_STREAM:
+                onRstStream(streamId, payload);
+                break;
+            case SETTINGS:
+                onSettings(flags, streamId, payload);
+                break;
+            case PING:
+                onPing(flags, streamId, payload);
+                break;
+            case GOAWAY:
+                if (streamId != 0) {
+                    throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "GOAWAY on a stream");
+                }
+                peerGoingAway = true;
+                finishIfDrained();
+                break;
+            case WINDOW_UPDATE:
+                onWindowUpdate(streamId, payload);
+                break;
+            case PUSH_PROMISE:
+                throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Clients cannot push");
+            default:
+                // Unknown frame types are ignored (RFC 9113, section 4.1)
+                break;
+        }
+    }
+
+    private void onData(int flags, int streamId, byte[] payload) throws IOException {
+        requireStream(streamId);
+        synchronized (windowLock) {
+            connectionReceiveWindow -= payload.length;
+            if (connectionReceiveWindow < 0) {
+                throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "Connection window exceeded");
+            }
+            connectionReceiveWindow += payload.length;
+        }
+        // Bodies are buffered in full, within maxBodyBytes, so the data is consumed at once
+        if (payload.length > 0) {
+            sendWindowUpdate(0, payload.length);
+        }
+        Stream stream = streams.get(streamId);
+        if (stream == null || stream.remoteClosed) {
+            throw closedStream(streamId);
+        }
+        int[] range = unpad(flags, streamId, payload);
+        synchronized (windowLock) {
+            stream.receiveWindow -= payload.length;
+            if (stream.receiveWindow < 0) {
+                throw Http2Exception.stream(streamId, Http2Exception.FLOW_CONTROL_ERROR, "Stream window exceeded");
+            }
+        }
+        if (stream.body.size() + (long) range[1] > limits.maxBodyBytes) {
+            rejectStream(stream, "413");
+            return;
+        }
+        stream.body.write(payload, range[0], range[1]);
+        if ((flags & FLAG_END_STREAM) != 0) {
+            stream.remoteClosed = true;
+            startStream(stream);
+        } else if (payload.length > 0) {
+            synchronized (windowLock) {
+                stream.receiveWindow += payload.length;
+            }
+            sendWindowUpdate(streamId, payload.length);
+        }
+    }
+
+    private void onHeaders(int flags, int streamId, byte[] payload) throws IOException {
+        requireStream(streamId);
+        int[] range = unpad(flags, streamId, payload);
+        if ((flags & FLAG_PRIORITY) != 0) {
+            if (range[1] < 5) {
+                throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "HEADERS too short for priority");
+            }
+            range[0] += 5;
+            range[1] -= 5;
+        }
+        headerBlock.reset();
+        headerBlock.write(payload, range[0], range[1]);
+        headerStreamId = streamId;
+        headerEndStream = (flags & FLAG_END_STREAM) != 0;
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            finishHeaderBlock();
+        }
+    }
+
+    private void onContinuation(int flags, int streamId, byte[] payload) throws IOException {
+        if (headerStreamId == 0 || streamId != headerStreamId) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Unexpected CONTINUATION");
+        }
+        // Headers are limited to maxHeaderListSize once decoded; a block far beyond that
+        // is refused before it is held in memory
+        if (headerBlock.size() + payload.length > 4L * limits.maxHeaderListSize + DEFAULT_MAX_FRAME_SIZE) {
+            throw Http2Exception.connection(Http2Exception.ENHANCE_YOUR_CALM, "Header block too large");
+        }
+        headerBlock.write(payload, 0, payload.length);
+        if ((flags & FLAG_END_HEADERS) != 0) {
+            finishHeaderBlock();
+        }
+    }
+
+    private void finishHeaderBlock() throws IOException {
+        int streamId = headerStreamId;
+        headerStreamId = 0;
+        List<String[]> fields = decoder.decode(headerBlock.toByteArray(), headerBlock.size());
+
+        Stream existing = streams.get(streamId);
+        if (existing != null) {
+            // Trailers end the request; their fields are not passed on
+            if (existing.remoteClosed) {
+                throw closedStream(streamId);
+            }
+            if (!headerEndStream) {
+                throw Http2Exception.stream(streamId, Http2Exception.PROTOCOL_ERROR, "Trailers without END_STREAM");
+            }
+            existing.remoteClosed = true;
+            startStream(existing);
+            return;
+        }
+        if (streamId <= lastStreamId) {
+            throw Http2Exception.connection(Http2Exception.STREAM_CLOSED, "HEADERS on closed stream " + streamId);
+        }
+        if ((streamId & 1) == 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Client stream ids must be odd");
+        }
+        lastStreamId = streamId;
+        if (streamId > goAwayStreamId) {
+            return;  // after our GOAWAY new streams are ignored
+        }
+        if (streams.size() >= limits.maxConcurrentStreams) {
+            throw Http2Exception.stream(streamId, Http2Exception.REFUSED_STREAM, "Too many concurrent streams");
+        }
+        Stream stream;
+        synchronized (windowLock) {
+            stream = new Stream(streamId, peerInitialWindow);
+        }
+        long headerListSize = buildRequest(stream, fields);
+        STREAMS.increment();
+        streams.put(streamId, stream);
+        if (headerListSize > limits.maxHeaderListSize) {
+            rejectStream(stream, "431");
+            return;
+        }
+        if (headerEndStream) {
+            stream.remoteClosed = true;
+            startStream(stream);
+        }
+    }
+
+    // Fills in the request from the decoded fields and returns their size as counted
+    // against SETTINGS_MAX_HEADER_LIST_SIZE
+    private static long buildRequest(Stream stream, List<String[]> fields) throws Http2Exception {
+        Map<String, String> headers = new HashMap<>();
+        String scheme = null;
+        String authority = null;
+        boolean regularSeen = false;
+        long size = 0;
+        for (String[] field : fields) {
+            String name = field[0];
+            String value = field[1];
+            size += HpackTable.entrySize(name, value);
+            if (name.startsWith(":")) {
+                if (regularSeen) {
+                    throw malformed(stream, "Pseudo-header after regular headers");
+                }
+                if (name.equals(":method") && stream.method == null) {
+                    stream.method = value;
+                } else if (name.equals(":path") && stream.target == null && !value.isEmpty()) {
+                    stream.target = value;
+                } else if (name.equals(":scheme") && scheme == null) {
+                    scheme = value;
+                } else if (name.equals(":authority") && authority == null) {
+                    authority = value;
+                } else {
+                    throw malformed(stream, "Invalid pseudo-header " + name);
+                }
+                continue;
+            }
+            regularSeen = true;
+            if (!name.equals(name.toLowerCase(Locale.ROOT)) || CONNECTION_HEADERS.contains(name)
+                    || (name.equals("te") && !value.equals("trailers"))) {
+                throw malformed(stream, "Invalid header " + name);
+            }
+            // HTTP/2 clients may split cookies into one field per pair
+            headers.merge(name, value, (first, second) -> first + (name.equals("cookie") ? "; " : ", ") + second);
+        }
+        if (stream.method == null || stream.target == null || scheme == null) {
+            throw malformed(stream, "Missing pseudo-headers");
+        }
+        if (authority != null) {
+            headers.putIfAbsent("host", authority);
+        }
+        String contentLength = headers.get("content-length");
+        if (contentLength != null) {
+            try {
+                stream.contentLength = Long.parseLong(contentLength.trim());
+            } catch (NumberFormatException e) {
+                throw malformed(stream, "Invalid content-length");
+            }
+        }
+        stream.headers = headers;
+        return size;
+    }
+
+    private static Http2Exception malformed(Stream stream, String message) {
+        return Http2Exception.stream(stream.id, Http2Exception.PROTOCOL_ERROR, message);
+    }
+
+    private void onRstStream(int streamId, byte[] payload) throws IOException {
+        requireStream(streamId);
+        if (payload.length != 4) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "RST_STREAM of wrong size");
+        }
+        if (streamId > lastStreamId) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "RST_STREAM on idle stream");
+        }
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            markReset(stream);
+        }
+    }
+
+    private void onSettings(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "SETTINGS on a stream");
+        }
+        if ((flags & FLAG_ACK) != 0) {
+            if (payload.length != 0) {
+                throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS ACK with a payload");
+            }
+            return;
+        }
+        if (payload.length % 6 != 0) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "SETTINGS of wrong size");
+        }
+        applySettings(payload);
+        sendFrame(SETTINGS, FLAG_ACK, 0, new byte[0]);
+    }
+
+    private void applySettings(byte[] payload) throws Http2Exception {
+        for (int i = 0; i + 6 <= payload.length; i += 6) {
+            int id = ((payload[i] & 0xff) << 8) | (payload[i + 1] & 0xff);
+            long value = readInt(payload, i + 2) & 0xffffffffL;
+            switch (id) {
+                case SETTINGS_HEADER_TABLE_SIZE:
+                    synchronized (out) {
+                        encoder.setMaxTableSize((int) Math.min(value, Integer.MAX_VALUE));
+                    }
+                    break;
+                case SETTINGS_ENABLE_PUSH:
+                    if (value > 1) {
+                        throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Invalid ENABLE_PUSH");
+                    }
+                    break;
+                case SETTINGS_INITIAL_WINDOW_SIZE:
+                    if (value > MAX_WINDOW) {
+                        throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "Initial window too large");
+                    }
+                    changeInitialWindow((int) value);
+                    break;
+                case SETTINGS_MAX_FRAME_SIZE:
+                    if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE_LIMIT) {
+                        throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Invalid MAX_FRAME_SIZE");
+                    }
+                    // Frames we send are also bounded by the output buffer
+                    peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+                    break;
+                default:
+                    // MAX_CONCURRENT_STREAMS limits pushes, which we never send; others are unknown
+                    break;
+            }
+        }
+    }
+
+    // A new initial window applies to every open stream, by the difference (RFC 9113, 6.9.2)
+    private void changeInitialWindow(int value) throws Http2Exception {
+        synchronized (windowLock) {
+            long delta = value - (long) peerInitialWindow;
+            peerInitialWindow = value;
+            for (Stream stream : streams.values()) {
+                stream.sendWindow += delta;
+                if (stream.sendWindow > MAX_WINDOW) {
+                    throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "Stream window too large");
+                }
+            }
+            windowLock.notifyAll();
+        }
+    }
+
+    private void onPing(int flags, int streamId, byte[] payload) throws IOException {
+        if (streamId != 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "PING on a stream");
+        }
+        if (payload.length != 8) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "PING of wrong size");
+        }
+        if ((flags & FLAG_ACK) == 0) {
+            sendFrame(PING, FLAG_ACK, 0, payload);
+        }
+    }
+
+    private void onWindowUpdate(int streamId, byte[] payload) throws IOException {
+        if (payload.length != 4) {
+            throw Http2Exception.connection(Http2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE of wrong size");
+        }
+        int increment = readInt(payload, 0) & 0x7fffffff;
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Zero window increment");
+            }
+            throw Http2Exception.stream(streamId, Http2Exception.PROTOCOL_ERROR, "Zero window increment");
+        }
+        synchronized (windowLock) {
+            if (streamId == 0) {
+                connectionSendWindow += increment;
+                if (connectionSendWindow > MAX_WINDOW) {
+                    throw Http2Exception.connection(Http2Exception.FLOW_CONTROL_ERROR, "Connection window too large");
+                }
+            } else {
+                Stream stream = streams.get(streamId);
+                if (stream == null && streamId > lastStreamId) {
+                    throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE on idle stream");
+                }
+                if (stream != null) {
+                    stream.sendWindow += increment;
+                    if (stream.sendWindow > MAX_WINDOW) {
+                        throw Http2Exception.stream(streamId, Http2Exception.FLOW_CONTROL_ERROR, "Stream window too large");
+                    }
+                }
+            }
+            windowLock.notifyAll();
+        }
+    }
+
+    private static void requireStream(int streamId) throws Http2Exception {
+        if (streamId == 0) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Frame needs a stream");
+        }
+    }
+
+    // A stream the peer never opened is a connection error; one already finished only
+    // gets that stream reset
+    private Http2Exception closedStream(int streamId) {
+        if (streamId > lastStreamId) {
+            return Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Frame on idle stream " + streamId);
+        }
+        return Http2Exception.stream(streamId, Http2Exception.STREAM_CLOSED, "Stream " + streamId + " is closed");
+    }
+
+    // Returns {offset, length} of the data between the pad length byte and the padding
+    private static int[] unpad(int flags, int streamId, byte[] payload) throws Http2Exception {
+        if ((flags & FLAG_PADDED) == 0) {
+            return new int[] {0, payload.length};
+        }
+        int padding = payload.length > 0 ? payload[0] & 0xff : 0;
+        if (payload.length == 0 || padding >= payload.length) {
+            throw Http2Exception.connection(Http2Exception.PROTOCOL_ERROR, "Padding exceeds the frame");
+        }
+        return new int[] {1, payload.length - 1 - padding};
+    }
+
+    private void startStream(Stream stream) throws Http2Exception {
+        if (stream.contentLength >= 0 && stream.contentLength != stream.body.size()) {
+            throw malformed(stream, "Body does not match content-length");
+        }
+        try {
+            streamWorkers.execute(() -> runStream(stream));
+        } catch (RejectedExecutionException e) {
+            REFUSED.increment();
+            throw Http2Exception.stream(stream.id, Http2Exception.REFUSED_STREAM, "No worker free for the stream");
+        }
+    }
+
+    private void runStream(Stream stream) {
+        try {
+            byte[] response = dispatcher.dispatch(stream.method, stream.target, stream.headers,
+                new ByteArrayInputStream(stream.body.toByteArray()));
+            sendResponse(stream, Http1Response.parse(response));
+        } catch (IOException e) {
+            if (!stream.reset && !closed) {
+                System.out.println("HTTP/2 stream " + stream.id + " failed: " + e.getMessage());
+                try {
+                    resetStream(stream.id, Http2Exception.INTERNAL_ERROR);
+                } catch (IOException ignored) {
+                }
+            }
+        } finally {
+            streams.remove(stream.id);
+            finishIfDrained();
+        }
+    }
+
+    private void sendResponse(Stream stream, Http1Response response) throws IOException {
+        boolean hasBody = response.bodyLength > 0;
+        synchronized (out) {
+            if (stream.reset || closed) {
+                return;
+            }
+            ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+            encoder.encode(response.fields, block);
+            writeHeaderBlock(stream.id, block.toByteArray(), !hasBody);
+            out.flush();
+        }
+        int offset = response.bodyOffset;
+        int end = offset + response.bodyLength;
+        while (offset < end) {
+            int length = reserveWindow(stream, Math.min(end - offset, peerMaxFrameSize));
+            boolean last = offset + length == end;
+            synchronized (out) {
+                if (stream.reset || closed) {
+                    return;
+                }
+                writeFrame(DATA, last ? FLAG_END_STREAM : 0, stream.id, response.bytes, offset, length);
+                out.flush();
+            }
+            offset += length;
+        }
+    }
+
+    // Early answer with headers only, e.g. 413 before the body has all arrived; a client
+    // still sending is asked to stop with RST_STREAM(NO_ERROR)
+    private void rejectStream(Stream stream, String status) throws IOException {
+        List<String[]> fields = List.of(new String[] {":status", status}, new String[] {"content-length", "0"});
+        synchronized (out) {
+            ByteArrayOutputStream block = new ByteArrayOutputStream(16);
+            encoder.encode(fields, block);
+            writeHeaderBlock(stream.id, block.toByteArray(), true);
+            if (!stream.remoteClosed) {
+                writeFrame(RST_STREAM, 0, stream.id, intBytes(Http2Exception.NO_ERROR), 0, 4);
+            }
+            out.flush();
+        }
+        streams.remove(stream.id);
+        markReset(stream);
+    }
+
+    // Blocks until the connection and the stream both have window, then takes up to wanted bytes of it
+    private int reserveWindow(Stream stream, int wanted) throws IOException {
+        synchronized (windowLock) {
+            try {
+                while (!stream.reset && !closed && (connectionSendWindow <= 0 || stream.sendWindow <= 0)) {
+                    windowLock.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for flow-control window");
+            }
+            if (stream.reset || closed) {
+                throw new IOException("Stream " + stream.id + " closed while sending");
+            }
+            int length = (int) Math.min(wanted, Math.min(connectionSendWindow, stream.sendWindow));
+            connectionSendWindow -= length;
+            stream.sendWindow -= length;
+            return length;
+        }
+    }
+
+    private void resetStream(int streamId, int errorCode) throws IOException {
+        RESETS.increment();
+        sendFrame(RST_STREAM, 0, streamId, intBytes(errorCode));
+        Stream stream = streams.remove(streamId);
+        if (stream != null) {
+            markReset(stream);
+        }
+    }
+
+    private void markReset(Stream stream) {
+        synchronized (windowLock) {
+            stream.reset = true;
+            windowLock.notifyAll();
+        }
+    }
+
+    // After a GOAWAY from either side, the connection ends once no streams are left: our
+    // side is closed first and the client's remaining frames are read until it closes too,
+    // so nothing it sent is answered with a TCP reset that could discard our last responses
+    private void finishIfDrained() {
+        if ((goAwayStreamId != Integer.MAX_VALUE || peerGoingAway) && streams.isEmpty() && !outputShutdown) {
+            synchronized (out) {
+                if (outputShutdown) {
+                    return;
+                }
+                outputShutdown = true;
+                try {
+                    out.flush();
+                    socket.shutdownOutput();
+                } catch (IOException e) {
+                    close();
+                }
+            }
+        }
+    }
+
+    private void writeSettings() throws IOException {
+        byte[] payload = new byte[12];
+        putSetting(payload, 0, SETTINGS_MAX_CONCURRENT_STREAMS, limits.maxConcurrentStreams);
+        putSetting(payload, 6, SETTINGS_MAX_HEADER_LIST_SIZE, limits.maxHeaderListSize);
+        sendFrame(SETTINGS, 0, 0, payload);
+    }
+
+    private void sendGoAway(int errorCode, String debug) throws IOException {
+        byte[] text = debug.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = new byte[8 + text.length];
+        System.arraycopy(intBytes(lastStreamId), 0, payload, 0, 4);
+        System.arraycopy(intBytes(errorCode), 0, payload, 4, 4);
+        System.arraycopy(text, 0, payload, 8, text.length);
+        sendFrame(GOAWAY, 0, 0, payload);
+    }
+
+    private void sendWindowUpdate(int streamId, int increment) throws IOException {
+        sendFrame(WINDOW_UPDATE, 0, streamId, intBytes(increment));
+    }
+
+    private void sendFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        synchronized (out) {
+            if (outputShutdown) {
+                return;
+            }
+            writeFrame(type, flags, streamId, payload, 0, payload.length);
+            out.flush();
+        }
+    }
+
+    // HEADERS followed by as many CONTINUATION frames as the block needs; caller holds out
+    private void writeHeaderBlock(int streamId, byte[] block, boolean endStream) throws IOException {
+        int offset = 0;
+        int type = HEADERS;
+        do {
+            int length = Math.min(block.length - offset, peerMaxFrameSize);
+            boolean last = offset + length == block.length;
+            int flags = (last ? FLAG_END_HEADERS : 0) | (type == HEADERS && endStream ? FLAG_END_STREAM : 0);
+            writeFrame(type, flags, streamId, block, offset, length);
+            offset += length;
+            type = CONTINUATION;
+        } while (offset < block.length);
+    }
+
+    // Caller holds out
+    private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length)
+            throws IOException {
+        byte[] header = {
+            (byte) (length >>> 16), (byte) (length >>> 8), (byte) length, (byte) type, (byte) flags,
+            (byte) (streamId >>> 24), (byte) (streamId >>> 16), (byte) (streamId >>> 8), (byte) streamId
+        };
+        out.write(header);
+        out.write(payload, offset, length);
+    }
+
+    private void close() {
+        synchronized (windowLock) {
+            closed = true;
+            windowLock.notifyAll();
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static void putSetting(byte[] payload, int offset, int id, int value) {
+        payload[offset] = (byte) (id >>> 8);
+        payload[offset + 1] = (byte) id;
+        System.arraycopy(intBytes(value), 0, payload, offset + 2, 4);
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24) | ((bytes[offset + 1] & 0xff) << 16)
+            | ((bytes[offset + 2] & 0xff) << 8) | (bytes[offset + 3] & 0xff);
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+    private static byte[] decodeSettingsHeader(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            byte[] payload = Base64.getUrlDecoder().decode(value.trim());
+            return payload.length % 6 == 0 ? payload : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean hasToken(String header, String token) {
+        for (String part : header.split(",")) {
+            if (part.trim().equalsIgnoreCase(token)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ThreadPoolExecutor newStreamWorkers(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), streamThreads());
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private static java.util.concurrent.ThreadFactory streamThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "h2-stream-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,42 @@
+package myblog.http2;
+
+import java.io.IOException;
+
+// A protocol violation by the peer, with the RFC 9113 error code to report. streamId 0
+// means a connection error (GOAWAY and close); otherwise only that stream is reset.
+public class Http2Exception extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    static final int NO_ERROR = 0x0;
+    static final int PROTOCOL_ERROR = 0x1;
+    static final int INTERNAL_ERROR = 0x2;
+    static final int FLOW_CONTROL_ERROR = 0x3;
+    static final int STREAM_CLOSED = 0x5;
+    static final int FRAME_SIZE_ERROR = 0x6;
+    static final int REFUSED_STREAM = 0x7;
+    static final int CANCEL = 0x8;
+    static final int COMPRESSION_ERROR = 0x9;
+    static final int ENHANCE_YOUR_CALM = 0xb;
+
+    public final int errorCode;
+    public final int streamId;
+
+    Http2Exception(int errorCode, int streamId, String message) {
+        super(message);
+        this.errorCode = errorCode;
+        this.streamId = streamId;
+    }
+
+    static Http2Exception connection(int errorCode, String message) {
+        return new Http2Exception(errorCode, 0, message);
+    }
+
+    static Http2Exception stream(int streamId, int errorCode, String message) {
+        return new Http2Exception(errorCode, streamId, message);
+    }
+
+    // Any HPACK decoding failure leaves the shared table unusable, so it ends the connection
+    static Http2Exception compression(String message) {
+        return new Http2Exception(COMPRESSION_ERROR, 0, message);
+    }
+}
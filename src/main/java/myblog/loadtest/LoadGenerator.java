@@ -0,0 +1,344 @@
+package myblog.loadtest;
+
+import myblog.metrics.Histogram;
+import myblog.server.ServerConfig;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// HTTP load generator for capacity tests against a running server, e.g. one started with
+//   --auth=stub --fake-smtp --rate-limit=false
+// so the whole setup stays on loopback and logins, all from one address, are not refused
+// with 429. Each of --connections threads owns one keep-alive connection and sends a
+// weighted mix of static GETs, /login POSTs and /verify calls.
+//
+// With --rate=N (requests per second, all connections together) it runs open-loop: every
+// request has a scheduled start time, and latency is measured from that time rather than
+// from when it was actually sent. A stalled server therefore shows up as queueing delay in
+// the percentiles instead of quietly lowering the request rate (coordinated omission).
+// Without --rate each connection sends its next request as soon as the previous one is
+// answered, which measures maximum throughput.
+public class LoadGenerator {
+    enum Kind { STATIC, LOGIN, VERIFY }
+
+    public static class Settings {
+        public String host = "127.0.0.1";
+        public int port = 80;
+        public int connections = 16;
+        public int rate;  // 0 = closed loop
+        public int warmupSeconds = 5;
+        public int durationSeconds = 30;
+        public int timeoutMillis = 5000;
+        // Relative weights of STATIC, LOGIN and VERIFY requests
+        public int[] mix = {70, 20, 10};
+        public String[] staticPaths = {"/login.html", "/css/styles.css", "/js/notifications.js"};
+        // Must match the server's --stub-users and --stub-password
+        public int users = 1000;
+        public String password = "secret";
+    }
+
+    // Latencies and outcomes of one request kind, shared by all connection threads
+    private static class Stats {
+        final Histogram latency = new Histogram();
+        final LongAdder errors = new LongAdder();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+
+        void record(int status, long nanos) {
+            latency.record(nanos);
+            statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+        }
+    }
+
+    // One keep-alive client connection
+    private static class Connection {
+        final Socket socket;
+        final OutputStream out;
+        final InputStream in;
+        final byte[] body = new byte[64 * 1024];
+        boolean closed;
+
+        Connection(Settings settings) throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(settings.host, settings.port), settings.timeoutMillis);
+            socket.setSoTimeout(settings.timeoutMillis);
+            out = socket.getOutputStream();
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        }
+
+        // Sends one request and reads the complete response; returns its status code
+        int exchange(byte[] request) throws IOException {
+            out.write(request);
+            out.flush();
+
+            StringBuilder head = new StringBuilder(256);
+            while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Connection closed by server");
+                }
+                head.append((char) b);
+            }
+            int status = Integer.parseInt(head.substring(9, 12));
+            int lengthAt = head.indexOf("Content-Length: ");
+            long remaining = lengthAt < 0 ? 0
+                : Long.parseLong(head.substring(lengthAt + 16, head.indexOf("\r\n", lengthAt)).trim());
+            while (remaining > 0) {
+                int n = in.read(body, 0, (int) Math.min(body.length, remaining));
+                if (n < 0) {
+                    throw new IOException("Response body cut short");
+                }
+                remaining -= n;
+            }
+            // The server ends kept-alive connections after a number of requests
+            closed = head.indexOf("Connection: close") >= 0;
+            return status;
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final Settings settings;
+    private final Map<Kind, Stats> stats = new TreeMap<>();
+    private final int totalWeight;
+    private long measureFrom;
+    private long end;
+
+    public LoadGenerator(Settings settings) {
+        this.settings = settings;
+        for (Kind kind : Kind.values()) {
+            stats.put(kind, new Stats());
+        }
+        int weights = 0;
+        for (int weight : settings.mix) {
+            weights += weight;
+        }
+        if (weights <= 0) {
+            throw new IllegalArgumentException("The request mix needs at least one positive weight");
+        }
+        this.totalWeight = weights;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ServerConfig config = ServerConfig.fromArgs(args);
+        Settings settings = new Settings();
+        settings.host = config.getString("host", settings.host);
+        settings.port = config.getInt("port", settings.port);
+        settings.connections = Math.max(1, config.getInt("connections", settings.connections));
+        settings.rate = config.getInt("rate", settings.rate);
+        settings.warmupSeconds = config.getInt("warmup-s", settings.warmupSeconds);
+        settings.durationSeconds = Math.max(1, config.getInt("duration-s", settings.durationSeconds));
+        settings.timeoutMillis = config.getInt("timeout-ms", settings.timeoutMillis);
+        settings.mix = parseMix(config.getString("mix", "static=70,login=20,verify=10"));
+        String paths = config.getString("static-paths", null);
+        if (paths != null) {
+            settings.staticPaths = paths.split(",");
+        }
+        settings.users = Math.max(1, config.getInt("users", settings.users));
+        settings.password = config.getString("password", settings.password);
+
+        new LoadGenerator(settings).run();
+    }
+
+    // "static=70,login=20,verify=10"; kinds left out get no requests
+    static int[] parseMix(String spec) {
+        int[] weights = new int[Kind.values().length];
+        for (String part : spec.split(",")) {
+            String[] nameWeight = part.trim().split("=", 2);
+            Kind kind = Kind.valueOf(nameWeight[0].trim().toUpperCase());
+            weights[kind.ordinal()] = nameWeight.length == 2 ? Integer.parseInt(nameWeight[1].trim()) : 1;
+        }
+        return weights;
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Load test against " + settings.host + ":" + settings.port + ": "
+            + settings.connections + " connections, "
+            + (settings.rate > 0 ? settings.rate + " req/s open-loop" : "closed-loop") + ", "
+            + settings.warmupSeconds + "s warmup + " + settings.durationSeconds + "s measured");
+
+        long start = System.nanoTime();
+        measureFrom = start + TimeUnit.SECONDS.toNanos(settings.warmupSeconds);
+        end = measureFrom + TimeUnit.SECONDS.toNanos(settings.durationSeconds);
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < settings.connections; i++) {
+            Thread thread = new Thread(() -> runConnection(start), "load-" + (threads.size() + 1));
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        report();
+    }
+
+    private void runConnection(long start) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        // Each connection carries an equal share of the target rate; starts are staggered
+        // so the connections do not all fire at the same instant
+        long interval = settings.rate > 0 ? TimeUnit.SECONDS.toNanos(settings.connections) / settings.rate : 0;
+        long next = start + (interval > 0 ? random.nextLong(interval) : 0);
+        Connection connection = null;
+
+        while (true) {
+            long intended;
+            if (interval > 0) {
+                intended = next;
+                next += interval;
+                if (intended >= end) {
+                    break;
+                }
+                waitUntil(intended);
+            } else {
+                intended = System.nanoTime();
+                if (intended >= end) {
+                    break;
+                }
+            }
+
+            Kind kind = pickKind(random);
+            Stats kindStats = stats.get(kind);
+            try {
+                if (connection == null) {
+                    connection = new Connection(settings);
+                }
+                int status = connection.exchange(requestFor(kind, random));
+                if (intended >= measureFrom) {
+                    kindStats.record(status, System.nanoTime() - intended);
+                }
+                if (connection.closed) {
+                    connection.close();
+                    connection = null;
+                }
+            } catch (IOException | RuntimeException e) {
+                if (intended >= measureFrom) {
+                    kindStats.errors.increment();
+                }
+                if (connection != null) {
+                    connection.close();
+                    connection = null;
+                }
+            }
+        }
+        if (connection != null) {
+            connection.close();
+        }
+    }
+
+    private static void waitUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private Kind pickKind(ThreadLocalRandom random) {
+        int roll = random.nextInt(totalWeight);
+        for (Kind kind : Kind.values()) {
+            roll -= settings.mix[kind.ordinal()];
+            if (roll < 0) {
+                return kind;
+            }
+        }
+        return Kind.STATIC;
+    }
+
+    private byte[] requestFor(Kind kind, ThreadLocalRandom random) {
+        String host = "Host: " + settings.host + "\r\n";
+        String user = "user" + random.nextInt(settings.users);
+        String request;
+        switch (kind) {
+            case LOGIN:
+                String form = "username=" + user + "&password=" + settings.password;
+                request = "POST /login HTTP/1.1\r\n" + host
+                    + "Content-Type: application/x-www-form-urlencoded\r\n"
+                    + "Content-Length: " + form.length() + "\r\n\r\n" + form;
+                break;
+            case VERIFY:
+                // No registration is pending, so these go through the verify route and the
+                // auth backend and are answered 400
+                request = "GET /verify?token=" + Long.toHexString(random.nextLong()) + "&username=" + user
+                    + " HTTP/1.1\r\n" + host + "\r\n";
+                break;
+            default:
+                String path = settings.staticPaths[random.nextInt(settings.staticPaths.length)];
+                request = "GET " + path + " HTTP/1.1\r\n" + host + "Accept-Encoding: gzip\r\n\r\n";
+                break;
+        }
+        return request.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    private void report() {
+        double seconds = settings.durationSeconds;
+        System.out.println();
+        System.out.printf("%-8s %10s %10s %9s %9s %9s %9s %7s  %s%n",
+            "kind", "requests", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors", "statuses");
+        Histogram all = new Histogram();
+        long total = 0;
+        long errors = 0;
+        Map<Integer, Long> allStatuses = new TreeMap<>();
+        for (Map.Entry<Kind, Stats> entry : stats.entrySet()) {
+            Stats kindStats = entry.getValue();
+            long count = kindStats.latency.getCount();
+            if (count == 0 && kindStats.errors.sum() == 0) {
+                continue;
+            }
+            Map<Integer, Long> statuses = new TreeMap<>();
+            kindStats.statuses.forEach((status, n) -> statuses.put(status, n.sum()));
+            statuses.forEach((status, n) -> allStatuses.merge(status, n, Long::sum));
+            printRow(entry.getKey().name().toLowerCase(), kindStats.latency, count, kindStats.errors.sum(),
+                statuses, seconds);
+            total += count;
+            errors += kindStats.errors.sum();
+        }
+        // Bucket counts add up, so the merged histogram gives exact overall percentiles
+        for (Stats kindStats : stats.values()) {
+            all.merge(kindStats.latency);
+        }
+        printRow("total", all, total, errors, allStatuses, seconds);
+
+        if (settings.rate > 0) {
+            double achieved = total / seconds;
+            System.out.printf("%nTarget %d req/s, achieved %.0f req/s%n", settings.rate, achieved);
+            if (achieved < settings.rate * 0.95) {
+                System.out.println("The server did not keep up with the target rate; the percentiles include"
+                    + " the time requests spent waiting to be sent.");
+            }
+        }
+    }
+
+    private static void printRow(String name, Histogram latency, long count, long errors,
+            Map<Integer, Long> statuses, double seconds) {
+        StringBuilder statusText = new StringBuilder();
+        statuses.forEach((status, n) -> statusText.append(status).append('=').append(n).append(' '));
+        System.out.printf("%-8s %10d %10.0f %9.3f %9.3f %9.3f %9.3f %7d  %s%n",
+            name, count, count / seconds,
+            millis(latency.valueAtQuantile(0.5)), millis(latency.valueAtQuantile(0.99)),
+            millis(latency.valueAtQuantile(0.999)), millis(latency.valueAtQuantile(1.0)),
+            errors, statusText.toString().trim());
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
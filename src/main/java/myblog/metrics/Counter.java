@@ -0,0 +1,26 @@
+package myblog.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// A striped counter: LongAdder spreads concurrent increments over per-thread cells, so hot
+// counters do not turn into a contended cache line. Also used for up/down gauges such as
+// open connections, where add(-1) is allowed.
+public final class Counter {
+    private final LongAdder value = new LongAdder();
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void decrement() {
+        value.decrement();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
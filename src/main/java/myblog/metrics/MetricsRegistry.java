@@ -0,0 +1,160 @@
+package myblog.metrics;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+// Named metrics for the /metrics endpoint. Counters, up/down gauges and histograms are looked
+// up (and created on first use) by name plus label pairs, e.g.
+//   histogram("myblog_auth_call_duration_seconds", "...", "operation", "check")
+// Lookups go through ConcurrentHashMap without locking; code on hot paths with fixed labels
+// keeps the returned metric in a field instead. Values owned by other components (queue
+// depth, cache sizes) are registered as functions and only read when scraped.
+public final class MetricsRegistry {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+
+    // Prometheus "le" bucket bounds for exported histograms, in seconds
+    private static final double[] EXPORT_BOUNDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    private static final long[] EXPORT_BOUNDS_NANOS = new long[EXPORT_BOUNDS.length];
+    private static final String[] EXPORT_BOUND_LABELS = new String[EXPORT_BOUNDS.length];
+
+    static {
+        for (int i = 0; i < EXPORT_BOUNDS.length; i++) {
+            EXPORT_BOUNDS_NANOS[i] = Math.round(EXPORT_BOUNDS[i] * 1e9);
+            EXPORT_BOUND_LABELS[i] = BigDecimal.valueOf(EXPORT_BOUNDS[i]).stripTrailingZeros().toPlainString();
+        }
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        // Rendered label set ("" or {name="value",...}) -> Counter, Histogram or supplier
+        final Map<String, Object> children = new ConcurrentHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private final Map<String, Family> families = new ConcurrentHashMap<>();
+
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    public Counter counter(String name, String help, String... labels) {
+        return (Counter) family(name, help, "counter").children.computeIfAbsent(labelKey(labels), k -> new Counter());
+    }
+
+    // An up/down value such as the number of open connections
+    public Counter gauge(String name, String help, String... labels) {
+        return (Counter) family(name, help, "gauge").children.computeIfAbsent(labelKey(labels), k -> new Counter());
+    }
+
+    public Histogram histogram(String name, String help, String... labels) {
+        return (Histogram) family(name, help, "histogram").children.computeIfAbsent(labelKey(labels),
+            k -> new Histogram());
+    }
+
+    // A monotonic count kept elsewhere; registering the same name and labels again replaces it
+    public void counterFunction(String name, String help, LongSupplier value, String... labels) {
+        family(name, help, "counter").children.put(labelKey(labels), value);
+    }
+
+    public void gaugeFunction(String name, String help, DoubleSupplier value, String... labels) {
+        family(name, help, "gauge").children.put(labelKey(labels), value);
+    }
+
+    // Prometheus text exposition format, version 0.0.4; families are sorted by name
+    public void writeTo(StringBuilder out) {
+        for (Map.Entry<String, Family> entry : new TreeMap<>(families).entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> child : new TreeMap<>(family.children).entrySet()) {
+                String labels = child.getKey();
+                Object metric = child.getValue();
+                if (metric instanceof Histogram) {
+                    writeHistogram(out, name, labels, (Histogram) metric);
+                } else {
+                    out.append(name).append(labels).append(' ');
+                    appendValue(out, metric);
+                    out.append('\n');
+                }
+            }
+        }
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException(name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, Histogram histogram) {
+        long[] cumulative = histogram.cumulativeCounts(EXPORT_BOUNDS_NANOS);
+        // Bucket lines need "le" added to the series' own labels
+        String prefix = labels.isEmpty() ? "{" : labels.substring(0, labels.length() - 1) + ",";
+        for (int i = 0; i < EXPORT_BOUNDS.length; i++) {
+            out.append(name).append("_bucket").append(prefix).append("le=\"").append(EXPORT_BOUND_LABELS[i])
+                .append("\"} ").append(cumulative[i]).append('\n');
+        }
+        long count = cumulative[EXPORT_BOUNDS.length];
+        out.append(name).append("_bucket").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n');
+        out.append(name).append("_sum").append(labels).append(' ').append(histogram.getSumNanos() / 1e9).append('\n');
+        out.append(name).append("_count").append(labels).append(' ').append(count).append('\n');
+    }
+
+    private static void appendValue(StringBuilder out, Object metric) {
+        if (metric instanceof Counter) {
+            out.append(((Counter) metric).get());
+        } else if (metric instanceof LongSupplier) {
+            out.append(((LongSupplier) metric).getAsLong());
+        } else {
+            double value = ((DoubleSupplier) metric).getAsDouble();
+            if (value == (long) value) {
+                out.append((long) value);
+            } else {
+                out.append(value);
+            }
+        }
+    }
+
+    // {a="1",b="2"} from alternating name/value arguments, with values escaped
+    private static String labelKey(String[] labels) {
+        if (labels.length == 0) {
+            return "";
+        }
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        StringBuilder key = new StringBuilder(32).append('{');
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    key.append('\\').append(c);
+                } else if (c == '\n') {
+                    key.append("\\n");
+                } else {
+                    key.append(c);
+                }
+            }
+            key.append('"');
+        }
+        return key.append('}').toString();
+    }
+}
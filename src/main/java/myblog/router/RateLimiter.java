@@ -0,0 +1,183 @@
+package myblog.router;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Token-bucket limits for one route, attached to it in the Router: one bucket per client
+// address and one per username. Each bucket is a single timestamp (the generic cell rate
+// algorithm): the time at which it will be full again. Taking a token is one CAS on that
+// timestamp and refill is implicit in comparing it with the clock, so there is no timer
+// per key. Buckets that have refilled completely carry no information and are swept out,
+// at most once a second, by whichever caller comes along next. When the table is full, new
+// keys are refused rather than evicting tracked ones, whose limits would start over.
+public final class RateLimiter {
+    private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    // "count/unit" with an optional ":burst", e.g. "30/min:10"; the burst defaults to count
+    public static final class Limit {
+        final int burst;
+        final long intervalNanos;
+
+        public Limit(int burst, long intervalNanos) {
+            if (burst < 1 || intervalNanos < 1) {
+                throw new IllegalArgumentException("A limit needs a burst and a rate above zero");
+            }
+            this.burst = burst;
+            this.intervalNanos = intervalNanos;
+        }
+
+        // Returns null for "off"
+        public static Limit parse(String spec) {
+            String value = spec.trim().toLowerCase(Locale.ROOT);
+            if (value.equals("off")) {
+                return null;
+            }
+            int slash = value.indexOf('/');
+            int colon = value.indexOf(':');
+            if (slash < 0) {
+                throw new IllegalArgumentException("Expected count/unit[:burst]: " + spec);
+            }
+            int count = Integer.parseInt(value.substring(0, slash));
+            String unit = colon < 0 ? value.substring(slash + 1) : value.substring(slash + 1, colon);
+            int burst = colon < 0 ? count : Integer.parseInt(value.substring(colon + 1));
+            long unitNanos;
+            switch (unit) {
+                case "s": unitNanos = TimeUnit.SECONDS.toNanos(1); break;
+                case "min": unitNanos = TimeUnit.MINUTES.toNanos(1); break;
+                case "h": unitNanos = TimeUnit.HOURS.toNanos(1); break;
+                default: throw new IllegalArgumentException("Unknown time unit (s, min, h): " + spec);
+            }
+            if (count < 1) {
+                throw new IllegalArgumentException("A limit needs a rate above zero: " + spec);
+            }
+            return new Limit(burst, unitNanos / count);
+        }
+    }
+
+    // Buckets for one kind of key
+    private static final class Buckets {
+        final Limit limit;
+        final int maxKeys;
+        final Map<String, AtomicLong> fullAt = new ConcurrentHashMap<>();
+        final AtomicLong nextSweep = new AtomicLong(System.nanoTime());
+        final LongAdder refusedFull = new LongAdder();
+
+        Buckets(Limit limit, int maxKeys) {
+            this.limit = limit;
+            this.maxKeys = maxKeys;
+        }
+
+        long tryAcquire(String key, long now) {
+            sweepIfDue(now);
+            AtomicLong bucket = fullAt.get(key);
+            if (bucket == null) {
+                if (fullAt.size() >= maxKeys) {
+                    // Only reachable when more distinct keys are active at once than the table
+                    // allows, i.e. under attack; letting new keys through untracked would
+                    // lift the limit for anyone who can vary the key
+                    refusedFull.increment();
+                    return limit.intervalNanos;
+                }
+                AtomicLong created = new AtomicLong(now);
+                bucket = fullAt.putIfAbsent(key, created);
+                if (bucket == null) {
+                    bucket = created;
+                }
+            }
+            long tolerance = (limit.burst - 1) * limit.intervalNanos;
+            while (true) {
+                long current = bucket.get();
+                long start = Math.max(current, now);
+                long wait = start - now - tolerance;
+                if (wait > 0) {
+                    return wait;
+                }
+                if (bucket.compareAndSet(current, start + limit.intervalNanos)) {
+                    return 0;
+                }
+            }
+        }
+
+        // Drops buckets that are full again; one caller per interval does the sweep. A request
+        // racing with the removal of its bucket can at worst get one extra token.
+        private void sweepIfDue(long now) {
+            long due = nextSweep.get();
+            if (now - due < 0 || !nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+                return;
+            }
+            Iterator<Map.Entry<String, AtomicLong>> entries = fullAt.entrySet().iterator();
+            while (entries.hasNext()) {
+                if (entries.next().getValue().get() - now <= 0) {
+                    entries.remove();
+                }
+            }
+        }
+    }
+
+    private final String name;
+    private final Buckets perAddress;
+    private final Buckets perUsername;
+
+    // Either limit may be null to leave that kind of key unlimited
+    public RateLimiter(String name, Limit perAddress, Limit perUsername, int maxKeys) {
+        this.name = name;
+        this.perAddress = perAddress != null ? new Buckets(perAddress, maxKeys) : null;
+        this.perUsername = perUsername != null ? new Buckets(perUsername, maxKeys) : null;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // The bucket key for a client address. An IPv6 client typically has a whole /64 to
+    // choose addresses from, so it is keyed by that prefix; IPv4 addresses are kept whole.
+    public static String addressKey(InetAddress address) {
+        if (!(address instanceof Inet6Address)) {
+            return address.getHostAddress();
+        }
+        byte[] bytes = address.getAddress();
+        StringBuilder key = new StringBuilder(24);
+        for (int i = 0; i < 8; i += 2) {
+            key.append(Integer.toHexString((bytes[i] & 0xff) << 8 | bytes[i + 1] & 0xff)).append(':');
+        }
+        return key.append(":/64").toString();
+    }
+
+    // Takes a token for the client address, as given by addressKey(); returns 0 if allowed,
+    // otherwise the number of nanoseconds until the next request would be
+    public long tryAcquireAddress(String address) {
+        return tryAcquireAddress(address, System.nanoTime());
+    }
+
+    // Usernames are compared case-insensitively so "Alice" and "alice" share a bucket
+    public long tryAcquireUsername(String username) {
+        return tryAcquireUsername(username, System.nanoTime());
+    }
+
+    // With the clock (a System.nanoTime() value) passed in, for tests
+    long tryAcquireAddress(String address, long now) {
+        return perAddress == null ? 0 : perAddress.tryAcquire(address, now);
+    }
+
+    long tryAcquireUsername(String username, long now) {
+        return perUsername == null ? 0 : perUsername.tryAcquire(username.trim().toLowerCase(Locale.ROOT), now);
+    }
+
+    // Requests refused because the key table was full
+    public long getRefusedWhenFull() {
+        return (perAddress == null ? 0 : perAddress.refusedFull.sum())
+            + (perUsername == null ? 0 : perUsername.refusedFull.sum());
+    }
+
+    public int getTrackedKeys() {
+        return (perAddress == null ? 0 : perAddress.fullAt.size())
+            + (perUsername == null ? 0 : perUsername.fullAt.size());
+    }
+}
@@ -0,0 +1,83 @@
+package myblog.router;
+
+import java.util.Collections;
+import java.util.Map;
+
+// The result of matching one request against a Router. Immutable and owned by that request,
+// so nothing about it is shared between connections.
+public final class RouteMatch<H> {
+    private final H handler;
+    private final boolean authenticated;
+    private final String pattern;
+    private final RateLimiter limiter;
+    private final String path;
+    private final String query;
+    private final Map<String, String> pathParameters;
+
+    RouteMatch(H handler, boolean authenticated, String pattern, RateLimiter limiter, String path,
+            String query, Map<String, String> pathParameters) {
+        this.handler = handler;
+        this.authenticated = authenticated;
+        this.pattern = pattern;
+        this.limiter = limiter;
+        this.path = path;
+        this.query = query;
+        this.pathParameters = pathParameters.isEmpty() ? Map.of() : Collections.unmodifiableMap(pathParameters);
+    }
+
+    public H getHandler() {
+        return handler;
+    }
+
+    // True when the route was registered with addAuthenticatedRoute
+    public boolean isAuthenticated() {
+        return authenticated;
+    }
+
+    // The pattern the route was registered with, e.g. "/users/{id}"; unlike the path it has
+    // a bounded set of values, so it is what metrics are labelled with
+    public String getPattern() {
+        return pattern;
+    }
+
+    // The route's rate limiter, or null if it has none
+    public RateLimiter getRateLimiter() {
+        return limiter;
+    }
+
+    // The request path without the query string
+    public String getPath() {
+        return path;
+    }
+
+    // Value of a "{name}" segment, or "*" for the remainder matched by a wildcard
+    public String getPathParameter(String name) {
+        return pathParameters.get(name);
+    }
+
+    public Map<String, String> getPathParameters() {
+        return pathParameters;
+    }
+
+    // Scans the raw query string on demand instead of building a map for every request.
+    // Values are returned as sent, without percent-decoding.
+    public String getQueryParam(String name) {
+        if (query == null) {
+            return null;
+        }
+        int start = 0;
+        while (start < query.length()) {
+            int end = query.indexOf('&', start);
+            if (end < 0) {
+                end = query.length();
+            }
+            int equals = query.indexOf('=', start);
+            if (equals > start && equals < end
+                    && equals - start == name.length() && query.startsWith(name, start)) {
+                return query.substring(equals + 1, end);
+            }
+            start = end + 1;
+        }
+        return null;
+    }
+}
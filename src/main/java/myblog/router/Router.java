@@ -1,55 +1,208 @@
 package myblog.router;
 
-import myblog.handlers.RequestHandler;
 import java.util.HashMap;
 import java.util.Map;
 
-public class Router {
-    private final Map<String, Map<String, RequestHandler>> routes = new HashMap<>();
-    private String currentPath;  // Store the current path
-    private Map<String, String> queryParams = new HashMap<>();
-
-    public void addRoute(String method, String path, RequestHandler handler) {
-        routes.computeIfAbsent(method, k -> new HashMap<>()).put(path, handler);
-    }
-
-    public RequestHandler getHandler(String method, String path) {
-        // Parse query parameters
-        queryParams.clear();
-        String[] parts = path.split("\\?", 2);
-        String basePath = parts[0];
-        
-        if (parts.length > 1) {
-            String[] params = parts[1].split("&");
-            for (String param : params) {
-                String[] keyValue = param.split("=", 2);
-                if (keyValue.length == 2) {
-                    queryParams.put(keyValue[0], keyValue[1]);
+// Immutable routing table, built once with a Builder and shared by every connection.
+// Paths are matched segment by segment against a trie: literal segments first, then a
+// "{name}" parameter segment, then a trailing "*" wildcard that takes the rest of the path.
+// The pattern "*" on its own is a catch-all for the method. No regex and no shared state:
+// match() returns a fresh RouteMatch per request. The search itself records nothing;
+// parameters are read off the path afterwards, and only for routes that have any.
+public final class Router<H> {
+    private static final class Route<H> {
+        final H handler;
+        final boolean authenticated;
+        final String pattern;
+        final RateLimiter limiter;
+        // Per path segment, the parameter name or null for a literal; "*" for the wildcard
+        // that takes the rest. null when the route has no parameters at all.
+        final String[] parameterNames;
+
+        Route(H handler, boolean authenticated, String pattern, RateLimiter limiter, String[] parameterNames) {
+            this.handler = handler;
+            this.authenticated = authenticated;
+            this.pattern = pattern;
+            this.limiter = limiter;
+            this.parameterNames = parameterNames;
+        }
+    }
+
+    private static final class Node<H> {
+        final Map<String, Node<H>> literals = new HashMap<>();
+        Node<H> parameter;
+        String parameterName;
+        final Map<String, Route<H>> routes = new HashMap<>();
+        final Map<String, Route<H>> wildcardRoutes = new HashMap<>();
+    }
+
+    public static final class Builder<H> {
+        private final Node<H> root = new Node<>();
+        private boolean built;
+
+        public Builder<H> addRoute(String method, String pattern, H handler) {
+            return add(method, pattern, handler, false, null);
+        }
+
+        // A route whose requests are subject to limiter; null means unlimited
+        public Builder<H> addRoute(String method, String pattern, H handler, RateLimiter limiter) {
+            return add(method, pattern, handler, false, limiter);
+        }
+
+        // Like addRoute, but the handler may only run for requests with a valid login session
+        public Builder<H> addAuthenticatedRoute(String method, String pattern, H handler) {
+            return add(method, pattern, handler, true, null);
+        }
+
+        public Router<H> build() {
+            built = true;
+            return new Router<>(root);
+        }
+
+        private Builder<H> add(String method, String pattern, H handler, boolean authenticated,
+                RateLimiter limiter) {
+            if (built) {
+                throw new IllegalStateException("Router has already been built");
+            }
+            Route<H> route = new Route<>(handler, authenticated, pattern, limiter, parameterNames(pattern));
+            if (pattern.equals("*")) {
+                root.wildcardRoutes.put(method, route);
+                return this;
+            }
+
+            Node<H> node = root;
+            int start = 1;
+            while (start <= pattern.length()) {
+                int end = pattern.indexOf('/', start);
+                if (end < 0) {
+                    end = pattern.length();
+                }
+                String segment = pattern.substring(start, end);
+                if (segment.equals("*")) {
+                    if (end != pattern.length()) {
+                        throw new IllegalArgumentException("'*' must be the last segment: " + pattern);
+                    }
+                    node.wildcardRoutes.put(method, route);
+                    return this;
+                }
+                if (segment.startsWith("{") && segment.endsWith("}")) {
+                    String name = segment.substring(1, segment.length() - 1);
+                    if (node.parameter == null) {
+                        node.parameter = new Node<>();
+                        node.parameterName = name;
+                    } else if (!node.parameterName.equals(name)) {
+                        throw new IllegalArgumentException("Conflicting parameter names at " + pattern);
+                    }
+                    node = node.parameter;
+                } else {
+                    node = node.literals.computeIfAbsent(segment, k -> new Node<>());
                 }
+                start = end + 1;
             }
+            node.routes.put(method, route);
+            return this;
         }
-        
-        currentPath = basePath;
-        Map<String, RequestHandler> methodRoutes = routes.get(method);
-        
-        if (methodRoutes != null) {
-            RequestHandler handler = methodRoutes.get(basePath);
-            if (handler != null) {
-                return handler;
+
+        // A leading "*" is the method catch-all, which has no parameters
+        private static String[] parameterNames(String pattern) {
+            String[] segments = pattern.substring(1).split("/", -1);
+            String[] names = new String[segments.length];
+            boolean any = false;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.equals("*") && i > 0) {
+                    names[i] = "*";
+                    any = true;
+                } else if (segment.startsWith("{") && segment.endsWith("}")) {
+                    names[i] = segment.substring(1, segment.length() - 1);
+                    any = true;
+                }
             }
-            
-            if (method.equals("GET")) {
-                return methodRoutes.get("*");
+            return any ? names : null;
+        }
+    }
+
+    private final Node<H> root;
+
+    private Router(Node<H> root) {
+        this.root = root;
+    }
+
+    public static <H> Builder<H> builder() {
+        return new Builder<>();
+    }
+
+    // target is the request-target as sent, including any query string; returns null
+    // when no route matches
+    public RouteMatch<H> match(String method, String target) {
+        int queryStart = target.indexOf('?');
+        String path = queryStart < 0 ? target : target.substring(0, queryStart);
+        String query = queryStart < 0 ? null : target.substring(queryStart + 1);
+        if (!path.startsWith("/")) {
+            return null;
+        }
+
+        Route<H> route = find(root, method, path, 1);
+        Map<String, String> parameters;
+        if (route != null) {
+            parameters = route.parameterNames == null ? Map.of() : parameters(route.parameterNames, path);
+        } else {
+            route = root.wildcardRoutes.get(method);
+            if (route == null) {
+                return null;
             }
+            parameters = Map.of();
         }
-        return null;
+        return new RouteMatch<>(route.handler, route.authenticated, route.pattern, route.limiter, path, query,
+            parameters);
     }
 
-    public String getCurrentPath() {
-        return currentPath;
+    // The path has one segment per name, up to the wildcard, which takes the remainder
+    private static Map<String, String> parameters(String[] names, String path) {
+        Map<String, String> parameters = new HashMap<>(4);
+        int start = 1;
+        for (String name : names) {
+            if ("*".equals(name)) {
+                parameters.put(name, path.substring(Math.min(start, path.length())));
+                break;
+            }
+            int end = path.indexOf('/', start);
+            if (end < 0) {
+                end = path.length();
+            }
+            if (name != null) {
+                parameters.put(name, path.substring(start, end));
+            }
+            start = end + 1;
+        }
+        return parameters;
     }
 
-    public String getQueryParam(String name) {
-        return queryParams.get(name);
+    // Depth-first with backtracking so a literal dead end can still fall back to a parameter
+    private static <H> Route<H> find(Node<H> node, String method, String path, int start) {
+        if (start > path.length()) {
+            return node.routes.get(method);
+        }
+        int end = path.indexOf('/', start);
+        if (end < 0) {
+            end = path.length();
+        }
+        String segment = path.substring(start, end);
+
+        Node<H> literal = node.literals.get(segment);
+        if (literal != null) {
+            Route<H> route = find(literal, method, path, end + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (node.parameter != null && !segment.isEmpty()) {
+            Route<H> route = find(node.parameter, method, path, end + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+        // The root's wildcard is the method catch-all and is applied last by match()
+        return start == 1 ? null : node.wildcardRoutes.get(method);
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,181 @@
+package myblog.server;
+
+import myblog.metrics.MetricsRegistry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs connection/request tasks with admission control. At most maxInFlight tasks run at
+// once and at most maxQueued more may wait; anything beyond that is refused so the caller
+// can answer 503 straight away instead of piling up threads or memory. A task that blocks
+// on its client rather than doing work, like a keep-alive connection between requests, can
+// hand its running slot back with pauseWork() (see WebServerHandler), so idle connections do
+// not keep busy ones waiting; in pool mode the threads themselves still bound it.
+//
+// Modes (--executor=...):
+//   thread  - a new platform thread per task (the original behaviour, now bounded)
+//   pool    - a fixed pool of maxInFlight platform threads
+//   virtual - a virtual thread per task; needs a Java 21+ runtime, falls back to pool
+public class ConnectionExecutor {
+    // The running slot of the task on this thread, if it is one of ours
+    private static final class Slot {
+        final Semaphore running;
+        boolean held = true;
+
+        Slot(Semaphore running) {
+            this.running = running;
+        }
+    }
+
+    private static final ThreadLocal<Slot> CURRENT = new ThreadLocal<>();
+
+    private final String mode;
+    private final Executor executor;
+    private final Semaphore running;
+    private final int capacity;
+    private final AtomicInteger admitted = new AtomicInteger();
+    private final AtomicInteger rejected = new AtomicInteger();
+
+    public ConnectionExecutor(String mode, int maxInFlight, int maxQueued) {
+        this.running = new Semaphore(maxInFlight);
+        this.capacity = maxInFlight + maxQueued;
+
+        Executor selected = null;
+        if (mode.equals("virtual")) {
+            selected = newVirtualThreadExecutor();
+            if (selected == null) {
+                System.out.println("Virtual threads are not available on Java "
+                    + Runtime.version().feature() + " - using a platform thread pool");
+                mode = "pool";
+            }
+        }
+        if (mode.equals("pool")) {
+            selected = new ThreadPoolExecutor(maxInFlight, maxInFlight, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), NioWebServer.namedThreads("worker-"));
+        } else if (mode.equals("thread")) {
+            selected = task -> new Thread(task).start();
+        } else if (selected == null) {
+            throw new IllegalArgumentException("Unknown executor mode: " + mode);
+        }
+        this.mode = mode;
+        this.executor = selected;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gaugeFunction("myblog_executor_tasks", "Tasks admitted and not yet finished (running or queued)",
+            this::getAdmitted);
+        metrics.gaugeFunction("myblog_executor_running", "Tasks currently running",
+            () -> maxInFlight - running.availablePermits());
+        metrics.counterFunction("myblog_executor_rejected_total", "Tasks refused because the server was saturated",
+            this::getRejected);
+    }
+
+    public static ConnectionExecutor fromConfig(ServerConfig config, String defaultMode) {
+        return new ConnectionExecutor(
+            config.getString("executor", defaultMode),
+            config.getInt("max-in-flight", 256),
+            config.getInt("max-queued", 1024));
+    }
+
+    // Returns false when saturated; the task has not been run and the caller must reject it
+    public boolean submit(Runnable task) {
+        if (admitted.incrementAndGet() > capacity) {
+            admitted.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            executor.execute(() -> runAdmitted(task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            admitted.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    private void runAdmitted(Runnable task) {
+        try {
+            running.acquire();
+        } catch (InterruptedException e) {
+            admitted.decrementAndGet();
+            Thread.currentThread().interrupt();
+            return;
+        }
+        Slot slot = new Slot(running);
+        CURRENT.set(slot);
+        try {
+            task.run();
+        } finally {
+            CURRENT.remove();
+            if (slot.held) {
+                running.release();
+            }
+            admitted.decrementAndGet();
+        }
+    }
+
+    // Gives up the calling task's running slot while it waits on its client; the task stays
+    // admitted. Does nothing outside a task or when the slot is already given up.
+    public static void pauseWork() {
+        Slot slot = CURRENT.get();
+        if (slot != null && slot.held) {
+            slot.held = false;
+            slot.running.release();
+        }
+    }
+
+    // Takes a running slot back before the task does more work, waiting for one if the server
+    // is saturated
+    public static void resumeWork() {
+        Slot slot = CURRENT.get();
+        if (slot != null && !slot.held) {
+            slot.running.acquireUninterruptibly();
+            slot.held = true;
+        }
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public int getAdmitted() {
+        return admitted.get();
+    }
+
+    public int getRejected() {
+        return rejected.get();
+    }
+
+    // Waits until every admitted task has finished; false if some are still running at the
+    // deadline (a System.nanoTime() value). Polls, since it is only used while shutting down.
+    public boolean awaitIdle(long deadlineNanos) throws InterruptedException {
+        while (admitted.get() > 0) {
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+        return true;
+    }
+
+    public void shutdown() {
+        if (executor instanceof ExecutorService) {
+            ((ExecutorService) executor).shutdown();
+        }
+    }
+
+    // Looked up reflectively so the build can keep targeting Java 17
+    private static Executor newVirtualThreadExecutor() {
+        try {
+            return (Executor) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
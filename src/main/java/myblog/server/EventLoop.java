@@ -0,0 +1,190 @@
+package myblog.server;
+
+import myblog.metrics.Counter;
+import myblog.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+// One selector thread: owns a set of connections and only ever does non-blocking work.
+// Other threads talk to it through execute(), which queues a task and wakes the selector.
+// The selector also wakes on a timer to close connections that have stalled; see
+// NioConnection.hasTimedOut.
+public class EventLoop implements Runnable {
+    private static final Counter TIMED_OUT = MetricsRegistry.global().counter(
+        "myblog_connections_timed_out_total", "Connections closed for sending nothing or too slowly");
+
+    private final Selector selector;
+    private final ConnectionExecutor workers;
+    private final long idleTimeoutNanos;
+    private final long requestTimeoutNanos;
+    private final int keepAliveTimeoutSeconds;
+    private final int keepAliveMax;
+    private final long sweepIntervalMillis;
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+    // Written only on the loop thread
+    private volatile int connections;
+    private boolean draining;
+
+    // Timeouts in milliseconds, 0 for none. keepAliveMax caps the requests one connection may
+    // carry; 1 closes every connection after its response.
+    public EventLoop(ConnectionExecutor workers, long idleTimeoutMillis, long requestTimeoutMillis, int keepAliveMax)
+            throws IOException {
+        this.selector = Selector.open();
+        this.workers = workers;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.requestTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(requestTimeoutMillis);
+        // Advertised in Keep-Alive: the idle timeout is what closes a connection between requests
+        this.keepAliveTimeoutSeconds = (int) (idleTimeoutMillis / 1000);
+        this.keepAliveMax = keepAliveMax;
+        // Connections are closed at most a quarter of the timeout late, and never later than a second
+        long shortest = Math.min(idleTimeoutMillis > 0 ? idleTimeoutMillis : Long.MAX_VALUE,
+            requestTimeoutMillis > 0 ? requestTimeoutMillis : Long.MAX_VALUE);
+        this.sweepIntervalMillis = shortest == Long.MAX_VALUE ? 0 : Math.max(10, Math.min(1000, shortest / 4));
+    }
+
+    public void register(SocketChannel channel) {
+        execute(() -> {
+            if (draining) {
+                closeQuietly(channel);
+                return;
+            }
+            try {
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(this, key, channel));
+                connections++;
+            } catch (IOException e) {
+                System.out.println("Error registering client: " + e.getMessage());
+                closeQuietly(channel);
+            }
+        });
+    }
+
+    public void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    ConnectionExecutor workers() {
+        return workers;
+    }
+
+    int getKeepAliveTimeoutSeconds() {
+        return keepAliveTimeoutSeconds;
+    }
+
+    int getKeepAliveMax() {
+        return keepAliveMax;
+    }
+
+    // Loop thread only
+    boolean isDraining() {
+        return draining;
+    }
+
+    void connectionClosed() {
+        connections--;
+    }
+
+    public int getConnectionCount() {
+        return connections;
+    }
+
+    // For shutdown: closes connections that have not sent any of a request yet; the others
+    // close once their response is written instead of waiting for another request
+    public void beginDrain() {
+        execute(() -> {
+            draining = true;
+            for (SelectionKey key : selector.keys()) {
+                NioConnection connection = (NioConnection) key.attachment();
+                if (connection != null && connection.isIdle()) {
+                    connection.close();
+                }
+            }
+        });
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long lastSweep = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(sweepIntervalMillis);
+                runTasks();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (!key.isValid() || connection == null) {
+                        continue;
+                    }
+                    try {
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        connection.close();
+                    }
+                }
+                long now = System.nanoTime();
+                if (sweepIntervalMillis > 0 && now - lastSweep >= TimeUnit.MILLISECONDS.toNanos(sweepIntervalMillis)) {
+                    closeTimedOut(now);
+                    lastSweep = now;
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            System.out.println("Event loop stopped: " + e.getMessage());
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void closeTimedOut(long now) {
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (key.isValid() && connection != null
+                    && connection.hasTimedOut(now, idleTimeoutNanos, requestTimeoutNanos)) {
+                TIMED_OUT.increment();
+                connection.close();
+            }
+        }
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    static void closeQuietly(java.nio.channels.Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
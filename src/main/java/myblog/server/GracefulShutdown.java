@@ -0,0 +1,60 @@
+package myblog.server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// Ordered shutdown, run from a JVM shutdown hook on SIGTERM, SIGINT or System.exit: stop
+// accepting, let in-flight requests finish, then flush background work. The steps share
+// one deadline, so a deploy tool's kill timeout can be respected. A step that fails is
+// reported and the rest still run; once the deadline has passed they no longer wait.
+public class GracefulShutdown {
+    public interface Step {
+        // deadlineNanos is a System.nanoTime() value
+        void run(long deadlineNanos) throws Exception;
+    }
+
+    private static class Entry {
+        final String name;
+        final Step step;
+
+        Entry(String name, Step step) {
+            this.name = name;
+            this.step = step;
+        }
+    }
+
+    private final List<Entry> steps = new ArrayList<>();
+    private final long timeoutNanos;
+
+    public GracefulShutdown(long timeoutMillis) {
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    // Steps run in the order they were added; add them all before install()
+    public GracefulShutdown add(String name, Step step) {
+        steps.add(new Entry(name, step));
+        return this;
+    }
+
+    public void install() {
+        Runtime.getRuntime().addShutdownHook(new Thread(this::run, "shutdown"));
+    }
+
+    private void run() {
+        long started = System.nanoTime();
+        long deadline = started + timeoutNanos;
+        System.out.println("Shutting down (up to " + TimeUnit.NANOSECONDS.toSeconds(timeoutNanos) + " s)");
+        for (Entry entry : steps) {
+            long stepStarted = System.nanoTime();
+            try {
+                entry.step.run(deadline);
+                System.out.println("Shutdown: " + entry.name + " done in "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stepStarted) + " ms");
+            } catch (Exception e) {
+                System.out.println("Shutdown: " + entry.name + " failed: " + e.getMessage());
+            }
+        }
+        System.out.println("Shutdown complete in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms");
+    }
+}
@@ -0,0 +1,54 @@
+package myblog.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+
+// Where and how the server listens. With reusePort (SO_REUSEPORT) several processes can
+// bind the same address and port at once, and the kernel spreads new connections over
+// them, so a new instance can start accepting before the old one stops and drains.
+public class ListenSettings {
+    // null listens on all interfaces
+    public String bindAddress;
+    public int port = 80;
+    // Connections the kernel may hold before they are accepted; the JVM default is only 50
+    public int backlog = 1024;
+    public boolean reusePort;
+
+    // --bind, --port, --backlog and --reuse-port
+    public static ListenSettings fromConfig(ServerConfig config) {
+        ListenSettings settings = new ListenSettings();
+        settings.bindAddress = config.getString("bind", null);
+        settings.port = config.getInt("port", settings.port);
+        settings.backlog = config.getInt("backlog", settings.backlog);
+        settings.reusePort = config.getBoolean("reuse-port", false);
+        return settings;
+    }
+
+    public ServerSocketChannel open() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        try {
+            // Lets a restarted server bind while connections from the last run are in TIME_WAIT
+            channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            if (reusePort) {
+                if (channel.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                } else {
+                    System.out.println("SO_REUSEPORT is not supported on this platform - binding without it");
+                }
+            }
+            channel.bind(bindAddress != null ? new InetSocketAddress(bindAddress, port) : new InetSocketAddress(port),
+                backlog);
+            return channel;
+        } catch (IOException e) {
+            channel.close();
+            throw new IOException("Cannot listen on " + this + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (bindAddress != null ? bindAddress : "*") + ":" + port;
+    }
+}
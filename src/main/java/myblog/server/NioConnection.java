@@ -0,0 +1,358 @@
+package myblog.server;
+
+import myblog.handlers.HttpRequestParser;
+import myblog.handlers.ResponseWriter;
+import myblog.handlers.WebServerHandler;
+import myblog.metrics.Counter;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import myblog.services.AccessLog;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+// Per-connection state for the non-blocking server. All methods except the worker
+// task run on the owning event loop thread. Connections persist across requests as in the
+// blocking server: once a response is written the parser starts over on whatever the
+// client has already sent, so pipelined requests are answered in order.
+class NioConnection {
+    // Collects a worker's response. A static file body is kept where it is, as the open file
+    // or the cached bytes, and sent from there by the event loop rather than copied in here.
+    private static class ResponseBuffer extends ByteArrayOutputStream
+            implements ResponseWriter.DeferredBodyOutput {
+        private FileChannel file;
+        private long filePosition;
+        private long fileEnd;
+        private ByteBuffer shared;
+        // Bytes of the response that go out before the file or shared body
+        private int bodyOffset;
+
+        @Override
+        public void appendFile(FileChannel file, long position, long count) throws IOException {
+            if (hasBody()) {
+                file.close();
+                throw new IOException("A response can only have one file body");
+            }
+            this.file = file;
+            this.filePosition = position;
+            this.fileEnd = position + count;
+            this.bodyOffset = size();
+        }
+
+        @Override
+        public void appendShared(byte[] body, int offset, int length) throws IOException {
+            if (hasBody()) {
+                throw new IOException("A response can only have one file body");
+            }
+            this.shared = ByteBuffer.wrap(body, offset, length);
+            this.bodyOffset = size();
+        }
+
+        // Also drops the body, as when an error page replaces a half-written response
+        @Override
+        public synchronized void reset() {
+            super.reset();
+            shared = null;
+            if (file != null) {
+                EventLoop.closeQuietly(file);
+                file = null;
+            }
+        }
+
+        private boolean hasBody() {
+            return file != null || shared != null;
+        }
+
+        // Everything up to the file body, or the whole response when there is none. The
+        // buffered bytes are wrapped where they are, without a copy.
+        ByteBuffer[] beforeFile() {
+            if (shared != null) {
+                return new ByteBuffer[] {ByteBuffer.wrap(buf, 0, bodyOffset), shared,
+                    ByteBuffer.wrap(buf, bodyOffset, count - bodyOffset)};
+            }
+            return new ByteBuffer[] {ByteBuffer.wrap(buf, 0, file != null ? bodyOffset : count)};
+        }
+
+        ByteBuffer afterFile() {
+            return file != null ? ByteBuffer.wrap(buf, bodyOffset, count - bodyOffset) : null;
+        }
+    }
+
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+    // Same series as the blocking server's
+    private static final Counter OPEN_CONNECTIONS =
+        MetricsRegistry.global().gauge("myblog_connections_open", "Client connections currently open");
+    private static final Histogram PARSE_TIME =
+        MetricsRegistry.global().histogram("myblog_http_parse_duration_seconds", "CPU time spent parsing request heads");
+
+    private final EventLoop loop;
+    private final SelectionKey key;
+    private final SocketChannel channel;
+    private final SocketAddress remoteAddress;
+
+    // in is kept in write mode between reads; the parser holds partial lines itself, so
+    // the buffer never has to grow
+    private final ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+    private final HttpRequestParser parser = new HttpRequestParser();
+    private final byte[] chunk = new byte[BUFFER_SIZE];
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private boolean headParsed;
+    private long parseNanos;
+    // The response being written: out (with a gathering write), then file[filePosition,
+    // fileEnd) if there is a file body, then afterFile
+    private ByteBuffer[] out;
+    private FileChannel file;
+    private long filePosition;
+    private long fileEnd;
+    private ByteBuffer afterFile;
+    private boolean keepAlive;
+    private int requestCount;
+    private boolean closed;
+    // For the event loop's timeouts (System.nanoTime() values). The request's time limit runs
+    // from when the connection was registered or its previous response was written.
+    private long requestStarted = System.nanoTime();
+    private long lastActivity = requestStarted;
+    // The request is with a worker; the client is not the one keeping us waiting
+    private boolean processing;
+
+    NioConnection(EventLoop loop, SelectionKey key, SocketChannel channel) throws IOException {
+        this.loop = loop;
+        this.key = key;
+        this.channel = channel;
+        this.remoteAddress = channel.getRemoteAddress();
+        OPEN_CONNECTIONS.increment();
+    }
+
+    void onReadable() throws IOException {
+        int read = channel.read(in);
+        if (read < 0) {
+            close();
+            return;
+        }
+        if (read > 0) {
+            lastActivity = System.nanoTime();
+        }
+        tryParse();
+    }
+
+    void onWritable() throws IOException {
+        if (writePending()) {
+            finishResponse();
+        }
+    }
+
+    private void tryParse() {
+        in.flip();
+        try {
+            if (!headParsed) {
+                long started = System.nanoTime();
+                boolean complete = parser.parseHead(in);
+                parseNanos += System.nanoTime() - started;
+                if (!complete) {
+                    return;
+                }
+                headParsed = true;
+                PARSE_TIME.record(parseNanos);
+                if (!parser.isBodyComplete() && "100-continue".equalsIgnoreCase(parser.getHeaders().get("expect"))) {
+                    channel.write(ByteBuffer.wrap(CONTINUE));
+                }
+            }
+            // Bodies are collected here, within the parser's body limit, so the worker never
+            // blocks waiting on the network
+            while (!parser.isBodyComplete()) {
+                int n = parser.readBody(in, chunk, 0, chunk.length);
+                if (n == 0 && !parser.isBodyComplete()) {
+                    return;  // wait for the rest of the body
+                }
+                body.write(chunk, 0, n);
+            }
+        } catch (HttpRequestParser.ParseException e) {
+            AccessLog.record(String.valueOf(remoteAddress), parser.getMethod() != null ? parser.getMethod() : "-",
+                parser.getTarget() != null ? parser.getTarget() : "-", e.statusCode, 0, 0, null, null);
+            respondImmediately(e.statusCode, e.statusText);
+            return;
+        } catch (IOException e) {
+            close();
+            return;
+        } finally {
+            in.compact();
+        }
+
+        String method = parser.getMethod();
+        String path = parser.getTarget();
+        Map<String, String> headers = parser.getHeaders();
+        InputStream requestBody = new ByteArrayInputStream(body.toByteArray());
+        requestCount++;
+        keepAlive = WebServerHandler.wantsKeepAlive(parser.getVersion(), headers.get("connection"))
+            && requestCount < loop.getKeepAliveMax() && !loop.isDraining();
+        int requestsLeft = keepAlive ? loop.getKeepAliveMax() - requestCount : 0;
+
+        // Stop reading until the response has been handed back by the worker; pipelined
+        // requests wait in the socket meanwhile
+        key.interestOps(0);
+        processing = true;
+        if (!loop.workers().submit(() -> process(method, path, headers, requestBody, requestsLeft))) {
+            respondImmediately(503, "Service Unavailable");
+        }
+    }
+
+    // Runs on a worker thread so blocking handlers (login, register) never stall the loop
+    private void process(String method, String path, Map<String, String> headers, InputStream body,
+            int requestsLeft) {
+        ResponseBuffer bytes = new ResponseBuffer();
+        WebServerHandler handler = new WebServerHandler(remoteAddress, loop.getKeepAliveTimeoutSeconds(), requestsLeft);
+        try {
+            if (WebServerHandler.isNoiseRequest(path)) {
+                new ResponseWriter(bytes).send404NotFound();
+            } else {
+                handler.dispatch(method, path, headers, body, bytes);
+            }
+        } catch (Exception e) {
+            System.out.println("Error handling client request: " + e.getMessage());
+            bytes.reset();
+            try {
+                new ResponseWriter(bytes).send500InternalError("An unexpected error occurred");
+            } catch (IOException ignored) {
+                // writing to memory does not fail
+            }
+        }
+        loop.execute(() -> startWrite(bytes));
+    }
+
+    // Error responses end the connection, since the rest of the request cannot be framed
+    private void respondImmediately(int statusCode, String statusText) {
+        keepAlive = false;
+        String response = String.format("HTTP/1.1 %d %s\r\nContent-Length: 0\r\nConnection: close\r\n\r\n",
+            statusCode, statusText);
+        ResponseBuffer buffer = new ResponseBuffer();
+        buffer.writeBytes(response.getBytes(StandardCharsets.ISO_8859_1));
+        startWrite(buffer);
+    }
+
+    private void startWrite(ResponseBuffer response) {
+        if (!key.isValid()) {
+            response.reset();
+            return;
+        }
+        out = response.beforeFile();
+        afterFile = response.afterFile();
+        file = response.file;
+        filePosition = response.filePosition;
+        fileEnd = response.fileEnd;
+        processing = false;
+        lastActivity = System.nanoTime();
+        try {
+            if (writePending()) {
+                finishResponse();
+            } else {
+                key.interestOps(SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    // Writes as much of the response as the socket takes without blocking; true once it has
+    // all gone. File bodies go straight from the file to the socket with transferTo.
+    private boolean writePending() throws IOException {
+        while (true) {
+            if (hasRemaining(out)) {
+                if (channel.write(out) > 0) {
+                    lastActivity = System.nanoTime();
+                }
+                if (hasRemaining(out)) {
+                    return false;
+                }
+            }
+            if (file == null) {
+                return true;
+            }
+            if (filePosition < fileEnd) {
+                long sent = file.transferTo(filePosition, fileEnd - filePosition, channel);
+                if (sent > 0) {
+                    filePosition += sent;
+                    lastActivity = System.nanoTime();
+                    continue;
+                }
+                if (filePosition >= file.size()) {
+                    throw new IOException("File shrank while it was being sent");
+                }
+                return false;  // socket buffer full
+            }
+            closeFile();
+            out = new ByteBuffer[] {afterFile};
+            afterFile = null;
+        }
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void closeFile() {
+        if (file != null) {
+            EventLoop.closeQuietly(file);
+            file = null;
+        }
+    }
+
+    // Starts on the next request, which may already be in the buffer, or closes the
+    // connection if the response said it would
+    private void finishResponse() {
+        if (!keepAlive || loop.isDraining()) {
+            close();
+            return;
+        }
+        out = null;
+        headParsed = false;
+        parseNanos = 0;
+        body.reset();
+        parser.reset();
+        requestStarted = System.nanoTime();
+        key.interestOps(SelectionKey.OP_READ);
+        tryParse();
+    }
+
+    // Nothing of a request has arrived yet
+    boolean isIdle() {
+        return !headParsed && parser.isIdle();
+    }
+
+    // Idle: nothing read or written for idleNanos, which stops clients that open connections
+    // and go quiet. Slow: still sending the request after requestNanos, which stops those
+    // that trickle a few bytes at a time to stay under the idle limit. 0 turns either off.
+    boolean hasTimedOut(long now, long idleNanos, long requestNanos) {
+        if (processing) {
+            return false;
+        }
+        if (idleNanos > 0 && now - lastActivity > idleNanos) {
+            return true;
+        }
+        return requestNanos > 0 && out == null && now - requestStarted > requestNanos;
+    }
+
+    void close() {
+        closeFile();
+        if (!closed) {
+            closed = true;
+            OPEN_CONNECTIONS.decrement();
+            loop.connectionClosed();
+        }
+        key.cancel();
+        EventLoop.closeQuietly(channel);
+    }
+}
@@ -0,0 +1,105 @@
+package myblog.server;
+
+import myblog.handlers.WebServerHandler;
+import myblog.metrics.Counter;
+import myblog.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Non-blocking server mode: a few selector threads do all socket I/O and request framing,
+// and complete requests are handed to a worker pool because route handlers may block.
+public class NioWebServer {
+    private final ListenSettings listen;
+    private final EventLoop[] loops;
+    private final ConnectionExecutor workers;
+    private ServerSocketChannel serverChannel;
+    private volatile boolean stopping;
+
+    public NioWebServer(ListenSettings listen, ServerConfig config) throws IOException {
+        this.listen = listen;
+        int loopCount = config.getInt("event-loops", Runtime.getRuntime().availableProcessors());
+        // A connection is closed after --idle-timeout-s without sending or reading anything,
+        // or when its request has not fully arrived --request-timeout-s after connecting
+        long idleTimeoutMillis = config.getInt("idle-timeout-s", 10) * 1000L;
+        long requestTimeoutMillis = config.getInt("request-timeout-s", 30) * 1000L;
+        // Same option as the blocking server's; connections idle between requests are closed
+        // by the idle timeout
+        int keepAliveMax = config.getInt("keep-alive-max", WebServerHandler.DEFAULT_KEEP_ALIVE_MAX);
+
+        this.workers = ConnectionExecutor.fromConfig(config, "pool");
+        this.loops = new EventLoop[Math.max(1, loopCount)];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(workers, idleTimeoutMillis, requestTimeoutMillis, keepAliveMax);
+        }
+    }
+
+    // Binds and starts the event loops; connections queue in the backlog until run()
+    public void start() throws IOException {
+        serverChannel = listen.open();
+        ThreadFactory loopThreads = namedThreads("event-loop-");
+        for (EventLoop loop : loops) {
+            loopThreads.newThread(loop).start();
+        }
+        System.out.println("Server is running on " + listen + " (nio, " + loops.length + " event loops, "
+            + workers.getMode() + " workers)");
+    }
+
+    // Accepts connections until shutdown() closes the listening socket
+    public void run() {
+        Counter accepted = MetricsRegistry.global()
+            .counter("myblog_connections_accepted_total", "Client connections accepted");
+        int next = 0;
+        while (!stopping) {
+            try {
+                SocketChannel clientChannel = serverChannel.accept();
+                accepted.increment();
+                loops[next].register(clientChannel);
+                next = (next + 1) % loops.length;
+            } catch (IOException e) {
+                if (!stopping) {
+                    System.out.println("Error handling client: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Stops accepting, closes connections that are between requests and waits until the
+    // deadline (a System.nanoTime() value) for the rest to be answered
+    public void shutdown(long deadlineNanos) throws IOException, InterruptedException {
+        stopping = true;
+        serverChannel.close();
+        for (EventLoop loop : loops) {
+            loop.beginDrain();
+        }
+        boolean drained = workers.awaitIdle(deadlineNanos);
+        for (EventLoop loop : loops) {
+            while (drained && loop.getConnectionCount() > 0) {
+                drained = System.nanoTime() - deadlineNanos < 0;
+                Thread.sleep(10);
+            }
+        }
+        if (!drained) {
+            int open = 0;
+            for (EventLoop loop : loops) {
+                open += loop.getConnectionCount();
+            }
+            System.out.println(open + " connections still open at the shutdown deadline");
+        }
+        for (EventLoop loop : loops) {
+            loop.shutdown();
+        }
+        workers.shutdown();
+    }
+
+    static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
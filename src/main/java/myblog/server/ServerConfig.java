@@ -0,0 +1,51 @@
+package myblog.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class ServerConfig {
+    private static final String PROPERTY_PREFIX = "myblog.";
+
+    private final Map<String, String> options = new HashMap<>();
+
+    // Parses "--name=value" style startup options; "--name" alone means "true".
+    // Anything not given on the command line falls back to -Dmyblog.<name>.
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                System.out.println("Ignoring unknown argument: " + arg);
+                continue;
+            }
+            String[] keyValue = arg.substring(2).split("=", 2);
+            config.options.put(keyValue[0], keyValue.length == 2 ? keyValue[1] : "true");
+        }
+        return config;
+    }
+
+    public String getString(String name, String defaultValue) {
+        String value = options.get(name);
+        if (value == null) {
+            value = System.getProperty(PROPERTY_PREFIX + name);
+        }
+        return value != null ? value : defaultValue;
+    }
+
+    public int getInt(String name, int defaultValue) {
+        String value = getString(name, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid value for " + name + ": " + value + " - using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value != null ? Boolean.parseBoolean(value.trim()) : defaultValue;
+    }
+}
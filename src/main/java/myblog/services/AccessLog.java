@@ -0,0 +1,305 @@
+package myblog.services;
+
+import myblog.metrics.MetricsRegistry;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// One compact line per request, written off the request path. record() copies a few
+// references into a preallocated slot of a lock-free ring and returns; a single writer
+// thread formats the lines, appends them to the log file in batches and rotates it by size.
+// When the writer falls behind (slow disk) the ring fills up and further entries are dropped
+// and counted rather than making request threads wait.
+public class AccessLog {
+    private static final long IDLE_PARK_NANOS = 20_000_000;
+    private static final String REDACTED = "[redacted]";
+    private static final Set<String> SECRET_HEADERS = Set.of("cookie", "authorization", "proxy-authorization");
+
+    public enum Level { OFF, REQUESTS, DEBUG }
+
+    public static class Settings {
+        public Level level = Level.REQUESTS;
+        public Path file = Paths.get("logs", "access.log");
+        public long maxFileBytes = 64L * 1024 * 1024;
+        public int maxFiles = 5;
+        public int bufferSize = 8192;
+        // Query parameters whose values never reach the log
+        public Set<String> redactedParams = Set.of("token", "password");
+    }
+
+    // Ring slot; fields are written by one producer and read by the writer after the
+    // slot's sequence number has been published
+    private static class Record {
+        long timeMillis;
+        String remote;
+        String method;
+        String target;
+        int status;
+        long bytes;
+        long micros;
+        String user;
+        Map<String, String> headers;
+    }
+
+    private static volatile AccessLog current;
+
+    private final Settings settings;
+    private final Record[] slots;
+    private final AtomicLongArray sequences;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong();
+    private long head;  // writer thread only
+
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder written = new LongAdder();
+    private volatile boolean running = true;
+    private final Thread writerThread;
+
+    private Writer out;
+    private long fileBytes;
+
+    private AccessLog(Settings settings) throws IOException {
+        this.settings = settings;
+        int capacity = Integer.highestOneBit(Math.max(2, settings.bufferSize - 1)) << 1;
+        this.slots = new Record[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        this.mask = capacity - 1;
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Record();
+            sequences.set(i, i);
+        }
+        openFile();
+        this.writerThread = new Thread(this::runWriter, "access-log");
+        writerThread.setDaemon(true);
+    }
+
+    // Starts the writer; with Level.OFF nothing is started and record() is a no-op
+    public static void start(Settings settings) throws IOException {
+        if (settings.level == Level.OFF) {
+            current = null;
+            return;
+        }
+        AccessLog log = new AccessLog(settings);
+        log.writerThread.start();
+        current = log;
+        MetricsRegistry.global().counterFunction("myblog_access_log_written_total",
+            "Access log lines written", log::getWritten);
+        MetricsRegistry.global().counterFunction("myblog_access_log_dropped_total",
+            "Access log entries dropped because the writer fell behind", log::getDropped);
+    }
+
+    public static AccessLog get() {
+        return current;
+    }
+
+    // Header values are only kept (and later written, redacted) at DEBUG level
+    public static void record(String remote, String method, String target, int status, long bytes,
+            long micros, String user, Map<String, String> headers) {
+        AccessLog log = current;
+        if (log != null) {
+            log.enqueue(remote, method, target, status, bytes, micros, user, headers);
+        }
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getWritten() {
+        return written.sum();
+    }
+
+    // Stops the writer after it has drained what is already queued
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writerThread);
+        try {
+            writerThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void enqueue(String remote, String method, String target, int status, long bytes,
+            long micros, String user, Map<String, String> headers) {
+        long position = tail.get();
+        int index;
+        while (true) {
+            index = (int) (position & mask);
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                dropped.increment();  // full: the writer has not freed this slot yet
+                return;
+            } else {
+                position = tail.get();
+            }
+        }
+        Record record = slots[index];
+        record.timeMillis = System.currentTimeMillis();
+        record.remote = remote;
+        record.method = method;
+        record.target = target;
+        record.status = status;
+        record.bytes = bytes;
+        record.micros = micros;
+        record.user = user;
+        record.headers = settings.level == Level.DEBUG ? headers : null;
+        sequences.set(index, position + 1);
+    }
+
+    private void runWriter() {
+        StringBuilder line = new StringBuilder(256);
+        long reportedDrops = 0;
+        while (true) {
+            int batch = 0;
+            try {
+                while (true) {
+                    int index = (int) (head & mask);
+                    if (sequences.get(index) != head + 1) {
+                        break;
+                    }
+                    Record record = slots[index];
+                    line.setLength(0);
+                    format(record, line);
+                    record.headers = null;
+                    sequences.set(index, head + slots.length);
+                    head++;
+                    write(line);
+                    batch++;
+                }
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    line.setLength(0);
+                    line.append("# dropped ").append(drops - reportedDrops).append(" entries\n");
+                    write(line);
+                    reportedDrops = drops;
+                    batch++;
+                }
+                if (batch > 0) {
+                    out.flush();
+                    written.add(batch);
+                }
+            } catch (IOException e) {
+                System.err.println("Access log write failed: " + e.getMessage());
+            }
+            if (batch == 0) {
+                if (!running) {
+                    break;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    // 2026-01-01T12:00:00.123Z 127.0.0.1:50000 GET /verify?token=[redacted] 303 0 812us alice
+    private void format(Record record, StringBuilder line) {
+        line.append(Instant.ofEpochMilli(record.timeMillis)).append(' ');
+        // InetSocketAddress.toString() puts a '/' in front of unresolved addresses
+        line.append(record.remote, record.remote.startsWith("/") ? 1 : 0, record.remote.length()).append(' ')
+            .append(record.method).append(' ');
+        appendTarget(record.target, line);
+        line.append(' ').append(record.status)
+            .append(' ').append(record.bytes)
+            .append(' ').append(record.micros).append("us ")
+            .append(record.user != null ? record.user : "-");
+        if (record.headers != null) {
+            line.append(" {");
+            boolean first = true;
+            for (Map.Entry<String, String> header : record.headers.entrySet()) {
+                if (!first) {
+                    line.append(", ");
+                }
+                first = false;
+                line.append(header.getKey()).append('=')
+                    .append(SECRET_HEADERS.contains(header.getKey()) ? REDACTED : header.getValue());
+            }
+            line.append('}');
+        }
+        line.append('\n');
+    }
+
+    private void appendTarget(String target, StringBuilder line) {
+        int query = target.indexOf('?');
+        if (query < 0) {
+            line.append(target);
+            return;
+        }
+        line.append(target, 0, query + 1);
+        int start = query + 1;
+        while (start <= target.length()) {
+            int end = target.indexOf('&', start);
+            if (end < 0) {
+                end = target.length();
+            }
+            int equals = target.indexOf('=', start);
+            if (equals > start && equals < end
+                    && settings.redactedParams.contains(target.substring(start, equals))) {
+                line.append(target, start, equals + 1).append(REDACTED);
+            } else {
+                line.append(target, start, end);
+            }
+            if (end < target.length()) {
+                line.append('&');
+            }
+            start = end + 1;
+        }
+    }
+
+    private void write(CharSequence line) throws IOException {
+        if (fileBytes + line.length() > settings.maxFileBytes && fileBytes > 0) {
+            rotate();
+        }
+        out.append(line);
+        fileBytes += line.length();
+    }
+
+    // access.log -> access.log.1 -> ... -> access.log.<maxFiles>, the oldest is deleted
+    private void rotate() throws IOException {
+        out.close();
+        Path file = settings.file;
+        for (int i = settings.maxFiles - 1; i >= 1; i--) {
+            Path older = file.resolveSibling(file.getFileName() + "." + i);
+            if (Files.exists(older)) {
+                Files.move(older, file.resolveSibling(file.getFileName() + "." + (i + 1)),
+                    StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        if (settings.maxFiles > 0) {
+            Files.move(file, file.resolveSibling(file.getFileName() + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        } else {
+            Files.delete(file);
+        }
+        openFile();
+    }
+
+    private void openFile() throws IOException {
+        Path parent = settings.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        out = Files.newBufferedWriter(settings.file, StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        fileBytes = Files.size(settings.file);
+    }
+}
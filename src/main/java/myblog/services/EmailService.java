@@ -1,18 +1,21 @@
 package myblog.services;
 
-import javax.mail.*;
-import javax.mail.internet.*;
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import myblog.templates.TemplateCache;
+import myblog.templates.TemplateWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Paths;
+import java.util.Map;
 import java.util.Properties;
 import java.util.UUID;
 
 public class EmailService {
-    private static final Properties config = loadConfig();
-    private static final String FROM_EMAIL = config.getProperty("smtp.username");
-    private static final String PASSWORD = config.getProperty("smtp.password");
-    private static final String SMTP_HOST = config.getProperty("smtp.host");
-    private static final String SMTP_PORT = config.getProperty("smtp.port");
+    private static final String VERIFY_BASE_URL = "http://localhost:8080";
+    private static volatile MailQueue queue;
+    private static final Histogram ENQUEUE_TIME = MetricsRegistry.global()
+        .histogram("myblog_mail_enqueue_duration_seconds", "Time to spool an email for background delivery");
 
     private static Properties loadConfig() {
         Properties props = new Properties();
@@ -29,56 +32,75 @@ public class EmailService {
         }
     }
 
-    public static String sendVerificationEmail(String toEmail, String username) {
-        String verificationToken = UUID.randomUUID().toString();
-        
-        Properties props = new Properties();
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.starttls.enable", "true");
-        props.put("mail.smtp.host", SMTP_HOST);
-        props.put("mail.smtp.port", SMTP_PORT);
+    // SMTP settings from config.properties; smtp.auth and smtp.starttls default to true
+    public static MailQueue.Settings settingsFromConfig() {
+        Properties config = loadConfig();
+        MailQueue.Settings settings = new MailQueue.Settings();
+        settings.host = config.getProperty("smtp.host");
+        settings.port = Integer.parseInt(config.getProperty("smtp.port", "587").trim());
+        settings.username = config.getProperty("smtp.username");
+        settings.password = config.getProperty("smtp.password");
+        settings.from = config.getProperty("smtp.from", settings.username);
+        settings.auth = Boolean.parseBoolean(config.getProperty("smtp.auth", "true"));
+        settings.startTls = Boolean.parseBoolean(config.getProperty("smtp.starttls", "true"));
+        settings.spoolDirectory = Paths.get("spool", "mail");
+        return settings;
+    }
 
-        System.out.println("Attempting to establish SMTP connection to: " + SMTP_HOST + ":" + SMTP_PORT);
+    // Starts background delivery; until this succeeds verification emails cannot be queued
+    public static void start(MailQueue.Settings settings) throws IOException {
+        MailQueue started = new MailQueue(settings);
+        started.start();
+        queue = started;
+    }
 
-        Session session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(FROM_EMAIL, PASSWORD);
-            }
-        });
+    // Lets deliveries in progress finish; queued mail stays spooled for the next start
+    public static void shutdown(long deadlineNanos) throws InterruptedException {
+        MailQueue current = queue;
+        if (current == null) {
+            return;
+        }
+        current.shutdown();
+        if (!current.awaitTermination(deadlineNanos)) {
+            System.out.println("Mail delivery still in progress at the shutdown deadline");
+        }
+        if (current.getQueueDepth() > 0) {
+            System.out.println(current.getQueueDepth() + " emails left in the spool for the next start");
+        }
+    }
 
-        try {
-            Message message = new MimeMessage(session);
-            message.setFrom(new InternetAddress(FROM_EMAIL));
-            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(toEmail));
-            message.setSubject("Verify your email address");
+    public static MailQueue getQueue() {
+        return queue;
+    }
+
+    public static String newVerificationToken() {
+        return UUID.randomUUID().toString();
+    }
 
-            String verificationLink = String.format("http://localhost:8080/verify?token=%s&username=%s",
-                    verificationToken, username);
+    // Queues the email and returns immediately; false if it could not be queued
+    public static boolean queueVerificationEmail(String toEmail, String username, String verificationToken) {
+        MailQueue current = queue;
+        if (current == null) {
+            System.err.println("Mail delivery is not running - cannot email " + toEmail);
+            return false;
+        }
 
-            String htmlContent = String.format("""
-                <html>
-                <body>
-                    <h2>Welcome to My Blog!</h2>
-                    <p>Hi %s,</p>
-                    <p>Please click the link below to verify your email address:</p>
-                    <a href="%s">Verify Email</a>
-                    <p>If you didn't create an account, you can ignore this email.</p>
-                </body>
-                </html>
-                """, username, verificationLink);
+        // The template escapes the username for the page and encodes it for the link
+        String htmlContent;
+        TemplateWriter email = TemplateWriter.acquire();
+        try {
+            TemplateCache.global().get("verification-email.html").render(email,
+                Map.of("baseUrl", VERIFY_BASE_URL, "username", username, "token", verificationToken));
+            htmlContent = email.toString();
+        } finally {
+            TemplateWriter.release(email);
+        }
 
-            message.setContent(htmlContent, "text/html; charset=utf-8");
-            
-            System.out.println("Attempting to send email to: " + toEmail);
-            Transport.send(message);
-            System.out.println("Email successfully sent to: " + toEmail);
-            
-            return verificationToken;
-        } catch (MessagingException e) {
-            System.err.println("Failed to send email to " + toEmail + ". Error: " + e.getMessage());
-            e.printStackTrace();
-            return null;
+        long started = System.nanoTime();
+        try {
+            return current.enqueue(toEmail, "Verify your email address", htmlContent);
+        } finally {
+            ENQUEUE_TIME.recordSince(started);
         }
     }
-} 
\ No newline at end of file
+}
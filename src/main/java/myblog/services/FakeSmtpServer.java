@@ -0,0 +1,123 @@
+package myblog.services;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Loopback SMTP stand-in for local testing: accepts any sender and recipient, keeps the
+// most recent messages in memory and never relays anything. No AUTH or STARTTLS, so the
+// mail queue must be configured with both turned off when pointed at it.
+public class FakeSmtpServer implements Runnable {
+    private static final int KEPT_MESSAGES = 100;
+
+    private final ServerSocket serverSocket;
+    private final List<String> messages = new ArrayList<>();
+    private final AtomicLong received = new AtomicLong();
+
+    // port 0 picks a free port; see getPort()
+    public FakeSmtpServer(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long getReceivedCount() {
+        return received.get();
+    }
+
+    public synchronized List<String> getMessages() {
+        return new ArrayList<>(messages);
+    }
+
+    public void start() {
+        Thread thread = new Thread(this, "fake-smtp");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    @Override
+    public void run() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Thread session = new Thread(() -> handle(client), "fake-smtp-session");
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) {
+                    System.out.println("Fake SMTP accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (Socket socket = client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            reply(out, "220 localhost fake SMTP ready");
+            String line;
+            while ((line = in.readLine()) != null) {
+                String command = line.length() >= 4 ? line.substring(0, 4).toUpperCase() : line.toUpperCase();
+                switch (command) {
+                    case "EHLO":
+                    case "HELO":
+                        reply(out, "250 localhost");
+                        break;
+                    case "DATA":
+                        reply(out, "354 End data with <CR><LF>.<CR><LF>");
+                        readData(in);
+                        reply(out, "250 OK queued");
+                        break;
+                    case "QUIT":
+                        reply(out, "221 Bye");
+                        return;
+                    default:
+                        // MAIL, RCPT, RSET, NOOP and anything else are simply accepted
+                        reply(out, "250 OK");
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Fake SMTP session failed: " + e.getMessage());
+        }
+    }
+
+    private void readData(BufferedReader in) throws IOException {
+        StringBuilder message = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null && !line.equals(".")) {
+            // Undo SMTP dot-stuffing
+            message.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+        }
+        received.incrementAndGet();
+        synchronized (this) {
+            if (messages.size() == KEPT_MESSAGES) {
+                messages.remove(0);
+            }
+            messages.add(message.toString());
+        }
+    }
+
+    private static void reply(PrintWriter out, String line) {
+        out.print(line + "\r\n");
+        out.flush();
+    }
+}
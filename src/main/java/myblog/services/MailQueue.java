@@ -0,0 +1,354 @@
+package myblog.services;
+
+import myblog.metrics.Histogram;
+import myblog.metrics.MetricsRegistry;
+import javax.mail.*;
+import javax.mail.internet.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Background delivery for outgoing mail. enqueue() writes the message to a spool directory
+// and returns at once; sender threads each keep one SMTP Transport connected and deliver
+// whatever is due in batches over it. Failed messages are retried with exponential backoff
+// and moved to spool/failed after maxAttempts. Spooled mail is picked up again on restart.
+public class MailQueue {
+    private static final long IDLE_DISCONNECT_MILLIS = 30_000;
+    private static final long FIRST_RETRY_MILLIS = 5_000;
+    private static final long MAX_RETRY_MILLIS = 10 * 60_000;
+
+    public static class Settings {
+        public String host;
+        public int port = 587;
+        public String username;
+        public String password;
+        public boolean auth = true;
+        public boolean startTls = true;
+        public String from;
+        public Path spoolDirectory;
+        public int senders = 1;
+        public int batchSize = 20;
+        public int maxAttempts = 8;
+    }
+
+    static class Mail implements Delayed {
+        final String id;
+        final String to;
+        final String subject;
+        final String html;
+        final long enqueuedAt;
+        int attempts;
+        long dueAt;
+
+        Mail(String id, String to, String subject, String html, long enqueuedAt, int attempts) {
+            this.id = id;
+            this.to = to;
+            this.subject = subject;
+            this.html = html;
+            this.enqueuedAt = enqueuedAt;
+            this.attempts = attempts;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Mail) other).dueAt);
+        }
+    }
+
+    private final Settings settings;
+    private final DelayQueue<Mail> queue = new DelayQueue<>();
+    private final List<Thread> senders = new ArrayList<>();
+    private volatile boolean running = true;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder totalDeliveryMillis = new LongAdder();
+    private final AtomicLong maxDeliveryMillis = new AtomicLong();
+    private final Histogram sendTime = MetricsRegistry.global()
+        .histogram("myblog_mail_send_duration_seconds", "Time for the SMTP server to accept one message");
+
+    public MailQueue(Settings settings) {
+        this.settings = settings;
+    }
+
+    // Reloads spooled mail from a previous run and starts the sender threads
+    public void start() throws IOException {
+        registerMetrics(MetricsRegistry.global());
+        Files.createDirectories(settings.spoolDirectory.resolve("failed"));
+        try (DirectoryStream<Path> spooled = Files.newDirectoryStream(settings.spoolDirectory, "*.mail")) {
+            for (Path file : spooled) {
+                try {
+                    queue.add(readSpoolFile(file));
+                } catch (IOException e) {
+                    System.err.println("Unreadable spooled mail " + file + ": " + e.getMessage());
+                }
+            }
+        }
+        if (!queue.isEmpty()) {
+            System.out.println("Resuming delivery of " + queue.size() + " spooled emails");
+        }
+
+        for (int i = 0; i < settings.senders; i++) {
+            Thread sender = new Thread(this::runSender, "mail-sender-" + (i + 1));
+            sender.setDaemon(true);
+            senders.add(sender);
+            sender.start();
+        }
+    }
+
+    // Returns false if the mail could not be spooled; it has then not been queued
+    public boolean enqueue(String to, String subject, String html) {
+        Mail mail = new Mail(UUID.randomUUID().toString(), to, subject, html, System.currentTimeMillis(), 0);
+        try {
+            writeSpoolFile(mail);
+        } catch (IOException e) {
+            System.err.println("Failed to spool email to " + to + ": " + e.getMessage());
+            return false;
+        }
+        queue.add(mail);
+        return true;
+    }
+
+    // Stops the senders; anything still queued stays in the spool for the next start. A
+    // sender in the middle of a batch finishes it, since SMTP I/O ignores the interrupt.
+    public void shutdown() {
+        running = false;
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+    }
+
+    // Waits, after shutdown(), for the senders to finish; false if one is still delivering
+    // at the deadline (a System.nanoTime() value)
+    public boolean awaitTermination(long deadlineNanos) throws InterruptedException {
+        for (Thread sender : senders) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining > 0) {
+                TimeUnit.NANOSECONDS.timedJoin(sender, remaining);
+            }
+            if (sender.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void registerMetrics(MetricsRegistry metrics) {
+        metrics.gaugeFunction("myblog_mail_queue_depth", "Emails waiting for delivery", this::getQueueDepth);
+        metrics.counterFunction("myblog_mail_delivered_total", "Emails accepted by the SMTP server", this::getDelivered);
+        metrics.counterFunction("myblog_mail_failed_total", "Emails given up on", this::getFailed);
+        metrics.counterFunction("myblog_mail_retries_total", "Delivery attempts scheduled for retry", this::getRetries);
+        metrics.gaugeFunction("myblog_mail_max_delivery_seconds", "Longest time from enqueue to delivery",
+            () -> getMaxDeliveryMillis() / 1000.0);
+    }
+
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public long getDelivered() {
+        return delivered.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getTotalDeliveryMillis() {
+        return totalDeliveryMillis.sum();
+    }
+
+    public long getMaxDeliveryMillis() {
+        return maxDeliveryMillis.get();
+    }
+
+    private void runSender() {
+        Session session = createSession();
+        Transport transport = null;
+        List<Mail> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Mail first = queue.poll(IDLE_DISCONNECT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    transport = disconnect(transport);
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, settings.batchSize - 1);
+
+                if (transport == null || !transport.isConnected()) {
+                    disconnect(transport);
+                    transport = connect(session);
+                }
+                for (Mail mail : batch) {
+                    try {
+                        deliver(session, transport, mail);
+                    } catch (SendFailedException e) {
+                        // Rejected recipients will not be accepted on a retry either
+                        giveUp(mail, e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (MessagingException | RuntimeException e) {
+                System.err.println("SMTP delivery failed: " + e.getMessage());
+                transport = disconnect(transport);
+                for (Mail mail : batch) {
+                    if (Files.exists(spoolFile(mail))) {
+                        retryLater(mail, e);
+                    }
+                }
+            }
+            batch.clear();
+        }
+        disconnect(transport);
+    }
+
+    private Session createSession() {
+        Properties props = new Properties();
+        props.put("mail.smtp.auth", String.valueOf(settings.auth));
+        props.put("mail.smtp.starttls.enable", String.valueOf(settings.startTls));
+        props.put("mail.smtp.host", settings.host);
+        props.put("mail.smtp.port", String.valueOf(settings.port));
+        return Session.getInstance(props);
+    }
+
+    private Transport connect(Session session) throws MessagingException {
+        System.out.println("Attempting to establish SMTP connection to: " + settings.host + ":" + settings.port);
+        Transport transport = session.getTransport("smtp");
+        if (settings.auth) {
+            transport.connect(settings.host, settings.port, settings.username, settings.password);
+        } else {
+            transport.connect();
+        }
+        return transport;
+    }
+
+    private static Transport disconnect(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException ignored) {
+            }
+        }
+        return null;
+    }
+
+    private void deliver(Session session, Transport transport, Mail mail) throws MessagingException {
+        Message message = new MimeMessage(session);
+        message.setFrom(new InternetAddress(settings.from));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(mail.to));
+        message.setSubject(mail.subject);
+        message.setContent(mail.html, "text/html; charset=utf-8");
+        message.saveChanges();
+
+        long started = System.nanoTime();
+        transport.sendMessage(message, message.getAllRecipients());
+        sendTime.recordSince(started);
+
+        long latency = System.currentTimeMillis() - mail.enqueuedAt;
+        delivered.increment();
+        totalDeliveryMillis.add(latency);
+        maxDeliveryMillis.accumulateAndGet(latency, Math::max);
+        System.out.println("Email successfully sent to: " + mail.to + " (" + latency + " ms after enqueue)");
+        deleteQuietly(spoolFile(mail));
+    }
+
+    private void retryLater(Mail mail, Exception cause) {
+        mail.attempts++;
+        if (mail.attempts >= settings.maxAttempts) {
+            giveUp(mail, cause);
+            return;
+        }
+        long delay = Math.min(MAX_RETRY_MILLIS, FIRST_RETRY_MILLIS << Math.min(mail.attempts - 1, 20));
+        mail.dueAt = System.currentTimeMillis() + delay;
+        retries.increment();
+        try {
+            writeSpoolFile(mail);
+        } catch (IOException e) {
+            System.err.println("Failed to update spooled email " + mail.id + ": " + e.getMessage());
+        }
+        queue.add(mail);
+    }
+
+    private void giveUp(Mail mail, Exception cause) {
+        failed.increment();
+        System.err.println("Giving up on email to " + mail.to + " after " + (mail.attempts + 1)
+            + " attempts: " + cause.getMessage());
+        try {
+            Files.move(spoolFile(mail), settings.spoolDirectory.resolve("failed").resolve(mail.id + ".mail"),
+                StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            deleteQuietly(spoolFile(mail));
+        }
+    }
+
+    private Path spoolFile(Mail mail) {
+        return settings.spoolDirectory.resolve(mail.id + ".mail");
+    }
+
+    // Written to a temporary file and moved into place so a crash never leaves half a message
+    private void writeSpoolFile(Mail mail) throws IOException {
+        Properties props = new Properties();
+        props.setProperty("to", mail.to);
+        props.setProperty("subject", mail.subject);
+        props.setProperty("html", mail.html);
+        props.setProperty("enqueued", String.valueOf(mail.enqueuedAt));
+        props.setProperty("attempts", String.valueOf(mail.attempts));
+
+        Path temporary = settings.spoolDirectory.resolve(mail.id + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temporary)) {
+            props.store(out, null);
+        }
+        Files.move(temporary, spoolFile(mail), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Mail readSpoolFile(Path file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = Files.newInputStream(file)) {
+            props.load(in);
+        }
+        String name = file.getFileName().toString();
+        if (props.getProperty("to") == null || props.getProperty("subject") == null || props.getProperty("html") == null) {
+            throw new IOException("Malformed spool file");
+        }
+        try {
+            return new Mail(name.substring(0, name.length() - ".mail".length()),
+                props.getProperty("to"), props.getProperty("subject"), props.getProperty("html"),
+                Long.parseLong(props.getProperty("enqueued")), Integer.parseInt(props.getProperty("attempts", "0")));
+        } catch (RuntimeException e) {
+            throw new IOException("Malformed spool file", e);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {
+        }
+    }
+}
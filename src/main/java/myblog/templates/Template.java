@@ -0,0 +1,100 @@
+package myblog.templates;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// A template compiled once: the literal text between slots pre-encoded as UTF-8 chunks, and
+// the slots themselves. {{name}} is replaced by the value HTML-escaped, which is safe in
+// element content and in quoted attributes; {{name|url}} percent-encodes it for a URL
+// query component. There is deliberately no unescaped form. Rendering copies the chunks
+// and encodes the values straight into a TemplateWriter.
+public final class Template {
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final String name;
+    // literals.length == slots.length + 1: literal, slot, literal, ..., slot, literal
+    private final byte[][] literals;
+    private final String[] slots;
+    private final boolean[] urlEncoded;
+
+    private Template(String name, byte[][] literals, String[] slots, boolean[] urlEncoded) {
+        this.name = name;
+        this.literals = literals;
+        this.slots = slots;
+        this.urlEncoded = urlEncoded;
+    }
+
+    // Throws IllegalArgumentException, naming the template and line, for malformed slots
+    public static Template compile(String name, String source) {
+        List<byte[]> literals = new ArrayList<>();
+        List<String> slots = new ArrayList<>();
+        List<Boolean> urlEncoded = new ArrayList<>();
+        int position = 0;
+        int open;
+        while ((open = source.indexOf(OPEN, position)) >= 0) {
+            int close = source.indexOf(CLOSE, open + OPEN.length());
+            if (close < 0) {
+                throw syntaxError(name, source, open, "unclosed " + OPEN);
+            }
+            String slot = source.substring(open + OPEN.length(), close).trim();
+            boolean url = false;
+            int bar = slot.indexOf('|');
+            if (bar >= 0) {
+                String filter = slot.substring(bar + 1).trim();
+                if (!filter.equals("url")) {
+                    throw syntaxError(name, source, open, "unknown filter '" + filter + "'");
+                }
+                url = true;
+                slot = slot.substring(0, bar).trim();
+            }
+            if (!slot.matches("[A-Za-z][A-Za-z0-9_]*")) {
+                throw syntaxError(name, source, open, "invalid slot name '" + slot + "'");
+            }
+            literals.add(source.substring(position, open).getBytes(StandardCharsets.UTF_8));
+            slots.add(slot);
+            urlEncoded.add(url);
+            position = close + CLOSE.length();
+        }
+        literals.add(source.substring(position).getBytes(StandardCharsets.UTF_8));
+
+        boolean[] urlFlags = new boolean[urlEncoded.size()];
+        for (int i = 0; i < urlFlags.length; i++) {
+            urlFlags[i] = urlEncoded.get(i);
+        }
+        return new Template(name, literals.toArray(new byte[0][]), slots.toArray(new String[0]), urlFlags);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Every slot needs a value; a missing one is a programming error, not an empty string
+    public void render(TemplateWriter out, Map<String, String> values) {
+        out.write(literals[0]);
+        for (int i = 0; i < slots.length; i++) {
+            String value = values.get(slots[i]);
+            if (value == null) {
+                throw new IllegalArgumentException("No value for {{" + slots[i] + "}} in template " + name);
+            }
+            if (urlEncoded[i]) {
+                out.writeUrlComponent(value);
+            } else {
+                out.writeHtml(value);
+            }
+            out.write(literals[i + 1]);
+        }
+    }
+
+    private static IllegalArgumentException syntaxError(String name, String source, int offset, String problem) {
+        int line = 1;
+        for (int i = 0; i < offset; i++) {
+            if (source.charAt(i) == '\n') {
+                line++;
+            }
+        }
+        return new IllegalArgumentException("Template " + name + ", line " + line + ": " + problem);
+    }
+}
@@ -0,0 +1,110 @@
+package myblog.templates;
+
+import myblog.handlers.FileHandler;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+// Every *.html file under one directory, compiled once when the cache is opened, so a
+// broken template stops the server at startup rather than failing a request. Templates
+// live in the static root's templates/ directory, where the asset pipeline rewrites their
+// asset links like any page's; the static file routes never serve them. With reload on, as
+// in development, a template whose file has changed is recompiled on its next use, and one
+// that no longer compiles keeps its last good version.
+public class TemplateCache {
+    private static class Entry {
+        final Template template;
+        final Path file;
+        final FileTime modified;
+
+        Entry(Template template, Path file, FileTime modified) {
+            this.template = template;
+            this.file = file;
+            this.modified = modified;
+        }
+    }
+
+    private static volatile TemplateCache global;
+
+    private final Path root;
+    private final boolean reload;
+    private final Map<String, Entry> templates = new ConcurrentHashMap<>();
+
+    public TemplateCache(Path root, boolean reload) throws IOException {
+        this.root = root;
+        this.reload = reload;
+        try (Stream<Path> walk = Files.walk(root)) {
+            for (Path file : (Iterable<Path>) walk.filter(path -> path.toString().endsWith(".html"))::iterator) {
+                Entry entry = load(file);
+                templates.put(entry.template.getName(), entry);
+            }
+        }
+    }
+
+    // Replaces the global cache; called once at startup before serving requests
+    public static void configure(Path root, boolean reload) throws IOException {
+        global = new TemplateCache(root, reload);
+    }
+
+    // Until configure() is called, the templates of the default static root, without reload
+    public static TemplateCache global() {
+        TemplateCache current = global;
+        if (current == null) {
+            synchronized (TemplateCache.class) {
+                if (global == null) {
+                    try {
+                        global = new TemplateCache(FileHandler.defaultStaticRoot().resolve("templates"), false);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException("Cannot load templates", e);
+                    }
+                }
+                current = global;
+            }
+        }
+        return current;
+    }
+
+    // name is the path below the root with '/' separators, e.g. "mypage.html"
+    public Template get(String name) {
+        Entry entry = templates.get(name);
+        if (entry == null) {
+            throw new IllegalArgumentException("No template " + name + " in " + root);
+        }
+        if (reload) {
+            entry = reloadIfChanged(name, entry);
+        }
+        return entry.template;
+    }
+
+    public int size() {
+        return templates.size();
+    }
+
+    private Entry reloadIfChanged(String name, Entry entry) {
+        try {
+            if (Files.getLastModifiedTime(entry.file).equals(entry.modified)) {
+                return entry;
+            }
+            Entry reloaded = load(entry.file);
+            templates.put(name, reloaded);
+            System.out.println("Reloaded template " + name);
+            return reloaded;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Keeping the previous version of template " + name + ": " + e.getMessage());
+            return entry;
+        }
+    }
+
+    private Entry load(Path file) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        String name = root.relativize(file).toString().replace('\\', '/');
+        String source = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return new Entry(Template.compile(name, source), file, modified);
+    }
+}
@@ -0,0 +1,134 @@
+package myblog.templates;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// The output of Template.render: UTF-8 bytes in a reusable array, with values escaped as
+// they are encoded, so no intermediate String is built per value or per page. Pooled via
+// acquire()/release() like JsonWriter.
+public final class TemplateWriter {
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] APOS = "&#39;".getBytes(StandardCharsets.US_ASCII);
+    private static final int INITIAL_CAPACITY = 4 * 1024;
+    private static final int MAX_POOLED_CAPACITY = 256 * 1024;
+    private static final int MAX_POOLED_WRITERS = 64;
+    private static final Queue<TemplateWriter> POOL = new ConcurrentLinkedQueue<>();
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    public static TemplateWriter acquire() {
+        TemplateWriter writer = POOL.poll();
+        return writer != null ? writer : new TemplateWriter();
+    }
+
+    public static void release(TemplateWriter writer) {
+        writer.size = 0;
+        if (writer.buffer.length <= MAX_POOLED_CAPACITY && POOL.size() < MAX_POOLED_WRITERS) {
+            POOL.offer(writer);
+        }
+    }
+
+    // The rendered output is buffer()[0, size())
+    public byte[] buffer() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // For output that has to leave as text, such as a mail body
+    @Override
+    public String toString() {
+        return new String(buffer, 0, size, StandardCharsets.UTF_8);
+    }
+
+    void write(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    // The five characters that are special in HTML text and quoted attributes become
+    // entities; everything else is written as UTF-8
+    void writeHtml(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&': write(AMP); break;
+                case '<': write(LT); break;
+                case '>': write(GT); break;
+                case '"': write(QUOT); break;
+                case '\'': write(APOS); break;
+                default: i = writeUtf8(value, i, false);
+            }
+        }
+    }
+
+    // RFC 3986 query component: unreserved characters as they are, all other bytes of the
+    // UTF-8 encoding as %XX. The result has nothing left for HTML to interpret either.
+    void writeUrlComponent(String value) {
+        ensure(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9'
+                    || c == '-' || c == '.' || c == '_' || c == '~') {
+                ensure(1);
+                buffer[size++] = (byte) c;
+            } else {
+                i = writeUtf8(value, i, true);
+            }
+        }
+    }
+
+    // Writes the character at index (two chars for a surrogate pair, whose index of the
+    // second char is returned); a lone surrogate becomes U+FFFD
+    private int writeUtf8(String value, int index, boolean percentEncode) {
+        char c = value.charAt(index);
+        if (c < 0x80) {
+            put(c, percentEncode);
+        } else if (c < 0x800) {
+            put(0xc0 | c >> 6, percentEncode);
+            put(0x80 | c & 0x3f, percentEncode);
+        } else if (Character.isHighSurrogate(c) && index + 1 < value.length()
+                && Character.isLowSurrogate(value.charAt(index + 1))) {
+            int codePoint = Character.toCodePoint(c, value.charAt(++index));
+            put(0xf0 | codePoint >> 18, percentEncode);
+            put(0x80 | codePoint >> 12 & 0x3f, percentEncode);
+            put(0x80 | codePoint >> 6 & 0x3f, percentEncode);
+            put(0x80 | codePoint & 0x3f, percentEncode);
+        } else {
+            int encoded = Character.isSurrogate(c) ? 0xfffd : c;
+            put(0xe0 | encoded >> 12, percentEncode);
+            put(0x80 | encoded >> 6 & 0x3f, percentEncode);
+            put(0x80 | encoded & 0x3f, percentEncode);
+        }
+        return index;
+    }
+
+    private void put(int b, boolean percentEncode) {
+        if (percentEncode) {
+            ensure(3);
+            buffer[size++] = '%';
+            buffer[size++] = HEX[b >> 4 & 0xf];
+            buffer[size++] = HEX[b & 0xf];
+        } else {
+            ensure(1);
+            buffer[size++] = (byte) b;
+        }
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+        }
+    }
+}
@@ -1,5 +1,8 @@
 import sys
 import os
+import io
+import json
+from contextlib import redirect_stdout
 from sqlalchemy import create_engine, text
 from sqlalchemy.exc import SQLAlchemyError
 from dotenv import load_dotenv
@@ -16,9 +19,15 @@ if not all(os.getenv(var) for var in ['DB_USER', 'DB_PASSWORD', 'DB_HOST', 'DB_P
     sys.exit(1)
 
 class DatabaseConnection:
+    # Set by serve mode so that one engine (and its connection pool) is reused across requests
+    shared_engine = None
+    reuse_engine = False
+
     @staticmethod
     def get_engine():
         """Create and return a database engine using environment variables"""
+        if DatabaseConnection.shared_engine is not None:
+            return DatabaseConnection.shared_engine
         print("Attempting to connect to database...")
         try:
             # Get database connection parameters from environment variables
@@ -33,7 +42,9 @@ class DatabaseConnection:
             # Test connection
             with engine.connect() as conn:
                 print("Successfully connected to database")
-                
+
+            if DatabaseConnection.reuse_engine:
+                DatabaseConnection.shared_engine = engine
             return engine
             
         except UnicodeDecodeError as e:
@@ -172,12 +183,11 @@ class UserAuth:
                         {'username': pending.username, 'password': pending.password, 'email': pending.email_address}
                     )
                     
-                    # Clean up pending registration
+                    # Clean up pending registration; expired ones are left to the server's sweeper
                     delete_pending_sql = """
                         DELETE FROM webserver.pending_registrations 
                         WHERE username = :username 
                         OR email_address = :email
-                        OR expiry_time < NOW()
                     """
                     conn.execute(
                         text(delete_pending_sql),
@@ -201,10 +211,7 @@ class UserAuth:
                 AND password = :password 
                 AND is_verified = true
             """
-            # Print the SQL with actual values (masking password)
-            debug_sql = check_credentials_sql.replace(":username", username).replace(":password", password)
-            print("Executing SQL:", debug_sql)
-            
+
             with engine.connect() as conn:
                 result = conn.execute(
                     text(check_credentials_sql),
@@ -220,8 +227,128 @@ class UserAuth:
             print(f"ERROR: Database error - {str(error)}")
 
 
+    @staticmethod
+    def get_password(username):
+        """Print the stored password hash (or legacy plain text) of a verified user"""
+        try:
+            engine = DatabaseConnection.get_engine()
+            get_password_sql = """
+                SELECT password
+                FROM webserver.users
+                WHERE username = :username
+                AND is_verified = true
+            """
+            with engine.connect() as conn:
+                row = conn.execute(text(get_password_sql), {'username': username}).fetchone()
+                if row is not None:
+                    print(f"SUCCESS: {row[0]}")
+                else:
+                    print("ERROR: Invalid username or password")
+        except SQLAlchemyError as error:
+            print(f"ERROR: Database error - {str(error)}")
+
+    @staticmethod
+    def replace_password(username, expected, replacement):
+        """Replace a stored password, only if it still equals the expected value"""
+        try:
+            engine = DatabaseConnection.get_engine()
+            replace_password_sql = """
+                UPDATE webserver.users
+                SET password = :replacement, updated_time = NOW()
+                WHERE username = :username
+                AND password = :expected
+            """
+            with engine.connect() as conn:
+                result = conn.execute(
+                    text(replace_password_sql),
+                    {'username': username, 'expected': expected, 'replacement': replacement}
+                )
+                conn.commit()
+                if result.rowcount > 0:
+                    print("SUCCESS: Password replaced")
+                else:
+                    print("ERROR: Password changed concurrently")
+        except SQLAlchemyError as error:
+            print(f"ERROR: Database error - {str(error)}")
+
+
+def run_command(command, username, args):
+    """Run one command; args are the positional arguments after the username"""
+    if command == "check":
+        if len(args) < 1:
+            print("ERROR: Password required")
+            return
+        UserAuth.check_credentials(username, args[0])
+
+    elif command == "pending_register":
+        if len(args) < 3:
+            print("ERROR: Email and token required")
+            return
+        UserAuth.create_pending_registration(username, args[0], args[1], args[2])
+
+    elif command == "verify_register":
+        if len(args) < 1:
+            print("ERROR: Token required")
+            return
+        UserAuth.verify_and_register(username, args[0])
+
+    elif command == "get_password":
+        UserAuth.get_password(username)
+
+    elif command == "replace_password":
+        if len(args) < 2:
+            print("ERROR: Expected and replacement passwords required")
+            return
+        UserAuth.replace_password(username, args[0], args[1])
+
+    else:
+        print(f"ERROR: Unknown command {command}")
+
+
+def serve():
+    """Long-lived worker: one JSON request per stdin line, one SUCCESS:/ERROR: line back.
+
+    Request: {"command": "check", "args": ["username", "password"]}
+    The "ping" command answers "SUCCESS: pong" and is used for health checks.
+    Everything else the commands print goes to stderr so stdout only carries responses.
+    """
+    DatabaseConnection.reuse_engine = True
+    responses = sys.stdout
+    for line in sys.stdin:
+        line = line.strip()
+        if not line:
+            continue
+        captured = io.StringIO()
+        try:
+            request = json.loads(line)
+            command = request.get("command", "")
+            args = [str(arg) for arg in request.get("args", [])]
+            if command == "ping":
+                print("SUCCESS: pong", file=captured)
+            elif len(args) < 1:
+                print("ERROR: Insufficient arguments", file=captured)
+            else:
+                with redirect_stdout(captured):
+                    run_command(command, args[0], args[1:])
+        except Exception as e:
+            print(f"ERROR: {str(e)}", file=captured)
+
+        response = "ERROR: No valid response from authentication service"
+        for output in captured.getvalue().splitlines():
+            if output.startswith("SUCCESS: ") or output.startswith("ERROR: "):
+                response = output
+                break
+            print(output, file=sys.stderr)
+        responses.write(response.replace("\r", " ").replace("\n", " ") + "\n")
+        responses.flush()
+
+
 def main():
     """Main entry point for command line interface"""
+    if len(sys.argv) >= 2 and sys.argv[1] == "serve":
+        serve()
+        return
+
     if len(sys.argv) < 3:
         print("ERROR: Insufficient arguments")
         return
@@ -230,35 +357,7 @@ def main():
     username = sys.argv[2]
     
     try:
-        if command == "check":
-            if len(sys.argv) < 4:
-                print("ERROR: Password required")
-                return
-            password = sys.argv[3]
-            UserAuth.check_credentials(username, password)
-
-        
-        elif command == "pending_register":
-            if len(sys.argv) < 6:
-                print("ERROR: Email and token required")
-                return
-            password = sys.argv[3]
-            email = sys.argv[4]
-            token = sys.argv[5]
-            UserAuth.create_pending_registration(username, password, email, token)
- 
-        
-        elif command == "verify_register":
-            if len(sys.argv) < 4:
-                print("ERROR: Token required")
-                return
-            token = sys.argv[3]
-            UserAuth.verify_and_register(username, token)
-
-        
-        else:
-            print(f"ERROR: Unknown command {command}")
-            return
+        run_command(command, username, sys.argv[3:])
 
     except Exception as e:
         print(f"ERROR: {str(e)}")
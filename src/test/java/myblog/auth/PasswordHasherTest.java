@@ -0,0 +1,63 @@
+package myblog.auth;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+class PasswordHasherTest {
+    private final PasswordHasher hasher = new PasswordHasher(settings(100_000));
+
+    @AfterEach
+    void shutdown() {
+        hasher.shutdown();
+    }
+
+    @Test
+    void verifiesItsOwnHashes() throws PasswordHasher.BusyException {
+        String hash = hasher.hash("secret");
+        assertTrue(hash.startsWith(PasswordHasher.PREFIX), hash);
+        assertEquals(PasswordHasher.Verification.MATCH, hasher.verify("secret", hash));
+        assertEquals(PasswordHasher.Verification.MISMATCH, hasher.verify("Secret", hash));
+        assertNotEquals(hash, hasher.hash("secret"));
+    }
+
+    @Test
+    void hashesBelowTheWorkFactorNeedUpgrading() throws PasswordHasher.BusyException {
+        String weak = PasswordHasher.hash("secret", 1000);
+        assertEquals(PasswordHasher.Verification.MATCH_NEEDS_UPGRADE, hasher.verify("secret", weak));
+    }
+
+    @Test
+    void plainTextRowsMatchAndNeedUpgrading() throws PasswordHasher.BusyException {
+        assertEquals(PasswordHasher.Verification.MATCH_NEEDS_UPGRADE, hasher.verify("secret", "secret"));
+        assertEquals(PasswordHasher.Verification.MISMATCH, hasher.verify("wrong", "secret"));
+    }
+
+    // A wrong password for an unmigrated account must not answer faster than an unknown user,
+    // who is checked against the unmatchable hash
+    @Test
+    void plainTextRowsCostAHash() throws PasswordHasher.BusyException {
+        String unmatchable = hasher.unmatchableHash();
+        hasher.verify("warm up", unmatchable);
+        long started = System.nanoTime();
+        hasher.verify("wrong", unmatchable);
+        long unknownUser = System.nanoTime() - started;
+        started = System.nanoTime();
+        hasher.verify("wrong", "secret");
+        long plainText = System.nanoTime() - started;
+        assertTrue(plainText > unknownUser / 2, plainText + " ns against " + unknownUser + " ns");
+    }
+
+    @Test
+    void malformedHashesAreMismatches() throws PasswordHasher.BusyException {
+        assertEquals(PasswordHasher.Verification.MISMATCH, hasher.verify("x", PasswordHasher.PREFIX + "1$$"));
+        assertEquals(PasswordHasher.Verification.MISMATCH, hasher.verify("x", PasswordHasher.PREFIX + "a$b$c"));
+    }
+
+    private static PasswordHasher.Settings settings(int iterations) {
+        PasswordHasher.Settings settings = new PasswordHasher.Settings();
+        settings.iterations = iterations;
+        settings.threads = 1;
+        return settings;
+    }
+}
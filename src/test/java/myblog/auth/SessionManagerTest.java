@@ -0,0 +1,137 @@
+package myblog.auth;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+class SessionManagerTest {
+    private static final byte[] SECRET = "0123456789abcdef0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<SessionManager> managers = new ArrayList<>();
+    private final SessionManager manager = open(60_000);
+
+    @AfterEach
+    void shutdown() {
+        for (SessionManager opened : managers) {
+            opened.shutdown();
+        }
+    }
+
+    @Test
+    void createdTokensLookUpTheirSession() {
+        String token = manager.create("alice");
+        SessionManager.Session session = manager.lookup(token);
+        assertNotNull(session);
+        assertEquals("alice", session.username);
+        assertSame(session, manager.lookup(token));
+        assertNotEquals(token, manager.create("alice"));
+        assertEquals(2, manager.size());
+    }
+
+    @Test
+    void rejectsTamperedTokens() {
+        String token = manager.create("alice");
+        int dot = token.indexOf('.');
+        String id = token.substring(0, dot);
+        String signature = token.substring(dot + 1);
+        assertNull(manager.lookup(id + "." + flipLast(signature)));
+        assertNull(manager.lookup(flipLast(id) + "." + signature));
+        assertNull(manager.lookup(id));
+        assertNull(manager.lookup(id + "."));
+        assertNull(manager.lookup("." + signature));
+        assertNull(manager.lookup(null));
+        assertNull(manager.lookup(id + "." + signature + "A"));
+        assertNull(manager.lookup(id + "." + signature.substring(1)));
+        assertNull(manager.lookup(id + "." + signature.substring(0, signature.length() - 1) + "\u0141"));
+    }
+
+    // A token signed with another secret names a session this manager never issued
+    @Test
+    void rejectsTokensFromAnotherSecret() {
+        SessionManager other = SessionManager.withRandomSecret(60_000);
+        managers.add(other);
+        assertNull(manager.lookup(other.create("alice")));
+        assertNull(other.lookup(manager.create("alice")));
+    }
+
+    @Test
+    void invalidatedSessionsAreGone() {
+        String token = manager.create("alice");
+        String other = manager.create("bob");
+        manager.invalidate(token);
+        assertNull(manager.lookup(token));
+        assertNotNull(manager.lookup(other));
+        // Unknown or garbled tokens are ignored
+        manager.invalidate("garbage");
+        manager.invalidate(null);
+        assertEquals(1, manager.size());
+    }
+
+    @Test
+    void idleSessionsExpireOnLookup() throws InterruptedException {
+        SessionManager shortLived = open(50);
+        String token = shortLived.create("alice");
+        Thread.sleep(100);
+        assertNull(shortLived.lookup(token));
+        assertEquals(0, shortLived.size());
+    }
+
+    @Test
+    void lookupsKeepASessionAlive() throws InterruptedException {
+        SessionManager shortLived = open(200);
+        String token = shortLived.create("alice");
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(100);
+            assertNotNull(shortLived.lookup(token));
+        }
+    }
+
+    // Sessions nobody looks up again are dropped by the timer wheel
+    @Test
+    void timerWheelRemovesIdleSessions() throws InterruptedException {
+        SessionManager shortLived = open(50);
+        shortLived.create("alice");
+        shortLived.create("bob");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (shortLived.size() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, shortLived.size());
+    }
+
+    @Test
+    void findsTheTokenInACookieHeader() {
+        assertEquals("abc.def", SessionManager.tokenFromCookieHeader("SID=abc.def"));
+        assertEquals("abc.def", SessionManager.tokenFromCookieHeader("theme=dark; SID=abc.def ; lang=ja"));
+        assertEquals("abc.def", SessionManager.tokenFromCookieHeader("XSID=x; SID=abc.def"));
+        assertEquals("", SessionManager.tokenFromCookieHeader("SID="));
+        assertNull(SessionManager.tokenFromCookieHeader("theme=dark; sid=abc.def"));
+        assertNull(SessionManager.tokenFromCookieHeader(""));
+        assertNull(SessionManager.tokenFromCookieHeader(null));
+    }
+
+    @Test
+    void cookiesAreHttpOnlyAndLastAsLongAsTheSession() {
+        String cookie = manager.cookieFor("abc.def");
+        assertTrue(cookie.startsWith("SID=abc.def;"), cookie);
+        assertTrue(cookie.contains("HttpOnly"), cookie);
+        assertTrue(cookie.endsWith("Max-Age=60"), cookie);
+        String clearing = SessionManager.clearingCookie();
+        assertTrue(clearing.startsWith("SID=;"), clearing);
+        assertTrue(clearing.endsWith("Max-Age=0"), clearing);
+    }
+
+    private SessionManager open(long idleTimeoutMillis) {
+        SessionManager opened = new SessionManager(SECRET, idleTimeoutMillis);
+        managers.add(opened);
+        return opened;
+    }
+
+    private static String flipLast(String text) {
+        char last = text.charAt(text.length() - 1);
+        return text.substring(0, text.length() - 1) + (last == 'A' ? 'B' : 'A');
+    }
+}
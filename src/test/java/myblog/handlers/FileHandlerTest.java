@@ -0,0 +1,73 @@
+package myblog.handlers;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.junit.jupiter.api.Assertions.*;
+
+// Served from the default static root, which holds the pages and, under templates/, the raw templates
+class FileHandlerTest {
+    @Test
+    void servesPagesFromTheHtmlDirectory() throws IOException {
+        assertTrue(send("/login.html").startsWith("HTTP/1.1 200 "));
+    }
+
+    @Test
+    void refusesDotDotSegmentsBeforeThePagePrefixIsAdded() throws IOException {
+        // "/html/../templates/mypage.html" would still be inside the static root
+        assertTrue(send("/../templates/mypage.html").startsWith("HTTP/1.1 404 "));
+        assertTrue(send("/../templates/verification-email.html").startsWith("HTTP/1.1 404 "));
+        assertTrue(send("/css/../../templates/mypage.html").startsWith("HTTP/1.1 404 "));
+        assertTrue(send("/css/../css/styles.css").startsWith("HTTP/1.1 404 "));
+    }
+
+    @Test
+    void neverServesTemplates() throws IOException {
+        assertTrue(send("/templates/mypage.html").startsWith("HTTP/1.1 404 "));
+        assertTrue(send("/templates/verify.html").startsWith("HTTP/1.1 404 "));
+    }
+
+    @Test
+    void cacheRefusesPathsUnderTemplatesOrOutsideTheRoot() throws IOException {
+        Path root = Files.createTempDirectory("static");
+        StaticAssetCache cache = new StaticAssetCache(root, null, 1024, 1024);
+        assertEquals(root.toAbsolutePath().resolve("css/a.css"), cache.resolve("/css/a.css"));
+        assertNull(cache.resolve("/templates/mypage.html"));
+        assertNull(cache.resolve("/html/../templates/mypage.html"));
+        assertNull(cache.resolve("/../secret.txt"));
+        assertNotNull(cache.resolve("/templates.css"));
+    }
+
+    // A build-time .gz file is only sent as the gzip encoding of the file next to it
+    @Test
+    void cacheRefusesPrecompressedVariantsAsFiles() throws IOException {
+        Path root = Files.createTempDirectory("static");
+        Files.createDirectories(root.resolve("css"));
+        Files.writeString(root.resolve("css/a.css"), "a {}");
+        Files.write(root.resolve("css/a.css.gz"), new byte[] {0x1f, (byte) 0x8b});
+        Files.write(root.resolve("css/archive.gz"), new byte[] {0x1f, (byte) 0x8b});
+        StaticAssetCache cache = new StaticAssetCache(root, null, 1024, 1024);
+        assertNull(cache.resolve("/css/a.css.gz"));
+        assertNotNull(cache.resolve("/css/a.css"));
+        assertNotNull(cache.resolve("/css/archive.gz"));
+    }
+
+    @Test
+    void findsDotDotSegments() {
+        assertTrue(FileHandler.hasDotDotSegment("/../a.html"));
+        assertTrue(FileHandler.hasDotDotSegment("/a/.."));
+        assertTrue(FileHandler.hasDotDotSegment(".."));
+        assertFalse(FileHandler.hasDotDotSegment("/a..b/c.html"));
+        assertFalse(FileHandler.hasDotDotSegment("/.../a"));
+        assertFalse(FileHandler.hasDotDotSegment("/a/./b"));
+    }
+
+    private static String send(String path) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileHandler.sendFileResponse(new ResponseWriter(out), path);
+        return out.toString(StandardCharsets.ISO_8859_1);
+    }
+}
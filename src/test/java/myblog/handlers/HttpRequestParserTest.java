@@ -0,0 +1,189 @@
+package myblog.handlers;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+class HttpRequestParserTest {
+    private static final HttpRequestParser.Limits LIMITS = new HttpRequestParser.Limits(64, 256, 8, 100);
+
+    // Hands out at most a few bytes per read, so every line and chunk straddles reads
+    private static class TrickleInputStream extends InputStream {
+        private final ByteArrayInputStream source;
+        private final int maxRead;
+
+        TrickleInputStream(String text, int maxRead) {
+            this.source = new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1));
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public int read() {
+            return source.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            return source.read(b, off, Math.min(len, maxRead));
+        }
+    }
+
+    @Test
+    void parsesTheHead() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(LIMITS);
+        ByteBuffer buffer = bytes("GET /a?b=c HTTP/1.1\r\nHost: x\r\nAccept: text/html\r\naccept: */*\r\n\r\n");
+        assertTrue(parser.parseHead(buffer));
+        assertEquals("GET", parser.getMethod());
+        assertEquals("/a?b=c", parser.getTarget());
+        assertEquals("HTTP/1.1", parser.getVersion());
+        assertEquals("x", parser.getHeaders().get("host"));
+        assertEquals("text/html, */*", parser.getHeaders().get("accept"));
+        assertTrue(parser.isBodyComplete());
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    void waitsForTheRestOfAnIncompleteHead() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(LIMITS);
+        assertTrue(parser.isIdle());
+        assertFalse(parser.parseHead(bytes("GET / HT")));
+        assertFalse(parser.isIdle());
+        assertFalse(parser.parseHead(bytes("TP/1.1\r\nHost:")));
+        assertTrue(parser.parseHead(bytes(" x\r\n\r\n")));
+        assertEquals("HTTP/1.1", parser.getVersion());
+        assertEquals("x", parser.getHeaders().get("host"));
+    }
+
+    @Test
+    void decodesChunkedBodiesWithExtensionsAndTrailers() throws IOException {
+        String request = "POST /p HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "5;name=value\r\nhello\r\n1\r\n \r\nA\r\n0123456789\r\n0\r\nX-Trailer: t\r\n\r\n";
+        HttpRequestParser parser = new HttpRequestParser(LIMITS);
+        ByteBuffer buffer = bytes(request);
+        assertTrue(parser.parseHead(buffer));
+        assertEquals(-1, parser.getContentLength());
+        assertEquals("hello 0123456789", readBody(parser, buffer, InputStream.nullInputStream()));
+        assertTrue(parser.isBodyComplete());
+    }
+
+    @Test
+    void decodesBodiesArrivingAFewBytesAtATime() throws IOException {
+        String request = "POST /p HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "3\r\nabc\r\n10\r\n0123456789abcdef\r\n0\r\n\r\n";
+        HttpRequestParser parser = new HttpRequestParser(LIMITS);
+        ByteBuffer buffer = ByteBuffer.allocate(16).flip();
+        InputStream in = new TrickleInputStream(request, 3);
+        while (!parser.parseHead(buffer)) {
+            assertTrue(HttpRequestParser.fill(buffer, in));
+        }
+        assertEquals("abc0123456789abcdef", readBody(parser, buffer, in));
+    }
+
+    // A CRLF left over after a request is not the start of another one, so hanging up after
+    // it is an ordinary close
+    @Test
+    void skipsEmptyLinesBeforeARequest() throws IOException {
+        HttpRequestParser parser = new HttpRequestParser(LIMITS);
+        ByteBuffer buffer = bytes("\r\n\n\r");
+        assertFalse(parser.parseHead(buffer));
+        assertFalse(buffer.hasRemaining());
+        assertTrue(parser.isIdle());
+        assertTrue(parser.parseHead(bytes("\nGET / HTTP/1.1\r\n\r\n")));
+        assertFalse(parser.isIdle());
+        assertEquals("/", parser.getTarget());
+    }
+
+    // Requests sent back to back are read one after another out of the same small buffer,
+    // each body ending exactly where it should however the reads fall
+    @Test
+    void pipelinedRequestsAcrossBufferBoundaries() throws IOException {
+        String pipeline = "POST /one HTTP/1.1\r\nContent-Length: 11\r\n\r\nfirst body!"
+            + "POST /two HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n6\r\nsecond\r\n0\r\n\r\n"
+            + "GET /three HTTP/1.1\r\n\r\n";
+        for (int maxRead = 1; maxRead <= 32; maxRead++) {
+            HttpRequestParser parser = new HttpRequestParser(LIMITS);
+            ByteBuffer buffer = ByteBuffer.allocate(24).flip();
+            InputStream in = new TrickleInputStream(pipeline, maxRead);
+            String[] targets = {"/one", "/two", "/three"};
+            String[] bodies = {"first body!", "second", ""};
+            for (int i = 0; i < targets.length; i++) {
+                parser.reset();
+                while (!parser.parseHead(buffer)) {
+                    assertTrue(HttpRequestParser.fill(buffer, in), "input ended early");
+                }
+                assertEquals(targets[i], parser.getTarget());
+                assertEquals(bodies[i], readBody(parser, buffer, in));
+            }
+            assertFalse(buffer.hasRemaining());
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void rejectsARequestLineOverTheLimit() {
+        assertStatus(414, "GET /" + "a".repeat(64) + " HTTP/1.1\r\n\r\n");
+    }
+
+    @Test
+    void rejectsHeadersOverTheLimit() {
+        assertStatus(431, "GET / HTTP/1.1\r\nX-Big: " + "a".repeat(256) + "\r\n\r\n");
+        StringBuilder many = new StringBuilder("GET / HTTP/1.1\r\n");
+        for (int i = 0; i < 9; i++) {
+            many.append("X-").append(i).append(": v\r\n");
+        }
+        assertStatus(431, many.append("\r\n").toString());
+    }
+
+    @Test
+    void rejectsBodiesOverTheLimit() throws IOException {
+        assertStatus(413, "POST / HTTP/1.1\r\nContent-Length: 101\r\n\r\n");
+
+        // Chunked bodies are only known to be too large once the chunk sizes add up
+        HttpRequestParser parser = new HttpRequestParser(LIMITS);
+        ByteBuffer buffer = bytes("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+            + "40\r\n" + "a".repeat(64) + "\r\n40\r\n" + "a".repeat(64) + "\r\n0\r\n\r\n");
+        assertTrue(parser.parseHead(buffer));
+        HttpRequestParser.ParseException e = assertThrows(HttpRequestParser.ParseException.class,
+            () -> readBody(parser, buffer, InputStream.nullInputStream()));
+        assertEquals(413, e.statusCode);
+    }
+
+    @Test
+    void rejectsAmbiguousOrUnsupportedFraming() {
+        assertStatus(400, "POST / HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n");
+        assertStatus(501, "POST / HTTP/1.1\r\nTransfer-Encoding: gzip\r\n\r\n");
+        assertStatus(400, "POST / HTTP/1.1\r\nContent-Length: 5x\r\n\r\n");
+        assertStatus(400, "GET / HTTP/1.1\r\n folded: header\r\n\r\n");
+        assertStatus(400, "GET\r\n\r\n");
+    }
+
+    @Test
+    void rejectsMalformedChunks() throws IOException {
+        for (String body : new String[] {"zz\r\nab\r\n0\r\n\r\n", "2\r\nabX\r\n0\r\n\r\n", "\r\n"}) {
+            HttpRequestParser parser = new HttpRequestParser(LIMITS);
+            ByteBuffer buffer = bytes("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n" + body);
+            assertTrue(parser.parseHead(buffer));
+            HttpRequestParser.ParseException e = assertThrows(HttpRequestParser.ParseException.class,
+                () -> readBody(parser, buffer, InputStream.nullInputStream()));
+            assertEquals(400, e.statusCode);
+        }
+    }
+
+    private static void assertStatus(int status, String request) {
+        HttpRequestParser.ParseException e = assertThrows(HttpRequestParser.ParseException.class,
+            () -> new HttpRequestParser(LIMITS).parseHead(bytes(request)));
+        assertEquals(status, e.statusCode);
+    }
+
+    private static String readBody(HttpRequestParser parser, ByteBuffer buffer, InputStream in) throws IOException {
+        return new String(parser.bodyStream(buffer, in).readAllBytes(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static ByteBuffer bytes(String text) {
+        return ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
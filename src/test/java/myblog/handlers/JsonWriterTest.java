@@ -0,0 +1,98 @@
+package myblog.handlers;
+
+import org.junit.jupiter.api.Test;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import static org.junit.jupiter.api.Assertions.*;
+
+class JsonWriterTest {
+    @Test
+    void writesNestedDocuments() {
+        JsonWriter writer = new JsonWriter().beginObject()
+            .name("success").value(true)
+            .name("count").value(-42)
+            .name("ratio").value(0.5)
+            .name("missing").value((String) null)
+            .name("list").beginArray().value(1).value("two").beginObject().endObject().endArray()
+            .endObject();
+        assertEquals("{\"success\":true,\"count\":-42,\"ratio\":0.5,\"missing\":null,\"list\":[1,\"two\",{}]}",
+            text(writer));
+    }
+
+    @Test
+    void escapesQuotesBackslashesAndControlCharacters() {
+        assertEquals("\"a\\\"b\\\\c\"", string("a\"b\\c"));
+        assertEquals("\"\\b\\f\\n\\r\\t\"", string("\b\f\n\r\t"));
+        assertEquals("\"\\u0000\\u0001\\u001f\"", string("\u0000\u0001\u001f"));
+        // DEL and "/" need no escape
+        assertEquals("\"\u007f/\"", string("\u007f/"));
+    }
+
+    @Test
+    void escapesLineAndParagraphSeparators() {
+        assertEquals("\"\\u2028\\u2029\"", string("\u2028\u2029"));
+    }
+
+    @Test
+    void encodesNonAsciiAsUtf8() {
+        String text = "é山田€";
+        assertArrayEquals(("\"" + text + "\"").getBytes(StandardCharsets.UTF_8), bytes(new JsonWriter().value(text)));
+    }
+
+    @Test
+    void encodesSurrogatePairsAsOneFourByteSequence() {
+        String emoji = "\uD83D\uDE00";
+        byte[] expected = ("\"" + emoji + "\"").getBytes(StandardCharsets.UTF_8);
+        assertEquals(6, expected.length);
+        assertArrayEquals(expected, bytes(new JsonWriter().value(emoji)));
+    }
+
+    // Lone surrogates have no UTF-8 encoding; escaped, they still round-trip through JSON
+    @Test
+    void escapesLoneSurrogates() {
+        assertEquals("\"a\\ud83db\"", string("a\uD83Db"));
+        assertEquals("\"\\ude00\"", string("\uDE00"));
+        assertEquals("\"\\ud83d\"", string("\uD83D"));
+        assertEquals("\"\\ude00\\ud83d\"", string("\uDE00\uD83D"));
+    }
+
+    @Test
+    void writesNonFiniteNumbersAsNull() {
+        assertEquals("[null,null," + 1e300 + "]",
+            text(new JsonWriter().beginArray().value(Double.NaN).value(Double.POSITIVE_INFINITY).value(1e300)
+                .endArray()));
+        assertEquals(Long.toString(Long.MIN_VALUE), text(new JsonWriter().value(Long.MIN_VALUE)));
+    }
+
+    @Test
+    void rejectsUnbalancedDocuments() {
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().name("outside"));
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().beginObject().name("a").endObject());
+        assertThrows(IllegalStateException.class, () -> new JsonWriter().endArray());
+    }
+
+    @Test
+    void pooledWritersStartEmpty() {
+        JsonWriter writer = JsonWriter.acquire();
+        writer.beginObject().name("a");
+        JsonWriter.release(writer);
+        JsonWriter reused = JsonWriter.acquire();
+        try {
+            assertEquals("{}", text(reused.beginObject().endObject()));
+        } finally {
+            JsonWriter.release(reused);
+        }
+    }
+
+    private static String string(String value) {
+        return text(new JsonWriter().value(value));
+    }
+
+    private static String text(JsonWriter writer) {
+        return new String(bytes(writer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] bytes(JsonWriter writer) {
+        return Arrays.copyOf(writer.buffer(), writer.size());
+    }
+}
@@ -0,0 +1,27 @@
+package myblog.handlers;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ResponseWriterTest {
+    @Test
+    void sendsTheCallersReasonPhrase() throws IOException {
+        assertEquals("HTTP/1.1 413 Payload Too Large", statusLine(413, "Payload Too Large"));
+        assertEquals("HTTP/1.1 413 Content Too Large", statusLine(413, "Content Too Large"));
+        assertEquals("HTTP/1.1 413 Payload Too Large", statusLine(413, "Payload Too Large"));
+        assertEquals("HTTP/1.1 200 OK", statusLine(200, "OK"));
+        assertEquals("HTTP/1.1 299 Unusual", statusLine(299, "Unusual"));
+    }
+
+    private static String statusLine(int statusCode, String statusText) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ResponseWriter writer = new ResponseWriter(bytes);
+        writer.sendContent(statusCode, statusText, "text/plain", "x");
+        assertEquals(statusCode, writer.getStatus());
+        String response = new String(bytes.toByteArray(), StandardCharsets.ISO_8859_1);
+        return response.substring(0, response.indexOf("\r\n"));
+    }
+}
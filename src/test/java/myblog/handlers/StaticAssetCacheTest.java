@@ -0,0 +1,89 @@
+package myblog.handlers;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicBoolean;
+import static org.junit.jupiter.api.Assertions.*;
+
+class StaticAssetCacheTest {
+    private static final String TEXT = "text/plain; charset=UTF-8";
+
+    @Test
+    void servesHitsUntilTheFileIsInvalidated() throws IOException {
+        Path root = Files.createTempDirectory("static");
+        Path file = root.toAbsolutePath().resolve("a.txt");
+        Files.writeString(file, "one");
+        StaticAssetCache cache = new StaticAssetCache(root, null, 1024, 1024);
+        StaticAssetCache.Entry first = cache.get(file, TEXT);
+        assertSame(first, cache.get(file, TEXT));
+        assertEquals(3, cache.getUsedBytes());
+
+        Files.writeString(file, "two!");
+        assertSame(first, cache.get(file, TEXT));
+        cache.invalidate(file);
+        StaticAssetCache.Entry second = cache.get(file, TEXT);
+        assertEquals("two!", new String(second.body, StandardCharsets.UTF_8));
+        assertNotEquals(first.etag, second.etag);
+        assertEquals(4, cache.getUsedBytes());
+    }
+
+    // A load that read the old bytes must not cache them after the invalidation for the new
+    // ones has run, or they would be served with 304s until the file changed again
+    @Test
+    void loadsRacingAnInvalidationAreNotCached() throws Exception {
+        Path root = Files.createTempDirectory("static");
+        Path file = root.toAbsolutePath().resolve("a.txt");
+        Files.writeString(file, "0");
+        StaticAssetCache cache = new StaticAssetCache(root, null, 1024, 1024);
+        AtomicBoolean done = new AtomicBoolean();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                try {
+                    cache.get(file, TEXT);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        });
+        reader.start();
+        String last = null;
+        for (int i = 1; i <= 2000; i++) {
+            last = Integer.toString(i);
+            Files.writeString(file, last);
+            cache.invalidate(file);
+        }
+        done.set(true);
+        reader.join();
+        assertEquals(last, new String(cache.get(file, TEXT).body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntriesOverTheBudget() throws IOException {
+        Path root = Files.createTempDirectory("static").toAbsolutePath();
+        StaticAssetCache cache = new StaticAssetCache(root, null, 10, 10);
+        Path a = Files.writeString(root.resolve("a.txt"), "aaaa");
+        Path b = Files.writeString(root.resolve("b.txt"), "bbbb");
+        Path c = Files.writeString(root.resolve("c.txt"), "cccc");
+        StaticAssetCache.Entry entryA = cache.get(a, TEXT);
+        cache.get(b, TEXT);
+        assertSame(entryA, cache.get(a, TEXT));
+        cache.get(c, TEXT);
+        assertEquals(8, cache.getUsedBytes());
+        assertSame(entryA, cache.get(a, TEXT));
+    }
+
+    @Test
+    void streamsFilesOverTheEntryLimitFromDisk() throws IOException {
+        Path root = Files.createTempDirectory("static").toAbsolutePath();
+        Path large = Files.writeString(root.resolve("large.txt"), "x".repeat(100));
+        StaticAssetCache cache = new StaticAssetCache(root, null, 1024, 50);
+        StaticAssetCache.Entry entry = cache.get(large, TEXT);
+        assertNull(entry.body);
+        assertEquals(100, entry.length);
+        assertEquals(0, cache.getUsedBytes());
+    }
+}
@@ -0,0 +1,111 @@
+package myblog.http2;
+
+import org.junit.jupiter.api.Test;
+import java.util.List;
+import static org.junit.jupiter.api.Assertions.*;
+
+// The header block examples of RFC 7541 Appendix C, decoded in sequence on one decoder as
+// the RFC does, so each block also depends on the dynamic table the previous ones left
+class HpackDecoderTest {
+    private static final String DATE_21 = "Mon, 21 Oct 2013 20:13:21 GMT";
+    private static final String DATE_22 = "Mon, 21 Oct 2013 20:13:22 GMT";
+    private static final String LOCATION = "https://www.example.com";
+    private static final String COOKIE = "foo=ASDJKHQKBZXOQWEOPIUAXQWEOIU; max-age=3600; version=1";
+
+    // C.3: requests, literals without Huffman coding
+    @Test
+    void decodesRequestsWithoutHuffman() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertFields(decode(decoder, "828684410f7777772e6578616d706c652e636f6d"),
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertFields(decode(decoder, "828684be58086e6f2d6361636865"),
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+            "cache-control", "no-cache");
+        assertFields(decode(decoder, "828785bf400a637573746f6d2d6b65790c637573746f6d2d76616c7565"),
+            ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+            "custom-key", "custom-value");
+    }
+
+    // C.4: the same requests with Huffman-coded literals
+    @Test
+    void decodesRequestsWithHuffman() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(4096);
+        assertFields(decode(decoder, "828684418cf1e3c2e5f23a6ba0ab90f4ff"),
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com");
+        assertFields(decode(decoder, "828684be5886a8eb10649cbf"),
+            ":method", "GET", ":scheme", "http", ":path", "/", ":authority", "www.example.com",
+            "cache-control", "no-cache");
+        assertFields(decode(decoder, "828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf"),
+            ":method", "GET", ":scheme", "https", ":path", "/index.html", ":authority", "www.example.com",
+            "custom-key", "custom-value");
+    }
+
+    // C.5: responses with a 256-byte table, where every block evicts older entries
+    @Test
+    void decodesResponsesWithEviction() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertFields(decode(decoder, "4803333032580770726976617465611d4d6f6e2c203231204f63742032303133"
+                + "2032303a31333a323120474d546e1768747470733a2f2f7777772e6578616d706c652e636f6d"),
+            ":status", "302", "cache-control", "private", "date", DATE_21, "location", LOCATION);
+        assertFields(decode(decoder, "4803333037c1c0bf"),
+            ":status", "307", "cache-control", "private", "date", DATE_21, "location", LOCATION);
+        assertFields(decode(decoder, "88c1611d4d6f6e2c203231204f637420323031332032303a31333a323220474d54"
+                + "c05a04677a69707738666f6f3d4153444a4b48514b425a584f5157454f50495541585157454f49553b"
+                + "206d61782d6167653d333630303b2076657273696f6e3d31"),
+            ":status", "200", "cache-control", "private", "date", DATE_22, "location", LOCATION,
+            "content-encoding", "gzip", "set-cookie", COOKIE);
+        assertEvicted(decoder);
+    }
+
+    // C.6: the same responses with Huffman-coded literals
+    @Test
+    void decodesResponsesWithHuffmanAndEviction() throws Http2Exception {
+        HpackDecoder decoder = new HpackDecoder(256);
+        assertFields(decode(decoder, "488264025885aec3771a4b6196d07abe941054d444a8200595040b8166e082a62d1b"
+                + "ff6e919d29ad171863c78f0b97c8e9ae82ae43d3"),
+            ":status", "302", "cache-control", "private", "date", DATE_21, "location", LOCATION);
+        assertFields(decode(decoder, "4883640effc1c0bf"),
+            ":status", "307", "cache-control", "private", "date", DATE_21, "location", LOCATION);
+        assertFields(decode(decoder, "88c16196d07abe941054d444a8200595040b8166e084a62d1bffc05a839bd9ab77ad"
+                + "94e7821dd7f2e6c7b335dfdfcd5b3960d5af27087f3672c1ab270fb5291f9587316065c003ed4ee5b1063d5007"),
+            ":status", "200", "cache-control", "private", "date", DATE_22, "location", LOCATION,
+            "content-encoding", "gzip", "set-cookie", COOKIE);
+        assertEvicted(decoder);
+    }
+
+    @Test
+    void rejectsTableSizeUpdateAboveTheAdvertisedSize() {
+        HpackDecoder decoder = new HpackDecoder(256);
+        Http2Exception e = assertThrows(Http2Exception.class, () -> decode(decoder, "3fe11f"));
+        assertEquals(Http2Exception.COMPRESSION_ERROR, e.errorCode);
+    }
+
+    // After the third response of C.5/C.6 the table holds set-cookie, content-encoding and
+    // date (62-64); cache-control, at 65 before that block, must have been evicted
+    private static void assertEvicted(HpackDecoder decoder) throws Http2Exception {
+        assertFields(decode(decoder, "bebfc0"), "set-cookie", COOKIE, "content-encoding", "gzip", "date", DATE_22);
+        Http2Exception e = assertThrows(Http2Exception.class, () -> decode(decoder, "c1"));
+        assertEquals(Http2Exception.COMPRESSION_ERROR, e.errorCode);
+    }
+
+    private static List<String[]> decode(HpackDecoder decoder, String hex) throws Http2Exception {
+        byte[] block = hex(hex);
+        return decoder.decode(block, block.length);
+    }
+
+    private static void assertFields(List<String[]> fields, String... expected) {
+        assertEquals(expected.length / 2, fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            assertEquals(expected[2 * i], fields.get(i)[0]);
+            assertEquals(expected[2 * i + 1], fields.get(i)[1]);
+        }
+    }
+
+    private static byte[] hex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,247 @@
+package myblog.http2;
+
+import myblog.handlers.WebServerHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+// A client speaking raw frames to the blocking server's connection handler over loopback:
+// both ways into HTTP/2, and a response that has to wait for WINDOW_UPDATE
+class Http2ConnectionTest {
+    private static final int DATA = 0x0;
+    private static final int HEADERS = 0x1;
+    private static final int RST_STREAM = 0x3;
+    private static final int SETTINGS = 0x4;
+    private static final int GOAWAY = 0x7;
+    private static final int WINDOW_UPDATE = 0x8;
+    private static final int FLAG_END_STREAM = 0x1;
+    private static final int FLAG_ACK = 0x1;
+    private static final int FLAG_END_HEADERS = 0x4;
+    private static final int DEFAULT_WINDOW = 65_535;
+    // Larger than the initial window, served from the static files
+    private static final String LARGE_FILE = "/img/login_image.jpg";
+
+    private static class Frame {
+        final int type;
+        final int flags;
+        final int streamId;
+        final byte[] payload;
+
+        Frame(int type, int flags, int streamId, byte[] payload) {
+            this.type = type;
+            this.flags = flags;
+            this.streamId = streamId;
+            this.payload = payload;
+        }
+    }
+
+    private ServerSocket server;
+    private Socket client;
+    private DataInputStream in;
+    private OutputStream out;
+    private final HpackEncoder encoder = new HpackEncoder(4096);
+    private final HpackDecoder decoder = new HpackDecoder(4096);
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Thread handler = new Thread(new WebServerHandler(server.accept()));
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+        client = new Socket(InetAddress.getLoopbackAddress(), server.getLocalPort());
+        client.setSoTimeout(5000);
+        in = new DataInputStream(client.getInputStream());
+        out = client.getOutputStream();
+    }
+
+    @AfterEach
+    void stopServer() throws IOException {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    void priorKnowledgePrefaceIsAnsweredWithSettingsAndServesRequests() throws IOException {
+        out.write(Http2Connection.PREFACE);
+        writeFrame(SETTINGS, 0, 0, new byte[0]);
+        writeRequest(1, "/");
+
+        Frame first = readFrame();
+        assertEquals(SETTINGS, first.type);
+        assertEquals(0, first.flags & FLAG_ACK);
+        Map<String, String> headers = readResponse(1, new ByteArrayOutputStream());
+        assertEquals("200", headers.get(":status"));
+    }
+
+    @Test
+    void h2cUpgradeSwitchesProtocolsAndAnswersOnStreamOne() throws IOException {
+        out.write(("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\n"
+            + "Upgrade: h2c\r\nHTTP2-Settings: AAMAAABkAAQAAP__\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+        String head = readHttp1Head();
+        assertTrue(head.startsWith("HTTP/1.1 101 "), head);
+        assertTrue(head.toLowerCase().contains("upgrade: h2c"), head);
+
+        Frame first = readFrame();
+        assertEquals(SETTINGS, first.type);
+        assertEquals(0, first.flags & FLAG_ACK);
+        out.write(Http2Connection.PREFACE);
+        writeFrame(SETTINGS, 0, 0, new byte[0]);
+        Map<String, String> headers = readResponse(1, new ByteArrayOutputStream());
+        assertEquals("200", headers.get(":status"));
+
+        // The upgraded connection takes further requests as ordinary streams
+        writeRequest(3, "/");
+        assertEquals("200", readResponse(3, new ByteArrayOutputStream()).get(":status"));
+    }
+
+    @Test
+    void largeResponseStopsAtTheWindowAndResumesAfterWindowUpdate() throws IOException {
+        out.write(Http2Connection.PREFACE);
+        writeFrame(SETTINGS, 0, 0, new byte[0]);
+        writeRequest(1, LARGE_FILE);
+
+        Map<String, String> headers = null;
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        while (body.size() < DEFAULT_WINDOW) {
+            Frame frame = readFrame();
+            if (frame.type == HEADERS && frame.streamId == 1) {
+                headers = decodeHeaders(frame.payload);
+            } else if (frame.type == DATA) {
+                assertEquals(0, frame.flags & FLAG_END_STREAM, "response ended within the first window");
+                body.write(frame.payload);
+            }
+        }
+        assertNotNull(headers);
+        assertEquals("200", headers.get(":status"));
+        long length = Long.parseLong(headers.get("content-length"));
+        assertTrue(length > DEFAULT_WINDOW);
+        assertEquals(DEFAULT_WINDOW, body.size());
+
+        // Nothing more may arrive until the window is opened
+        client.setSoTimeout(300);
+        assertThrows(SocketTimeoutException.class, () -> {
+            while (true) {
+                Frame frame = readFrame();
+                assertTrue(frame.type != DATA, "DATA sent beyond the flow-control window");
+            }
+        });
+        client.setSoTimeout(5000);
+
+        int increment = (int) length;
+        writeFrame(WINDOW_UPDATE, 0, 0, intBytes(increment));
+        writeFrame(WINDOW_UPDATE, 0, 1, intBytes(increment));
+        readResponseBody(1, body);
+        assertEquals(length, body.size());
+    }
+
+    private void writeRequest(int streamId, String path) throws IOException {
+        ByteArrayOutputStream block = new ByteArrayOutputStream();
+        encoder.encode(List.of(new String[] {":method", "GET"}, new String[] {":scheme", "http"},
+            new String[] {":path", path}, new String[] {":authority", "localhost"}), block);
+        writeFrame(HEADERS, FLAG_END_HEADERS | FLAG_END_STREAM, streamId, block.toByteArray());
+    }
+
+    // Reads up to the end of the stream's response, skipping other frames
+    private Map<String, String> readResponse(int streamId, ByteArrayOutputStream body) throws IOException {
+        while (true) {
+            Frame frame = nextFrameOn(streamId);
+            if (frame.type == HEADERS) {
+                Map<String, String> headers = decodeHeaders(frame.payload);
+                if ((frame.flags & FLAG_END_STREAM) == 0) {
+                    readResponseBody(streamId, body);
+                }
+                return headers;
+            }
+        }
+    }
+
+    private void readResponseBody(int streamId, ByteArrayOutputStream body) throws IOException {
+        while (true) {
+            Frame frame = nextFrameOn(streamId);
+            if (frame.type == DATA) {
+                body.write(frame.payload);
+                if ((frame.flags & FLAG_END_STREAM) != 0) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private Frame nextFrameOn(int streamId) throws IOException {
+        while (true) {
+            Frame frame = readFrame();
+            if (frame.type == GOAWAY || frame.type == RST_STREAM && frame.streamId == streamId) {
+                fail("Stream " + streamId + " ended by frame type " + frame.type);
+            }
+            if (frame.type == SETTINGS && (frame.flags & FLAG_ACK) == 0) {
+                writeFrame(SETTINGS, FLAG_ACK, 0, new byte[0]);
+            }
+            if (frame.streamId == streamId) {
+                return frame;
+            }
+        }
+    }
+
+    private Map<String, String> decodeHeaders(byte[] block) throws Http2Exception {
+        Map<String, String> headers = new HashMap<>();
+        for (String[] field : decoder.decode(block, block.length)) {
+            headers.put(field[0], field[1]);
+        }
+        return headers;
+    }
+
+    private String readHttp1Head() throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.indexOf("\r\n\r\n") < 0) {
+            head.append((char) in.readUnsignedByte());
+        }
+        return head.toString();
+    }
+
+    private Frame readFrame() throws IOException {
+        int length = in.readUnsignedByte() << 16 | in.readUnsignedShort();
+        int type = in.readUnsignedByte();
+        int flags = in.readUnsignedByte();
+        int streamId = in.readInt() & 0x7fffffff;
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(type, flags, streamId, payload);
+    }
+
+    private void writeFrame(int type, int flags, int streamId, byte[] payload) throws IOException {
+        byte[] header = {(byte) (payload.length >> 16), (byte) (payload.length >> 8), (byte) payload.length,
+            (byte) type, (byte) flags, (byte) (streamId >> 24), (byte) (streamId >> 16), (byte) (streamId >> 8),
+            (byte) streamId};
+        out.write(header);
+        out.write(payload);
+        out.flush();
+    }
+
+    private static byte[] intBytes(int value) {
+        return new byte[] {(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value};
+    }
+}
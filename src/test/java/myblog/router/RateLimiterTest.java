@@ -0,0 +1,113 @@
+package myblog.router;
+
+import org.junit.jupiter.api.Test;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+// The clock is passed in, so refill is tested without sleeping
+class RateLimiterTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final long start = System.nanoTime();
+
+    @Test
+    void allowsABurstThenOneRequestPerInterval() {
+        RateLimiter limiter = new RateLimiter("test", new RateLimiter.Limit(3, SECOND), null, 100);
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start));
+        }
+        assertEquals(SECOND, limiter.tryAcquireAddress("10.0.0.1", start));
+        assertEquals(SECOND / 2, limiter.tryAcquireAddress("10.0.0.1", start + SECOND / 2));
+
+        // One token back per interval, not the whole burst
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start + SECOND));
+        assertEquals(SECOND, limiter.tryAcquireAddress("10.0.0.1", start + SECOND));
+    }
+
+    @Test
+    void refillsTheWholeBurstAfterBurstIntervals() {
+        RateLimiter limiter = new RateLimiter("test", new RateLimiter.Limit(3, SECOND), null, 100);
+        for (int i = 0; i < 3; i++) {
+            limiter.tryAcquireAddress("10.0.0.1", start);
+        }
+        long later = start + 3 * SECOND;
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", later));
+        }
+        assertTrue(limiter.tryAcquireAddress("10.0.0.1", later) > 0);
+    }
+
+    // Refused requests take no token, so a client that keeps retrying is not locked out longer
+    @Test
+    void refusedRequestsDoNotUseTokens() {
+        RateLimiter limiter = new RateLimiter("test", new RateLimiter.Limit(1, SECOND), null, 100);
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start));
+        for (int i = 0; i < 10; i++) {
+            assertTrue(limiter.tryAcquireAddress("10.0.0.1", start + i) > 0);
+        }
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start + SECOND));
+    }
+
+    @Test
+    void keysHaveSeparateBuckets() {
+        RateLimiter.Limit one = new RateLimiter.Limit(1, SECOND);
+        RateLimiter limiter = new RateLimiter("test", one, one, 100);
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start));
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.2", start));
+        assertEquals(0, limiter.tryAcquireUsername("alice", start));
+        assertEquals(0, limiter.tryAcquireUsername("bob", start));
+        assertTrue(limiter.tryAcquireUsername(" Alice ", start) > 0);
+    }
+
+    @Test
+    void nullLimitsLeaveThatKeyUnlimited() {
+        RateLimiter limiter = new RateLimiter("test", null, new RateLimiter.Limit(1, SECOND), 100);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start));
+        }
+        assertEquals(0, limiter.getTrackedKeys());
+    }
+
+    @Test
+    void refusesNewKeysWhileTheTableIsFull() {
+        RateLimiter limiter = new RateLimiter("test", new RateLimiter.Limit(2, SECOND), null, 2);
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start));
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.2", start));
+        assertEquals(SECOND, limiter.tryAcquireAddress("10.0.0.3", start));
+        assertEquals(1, limiter.getRefusedWhenFull());
+        // Tracked keys keep their own limits
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.1", start));
+        assertTrue(limiter.tryAcquireAddress("10.0.0.1", start) > 0);
+
+        // Once the buckets have refilled the sweep drops them and makes room
+        assertEquals(0, limiter.tryAcquireAddress("10.0.0.3", start + 3 * SECOND));
+        assertEquals(1, limiter.getTrackedKeys());
+    }
+
+    @Test
+    void keysIpv6AddressesByTheirSlash64() throws UnknownHostException {
+        String key = RateLimiter.addressKey(InetAddress.getByName("2001:db8:1:2:aaaa:bbbb:cccc:dddd"));
+        assertEquals("2001:db8:1:2::/64", key);
+        assertEquals(key, RateLimiter.addressKey(InetAddress.getByName("2001:db8:1:2::1")));
+        assertNotEquals(key, RateLimiter.addressKey(InetAddress.getByName("2001:db8:1:3::1")));
+        assertEquals("192.0.2.7", RateLimiter.addressKey(InetAddress.getByName("192.0.2.7")));
+        // IPv4-mapped addresses are IPv4 clients
+        assertEquals("192.0.2.7", RateLimiter.addressKey(InetAddress.getByName("::ffff:192.0.2.7")));
+    }
+
+    @Test
+    void parsesLimits() {
+        RateLimiter.Limit limit = RateLimiter.Limit.parse("30/min:10");
+        assertEquals(10, limit.burst);
+        assertEquals(2 * SECOND, limit.intervalNanos);
+        limit = RateLimiter.Limit.parse(" 5/S ");
+        assertEquals(5, limit.burst);
+        assertEquals(SECOND / 5, limit.intervalNanos);
+        assertNull(RateLimiter.Limit.parse("off"));
+        for (String invalid : new String[] {"30", "30/day", "0/min", "30/min:0", "x/min"}) {
+            assertThrows(IllegalArgumentException.class, () -> RateLimiter.Limit.parse(invalid), invalid);
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package myblog.router;
+
+import org.junit.jupiter.api.Test;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RouterTest {
+    private final Router<String> router = Router.<String>builder()
+        .addRoute("GET", "/", "root")
+        .addRoute("GET", "/users/me", "me")
+        .addRoute("GET", "/users/{id}", "user")
+        .addRoute("GET", "/users/{id}/posts/{post}", "post")
+        .addRoute("GET", "/users/*", "users-rest")
+        .addRoute("GET", "/files/*", "files")
+        .addRoute("GET", "/files/readme", "readme")
+        .addRoute("POST", "/users/{id}", "update-user")
+        .addAuthenticatedRoute("GET", "/mypage", "mypage")
+        .addRoute("GET", "*", "catch-all")
+        .build();
+
+    @Test
+    void literalSegmentsWinOverParameters() {
+        assertMatch("me", Map.of(), "/users/me");
+        assertMatch("user", Map.of("id", "42"), "/users/42");
+    }
+
+    @Test
+    void parametersWinOverWildcards() {
+        assertMatch("user", Map.of("id", "me2"), "/users/me2");
+        assertMatch("post", Map.of("id", "7", "post", "9"), "/users/7/posts/9");
+        assertMatch("users-rest", Map.of("*", "7/comments"), "/users/7/comments");
+    }
+
+    @Test
+    void literalsWinOverWildcards() {
+        assertMatch("readme", Map.of(), "/files/readme");
+        assertMatch("files", Map.of("*", "css/site.css"), "/files/css/site.css");
+    }
+
+    // A literal that leads nowhere for the rest of the path still falls back to a parameter
+    @Test
+    void backtracksFromALiteralDeadEnd() {
+        assertMatch("post", Map.of("id", "me", "post", "3"), "/users/me/posts/3");
+    }
+
+    @Test
+    void trailingSlashesAreSegmentsOfTheirOwn() {
+        // "/users/42/" has an empty last segment, which no parameter takes
+        assertMatch("users-rest", Map.of("*", "42/"), "/users/42/");
+        assertMatch("users-rest", Map.of("*", ""), "/users/");
+        assertMatch("files", Map.of("*", ""), "/files/");
+        assertMatch("catch-all", Map.of(), "/users");
+        assertMatch("catch-all", Map.of(), "/mypage/");
+    }
+
+    @Test
+    void methodsAreMatchedSeparately() {
+        assertMatch("update-user", Map.of("id", "5"), "/users/5", "POST");
+        assertNull(router.match("POST", "/users/me/posts/1"));
+        assertNull(router.match("DELETE", "/"));
+    }
+
+    @Test
+    void catchAllTakesAnythingElseForItsMethod() {
+        assertMatch("catch-all", Map.of(), "/no/such/page");
+        assertMatch("root", Map.of(), "/");
+    }
+
+    @Test
+    void queryStringsAreSplitOff() {
+        RouteMatch<String> match = router.match("GET", "/users/42?tab=posts&page=2");
+        assertEquals("user", match.getHandler());
+        assertEquals("/users/42", match.getPath());
+        assertEquals("42", match.getPathParameter("id"));
+        assertEquals("posts", match.getQueryParam("tab"));
+        assertEquals("2", match.getQueryParam("page"));
+        assertNull(match.getQueryParam("tabs"));
+    }
+
+    @Test
+    void reportsPatternAndAuthentication() {
+        RouteMatch<String> match = router.match("GET", "/mypage");
+        assertTrue(match.isAuthenticated());
+        assertEquals("/mypage", match.getPattern());
+        assertFalse(router.match("GET", "/users/1").isAuthenticated());
+        assertEquals("/users/{id}", router.match("GET", "/users/1").getPattern());
+    }
+
+    @Test
+    void rejectsTargetsThatAreNotPaths() {
+        assertNull(router.match("GET", "http://example.com/"));
+        assertNull(router.match("GET", "*"));
+    }
+
+    @Test
+    void rejectsConflictingPatterns() {
+        assertThrows(IllegalArgumentException.class, () -> Router.<String>builder()
+            .addRoute("GET", "/a/{id}", "one").addRoute("GET", "/a/{name}/b", "two"));
+        assertThrows(IllegalArgumentException.class, () -> Router.<String>builder().addRoute("GET", "/a/*/b", "x"));
+        Router.Builder<String> builder = Router.<String>builder();
+        builder.build();
+        assertThrows(IllegalStateException.class, () -> builder.addRoute("GET", "/", "late"));
+    }
+
+    private void assertMatch(String handler, Map<String, String> parameters, String target) {
+        assertMatch(handler, parameters, target, "GET");
+    }
+
+    private void assertMatch(String handler, Map<String, String> parameters, String target, String method) {
+        RouteMatch<String> match = router.match(method, target);
+        assertNotNull(match, target);
+        assertEquals(handler, match.getHandler(), target);
+        assertEquals(parameters, match.getPathParameters(), target);
+    }
+}
@@ -0,0 +1,196 @@
+package myblog.server;
+
+import myblog.handlers.FileHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.*;
+
+// The selector-based server over loopback, serving the static files
+class NioWebServerTest {
+    private NioWebServer server;
+    private int port;
+
+    private static class Response {
+        final String head;
+        final byte[] body;
+
+        Response(String head, byte[] body) {
+            this.head = head;
+            this.body = body;
+        }
+
+        int status() {
+            return Integer.parseInt(head.substring(9, 12));
+        }
+
+        String header(String name) {
+            for (String line : head.split("\r\n")) {
+                int colon = line.indexOf(':');
+                if (colon > 0 && line.substring(0, colon).equalsIgnoreCase(name)) {
+                    return line.substring(colon + 1).trim();
+                }
+            }
+            return null;
+        }
+    }
+
+    @BeforeEach
+    void startServer() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = probe.getLocalPort();
+        }
+        ListenSettings listen = new ListenSettings();
+        listen.bindAddress = InetAddress.getLoopbackAddress().getHostAddress();
+        listen.port = port;
+        server = new NioWebServer(listen, ServerConfig.fromArgs(new String[] {
+            "--event-loops=1", "--idle-timeout-s=1", "--keep-alive-max=5"}));
+        server.start();
+        Thread acceptor = new Thread(server::run);
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @AfterEach
+    void stopServer() throws Exception {
+        server.shutdown(System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test
+    void keepsTheConnectionForFurtherRequests() throws IOException {
+        try (Socket socket = connect()) {
+            for (int i = 0; i < 3; i++) {
+                send(socket, "GET /login.html HTTP/1.1\r\nHost: x\r\n\r\n");
+                Response response = read(socket.getInputStream());
+                assertEquals(200, response.status());
+                assertEquals("keep-alive", response.header("Connection"));
+                assertEquals("timeout=1, max=" + (4 - i), response.header("Keep-Alive"));
+            }
+        }
+    }
+
+    @Test
+    void answersPipelinedRequestsInOrder() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "GET /login.html HTTP/1.1\r\nHost: x\r\n\r\n"
+                + "GET /no-such-page HTTP/1.1\r\nHost: x\r\n\r\n"
+                + "GET /css/styles.css HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals(200, read(in).status());
+            assertEquals(404, read(in).status());
+            Response last = read(in);
+            assertEquals(200, last.status());
+            assertTrue(last.header("Content-Type").startsWith("text/css"));
+            assertEquals("close", last.header("Connection"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void closesAfterTheLastAllowedRequest() throws IOException {
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            for (int i = 0; i < 4; i++) {
+                send(socket, "GET /login.html HTTP/1.1\r\nHost: x\r\n\r\n");
+                assertEquals("keep-alive", read(in).header("Connection"));
+            }
+            send(socket, "GET /login.html HTTP/1.1\r\nHost: x\r\n\r\n");
+            assertEquals("close", read(in).header("Connection"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void http10ConnectionsCloseUnlessAsked() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "GET /login.html HTTP/1.0\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals("close", read(in).header("Connection"));
+            assertEquals(-1, in.read());
+        }
+    }
+
+    @Test
+    void closesConnectionsIdleBetweenRequests() throws IOException {
+        try (Socket socket = connect()) {
+            send(socket, "GET /login.html HTTP/1.1\r\nHost: x\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            assertEquals(200, read(in).status());
+            long started = System.nanoTime();
+            assertEquals(-1, in.read());
+            assertTrue(System.nanoTime() - started > TimeUnit.MILLISECONDS.toNanos(500));
+        }
+    }
+
+    // Bodies too big for the response buffer go out from the cache or the file as the socket
+    // takes them; the connection carries on afterwards
+    @Test
+    void sendsLargeBodiesInFull() throws IOException {
+        Path root = FileHandler.defaultStaticRoot();
+        byte[] image = Files.readAllBytes(root.resolve("img/login_image.jpg"));
+        assertLargeBodies(image);
+        // Entries over the cache's size limit are sent from the file
+        FileHandler.configureCache(root, 32L * 1024 * 1024, 1024, false);
+        try {
+            assertLargeBodies(image);
+        } finally {
+            FileHandler.configureCache(root, 32L * 1024 * 1024, 8L * 1024 * 1024, false);
+        }
+    }
+
+    private void assertLargeBodies(byte[] image) throws IOException {
+        try (Socket socket = connect()) {
+            InputStream in = socket.getInputStream();
+            send(socket, "GET /img/login_image.jpg HTTP/1.1\r\nHost: x\r\n\r\n"
+                + "GET /img/login_image.jpg HTTP/1.1\r\nHost: x\r\nRange: bytes=100-200099\r\n\r\n");
+            Response full = read(in);
+            assertEquals(200, full.status());
+            assertArrayEquals(image, full.body);
+            Response partial = read(in);
+            assertEquals(206, partial.status());
+            assertArrayEquals(Arrays.copyOfRange(image, 100, 200100), partial.body);
+            send(socket, "GET /login.html HTTP/1.1\r\nHost: x\r\n\r\n");
+            assertEquals(200, read(in).status());
+        }
+    }
+
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(5000);
+        return socket;
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    // Reads one response framed by Content-Length, leaving anything after it unread
+    private static Response read(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.indexOf("\r\n\r\n") < 0) {
+            int b = in.read();
+            if (b < 0) {
+                fail("Connection closed before the response head ended: " + head);
+            }
+            head.append((char) b);
+        }
+        Response response = new Response(head.toString(), null);
+        String length = response.header("Content-Length");
+        byte[] body = in.readNBytes(length == null ? 0 : Integer.parseInt(length));
+        return new Response(response.head, body);
+    }
+}